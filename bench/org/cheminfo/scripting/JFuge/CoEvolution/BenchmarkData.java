@@ -0,0 +1,150 @@
+/**
+ * Name: BenchmarkData
+ * Goal: datasets and random genes shared by the benchmarks:
+ *      - iris: data/iris_train.arff, 4 attributes and 3 classes
+ *      - coffee: data/coffeeNMRSpectra.csv, 512 bins per spectrum. The file
+ *        has no class, so spectra are split in two classes by their total
+ *        intensity, below or above the median
+ * Usage: files are read from the data directory of the project, or from the
+ *        directory given by the jfuge.data system property. Genes are drawn
+ *        from a fixed seed, so every run measures the same systems
+ * @see InferenceBenchmark
+ * @see GeneBenchmark
+ * @see GenerationBenchmark
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.cheminfo.scripting.Utils.RandomStream;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils.DataSource;
+
+public class BenchmarkData {
+    
+    public static final String IRIS = "iris";
+    
+    public static final String COFFEE = "coffee";
+    
+    //seed of the random genes
+    public static final long SEED = 42;
+    
+    /**
+     * Name: load
+     * Goal: reads one of the benchmark datasets
+     * @param dataset: IRIS or COFFEE
+     * @return Instances: the dataset, with its class index set
+     * @throws Exception: if the file cannot be read
+     */
+    public static Instances load(String dataset) throws Exception{
+        File dir = new File(System.getProperty("jfuge.data", "data"));
+        Instances data;
+        if(dataset.equals(IRIS))
+            data = new DataSource(new File(dir, "iris_train.arff").getPath()).getDataSet();
+        else if(dataset.equals(COFFEE))
+            data = loadSpectra(new File(dir, "coffeeNMRSpectra.csv"));
+        else
+            throw new IllegalArgumentException("Unknown dataset: "+dataset);
+        data.setClassIndex(data.numAttributes()-1);
+        return data;
+    }/*end load*/
+    
+    /**
+     * Name: loadSpectra
+     * Goal: reads spectra, one per line of comma separated intensities, and
+     *       adds a nominal class telling if the total intensity of a spectrum
+     *       is above the median
+     * @param file: the csv file, without header
+     * @return Instances: one numeric attribute per bin, then the class
+     * @throws IOException: if the file cannot be read
+     */
+    private static Instances loadSpectra(File file) throws IOException{
+        ArrayList<double[]> spectra = new ArrayList<double[]>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try{
+            String line;
+            while((line = reader.readLine()) != null){
+                if(line.trim().length() == 0)
+                    continue;
+                String[] fields = line.split(",");
+                double[] spectrum = new double[fields.length];
+                for(int i = 0; i < fields.length; i++)
+                    spectrum[i] = Double.parseDouble(fields[i].trim());
+                spectra.add(spectrum);
+            }
+        }
+        finally{
+            reader.close();
+        }
+        double[] sums = new double[spectra.size()];
+        for(int i = 0; i < sums.length; i++)
+            for(double v : spectra.get(i))
+                sums[i] += v;
+        double[] sorted = sums.clone();
+        Arrays.sort(sorted);
+        double median = sorted[sorted.length/2];
+        
+        int bins = spectra.get(0).length;
+        FastVector attributes = new FastVector(bins+1);
+        for(int j = 0; j < bins; j++)
+            attributes.addElement(new Attribute("bin"+j));
+        FastVector classes = new FastVector(2);
+        classes.addElement("low");
+        classes.addElement("high");
+        attributes.addElement(new Attribute("intensity", classes));
+        Instances data = new Instances("coffee", attributes, spectra.size());
+        data.setClassIndex(bins);
+        Instance inst;
+        for(int i = 0; i < sums.length; i++){
+            inst = new Instance(bins+1);
+            inst.setDataset(data);
+            for(int j = 0; j < bins; j++)
+                inst.setValue(j, spectra.get(i)[j]);
+            inst.setValue(bins, sums[i] < median?0:1);
+            data.add(inst);
+        }
+        return data;
+    }/*end loadSpectra*/
+    
+    /**
+     * Name: randomMFGene
+     * Goal: draws a membership function gene the way a coevolution on the
+     *       snapshot would
+     * @param snapshot: the training data
+     * @param is_binary: indicates if variables have two or three terms
+     * @param random: the random numbers
+     * @return MFGene: the random gene
+     */
+    static MFGene randomMFGene(TrainingSnapshot snapshot, boolean is_binary, RandomStream random){
+        int num_attributes = snapshot.getColumns().numAttributes();
+        MFGene gene = new MFGene(snapshot.getMinMax(), num_attributes-1);
+        gene.makeRandom(num_attributes+snapshot.getColumns().numClasses()-1, is_binary?2:3, random);
+        return gene;
+    }/*end randomMFGene*/
+    
+    /**
+     * Name: randomRuleGene
+     * Goal: draws a rule gene the way a coevolution on the snapshot would
+     * @param snapshot: the training data
+     * @param is_binary: indicates if variables have two or three terms
+     * @param rule_count: the number of rules of the gene
+     * @param random: the random numbers
+     * @return RuleGene: the random gene
+     */
+    static RuleGene randomRuleGene(TrainingSnapshot snapshot, boolean is_binary, int rule_count, RandomStream random){
+        int num_attributes = snapshot.getColumns().numAttributes();
+        int num_classes = snapshot.getColumns().numClasses();
+        RuleGene gene = new RuleGene(num_attributes, is_binary?2:3, num_classes);
+        gene.makeRandom(rule_count, num_attributes+num_classes-1, random);
+        return gene;
+    }/*end randomRuleGene*/
+
+}/*end BenchmarkData*/
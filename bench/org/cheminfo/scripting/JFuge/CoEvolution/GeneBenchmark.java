@@ -0,0 +1,115 @@
+/**
+ * Name: GeneBenchmark
+ * Goal: measures the genetic operators of both gene types:
+ *      - mfCrossover, ruleCrossover: crossover allocating both children
+ *      - mfCrossoverInto, ruleCrossoverInto: crossover into children
+ *        allocated once, as with double buffering
+ *      - mfMutate, ruleMutate: mutation of a single cell
+ * Usage: parameterized by dataset (iris, coffee), which sets the size of
+ *        the MF gene and the width of the rule gene, and by number of rules.
+ *        Mutated genes are mutated again at each call, their cells staying in
+ *        their valid range
+ * @see BenchmarkData
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.util.concurrent.TimeUnit;
+import org.cheminfo.scripting.Utils.RandomStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneBenchmark {
+    
+    @Param({BenchmarkData.IRIS, BenchmarkData.COFFEE})
+    public String dataset;
+    
+    @Param({"6", "20"})
+    public int rule_count;
+    
+    private RandomStream random;
+    
+    //parents, then the genes receiving their children
+    private MFGene mf_parent1;
+    
+    private MFGene mf_parent2;
+    
+    private MFGene mf_child1;
+    
+    private MFGene mf_child2;
+    
+    private RuleGene rule_parent1;
+    
+    private RuleGene rule_parent2;
+    
+    private RuleGene rule_child1;
+    
+    private RuleGene rule_child2;
+    
+    @Setup
+    public void setUp() throws Exception{
+        TrainingSnapshot snapshot = new TrainingSnapshot(BenchmarkData.load(dataset));
+        random = new RandomStream(BenchmarkData.SEED);
+        mf_parent1 = BenchmarkData.randomMFGene(snapshot, false, random);
+        mf_parent2 = BenchmarkData.randomMFGene(snapshot, false, random);
+        mf_child1 = BenchmarkData.randomMFGene(snapshot, false, random);
+        mf_child2 = BenchmarkData.randomMFGene(snapshot, false, random);
+        rule_parent1 = BenchmarkData.randomRuleGene(snapshot, false, rule_count, random);
+        rule_parent2 = BenchmarkData.randomRuleGene(snapshot, false, rule_count, random);
+        rule_child1 = BenchmarkData.randomRuleGene(snapshot, false, rule_count, random);
+        rule_child2 = BenchmarkData.randomRuleGene(snapshot, false, rule_count, random);
+    }/*end setUp*/
+    
+    @Benchmark
+    public Gene[] mfCrossover(){
+        return mf_parent1.crossover(mf_parent2, random);
+    }/*end mfCrossover*/
+    
+    @Benchmark
+    public void mfCrossoverInto(Blackhole hole){
+        mf_parent1.crossover(mf_parent2, random, mf_child1, mf_child2);
+        hole.consume(mf_child1);
+        hole.consume(mf_child2);
+    }/*end mfCrossoverInto*/
+    
+    @Benchmark
+    public Gene mfMutate(){
+        mf_child1.mutate(random);
+        return mf_child1;
+    }/*end mfMutate*/
+    
+    @Benchmark
+    public Gene[] ruleCrossover(){
+        return rule_parent1.crossover(rule_parent2, random);
+    }/*end ruleCrossover*/
+    
+    @Benchmark
+    public void ruleCrossoverInto(Blackhole hole){
+        rule_parent1.crossover(rule_parent2, random, rule_child1, rule_child2);
+        hole.consume(rule_child1);
+        hole.consume(rule_child2);
+    }/*end ruleCrossoverInto*/
+    
+    @Benchmark
+    public Gene ruleMutate(){
+        rule_child1.mutate(random);
+        return rule_child1;
+    }/*end ruleMutate*/
+
+}/*end GeneBenchmark*/
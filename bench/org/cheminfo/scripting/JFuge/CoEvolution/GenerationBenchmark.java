@@ -0,0 +1,64 @@
+/**
+ * Name: GenerationBenchmark
+ * Goal: measures one full generation of a coevolution: breeding both
+ *       populations, translating and evaluating every system of the
+ *       generation on all training rows
+ * Usage: parameterized by dataset (iris, coffee), number of rules and
+ *        population size. The generation runs on the benchmark thread, like
+ *        with a single evaluation thread. The same evolution continues from
+ *        one call to the next, it never stops since it has no last generation
+ * @see BenchmarkData
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.util.concurrent.TimeUnit;
+import org.cheminfo.scripting.JFuge.JFuge;
+import org.cheminfo.scripting.Utils.RandomStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GenerationBenchmark {
+    
+    @Param({BenchmarkData.IRIS, BenchmarkData.COFFEE})
+    public String dataset;
+    
+    @Param({"6", "20"})
+    public int rule_count;
+    
+    @Param({"50", "200"})
+    public int pop_size;
+    
+    private Coevolution coevolution;
+    
+    @Setup
+    public void setUp() throws Exception{
+        TrainingSnapshot snapshot = new TrainingSnapshot(BenchmarkData.load(dataset));
+        //default parameters of JFuge, but the number of generations
+        coevolution = new Coevolution(snapshot, -1, -1, -1, pop_size, Integer.MAX_VALUE, false,
+                                      JFuge.ROULETTE_SELECTION, JFuge.ERROR_RMSE, 0, 10, 1, 1, 1, 1, rule_count,
+                                      new RandomStream(BenchmarkData.SEED));
+        coevolution.startEvolution();
+    }/*end setUp*/
+    
+    @Benchmark
+    public boolean generation(){
+        return coevolution.evolveGeneration(null);
+    }/*end generation*/
+
+}/*end GenerationBenchmark*/
@@ -0,0 +1,136 @@
+/**
+ * Name: InferenceBenchmark
+ * Goal: measures the evaluation of an evolved system, from the innermost
+ *       step to the whole translation:
+ *      - membershipEval: MembershipFunction.eval of an input variable
+ *      - ruleActivation: Rule.computeActivation of a rule with antecedents
+ *      - distributionForInstance: FuzzySystem.distributionForInstance
+ *      - geneToFuzzy: GeneTranslator.geneToFuzzy of a pair of genes
+ *      - geneToCompiled: GeneTranslator.geneToCompiled of the same genes,
+ *        the translation used to evaluate individuals
+ *       Each call reads the next row of the dataset, so branches depending on
+ *       the values are not always taken the same way
+ * Usage: parameterized by dataset (iris, coffee) and number of rules. Run
+ *        with the gc profiler to get the allocation rate next to throughput:
+ *        ant bench -Djmh.lib=<jmh jars>
+ * @see BenchmarkData
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.util.concurrent.TimeUnit;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.ColumnarData;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.CompiledFuzzySystem;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystem;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.MembershipFunction;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.Rule;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.Variable;
+import org.cheminfo.scripting.Utils.RandomStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import weka.core.Instance;
+import weka.core.Instances;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InferenceBenchmark {
+    
+    @Param({BenchmarkData.IRIS, BenchmarkData.COFFEE})
+    public String dataset;
+    
+    @Param({"6", "20"})
+    public int rule_count;
+    
+    private Instances data;
+    
+    private ColumnarData columns;
+    
+    private double[][] min_max;
+    
+    private MFGene mf_gene;
+    
+    private RuleGene rule_gene;
+    
+    private FuzzySystem system;
+    
+    //mf of the first input variable, and the attribute it reads
+    private MembershipFunction mf;
+    
+    private int mf_attribute;
+    
+    private Rule rule;
+    
+    //next row to read
+    private int row = 0;
+    
+    @Setup
+    public void setUp() throws Exception{
+        data = BenchmarkData.load(dataset);
+        TrainingSnapshot snapshot = new TrainingSnapshot(data);
+        min_max = snapshot.getMinMax();
+        columns = snapshot.getColumns();
+        RandomStream random = new RandomStream(BenchmarkData.SEED);
+        mf_gene = BenchmarkData.randomMFGene(snapshot, false, random);
+        rule_gene = BenchmarkData.randomRuleGene(snapshot, false, rule_count, random);
+        system = GeneTranslator.geneToFuzzy(mf_gene, rule_gene, data, false, min_max);
+        //compiled, as the systems kept by the evolution
+        system.compile();
+        Variable var = system.getInVars().getFirst();
+        mf = var.getMf();
+        mf_attribute = var.getAttributeIndex();
+        //the default rule has no antecedent, and does not read the instance
+        for(Rule r : system.getRules()){
+            if(r.getAntecedents() != null && !r.getAntecedents().isEmpty()){
+                rule = r;
+                break;
+            }
+        }
+        if(rule == null)
+            rule = system.getRules().getFirst();
+    }/*end setUp*/
+    
+    private Instance nextInstance(){
+        Instance inst = data.instance(row);
+        row = (row+1)%data.numInstances();
+        return inst;
+    }/*end nextInstance*/
+    
+    @Benchmark
+    public double[] membershipEval(){
+        return mf.eval(nextInstance().value(mf_attribute));
+    }/*end membershipEval*/
+    
+    @Benchmark
+    public double[][] ruleActivation(){
+        return rule.computeActivation(nextInstance());
+    }/*end ruleActivation*/
+    
+    @Benchmark
+    public double[] distributionForInstance(){
+        return system.distributionForInstance(nextInstance());
+    }/*end distributionForInstance*/
+    
+    @Benchmark
+    public FuzzySystem geneToFuzzy(){
+        return GeneTranslator.geneToFuzzy(mf_gene, rule_gene, data, false, min_max);
+    }/*end geneToFuzzy*/
+    
+    @Benchmark
+    public CompiledFuzzySystem geneToCompiled(){
+        return GeneTranslator.geneToCompiled(mf_gene, rule_gene, columns, false);
+    }/*end geneToCompiled*/
+
+}/*end InferenceBenchmark*/
@@ -0,0 +1,186 @@
+/**
+ * Name: Checkpoint
+ * Goal: writes the checkpoints of an evolution to disk, so it may be resumed
+ *       after being stopped. The state of the evolution is copied into memory
+ *       between two generations; writing it to disk is left to a background
+ *       thread, so the evolution does not wait for the disk. The format is
+ *       (big endian):
+ *      - magic number "JFCK" (int), format version (short) and kind (byte,
+ *        0 for a coevolution, 1 for islands)
+ *      - the state of the coevolution, or the number of islands (int)
+ *        followed by the state of each island, as written by Coevolution
+ * Methods:
+ *      - write: writes a checkpoint in the background. Only the most recent
+ *               checkpoint waiting to be written is kept
+ *      - close: waits for the last checkpoint to be written
+ *      - open: opens a checkpoint file to restore an evolution
+ * Usage: a checkpoint is first written to a temporary file, then renamed, so
+ *        the previous checkpoint stays complete if writing fails. Failures are
+ *        logged and do not stop the evolution.
+ * @see Coevolution
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+class Checkpoint {
+    
+    //first bytes of every checkpoint: "JFCK"
+    static final int MAGIC = 0x4A46434B;
+    
+    //version of the format written
+    static final short VERSION = 1;
+    
+    //kinds of evolution
+    static final byte COEVOLUTION = 0;
+    
+    static final byte ISLANDS = 1;
+    
+    //the checkpoint file
+    private File file;
+    
+    //thread writing the checkpoints
+    private ExecutorService writer;
+    
+    //most recent checkpoint not written yet, null if none
+    private AtomicReference<byte[]> pending = new AtomicReference<byte[]>();
+    
+    /**
+     * Name: Checkpoint
+     * Goal: creates a writer of checkpoints into the given file
+     * @param file: the checkpoint file. It is replaced by each checkpoint
+     */
+    Checkpoint(File file){
+        this.file = file;
+        this.writer = Executors.newSingleThreadExecutor(new ThreadFactory(){
+            public Thread newThread(Runnable task){
+                Thread thread = new Thread(task, "JFuge checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }/*end Checkpoint*/
+    
+    /**
+     * Name: header
+     * Goal: starts the state of a checkpoint, in memory
+     * @param kind: COEVOLUTION or ISLANDS
+     * @param bytes: receives the state
+     * @return DataOutputStream: the stream to write the state into
+     */
+    static DataOutputStream header(byte kind, ByteArrayOutputStream bytes){
+        DataOutputStream out = new DataOutputStream(bytes);
+        try{
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeByte(kind);
+        }
+        catch(IOException e){
+            //never thrown by a stream in memory
+            throw new IllegalStateException(e);
+        }
+        return out;
+    }/*end header*/
+    
+    /**
+     * Name: open
+     * Goal: opens a checkpoint file and checks its header
+     * @param file: the checkpoint file
+     * @param kind: the kind of evolution expected
+     * @return DataInputStream: the stream of the state, after the header
+     * @throws IOException: if the file cannot be read or is not a checkpoint of that kind
+     */
+    static DataInputStream open(File file, byte kind) throws IOException{
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try{
+            if(in.readInt() != MAGIC)
+                throw new IOException("Not a checkpoint file: "+file);
+            short version = in.readShort();
+            if(version > VERSION || version < 1)
+                throw new IOException("Checkpoint version not supported: "+version);
+            if(in.readByte() != kind)
+                throw new IOException(kind==ISLANDS?"Checkpoint of a single coevolution, islands expected"
+                                                   :"Checkpoint of islands, a single coevolution expected");
+            return in;
+        }
+        catch(IOException e){
+            in.close();
+            throw e;
+        }
+    }/*end open*/
+    
+    /**
+     * Name: write
+     * Goal: writes a checkpoint in the background. If a checkpoint is still
+     *       waiting to be written, it is replaced by this one
+     * @param state: the checkpoint, header included. Must not be modified
+     */
+    void write(byte[] state){
+        //a task is already waiting for the previous state: it writes this one
+        if(pending.getAndSet(state) != null)
+            return;
+        writer.execute(new Runnable(){
+            public void run(){
+                byte[] latest;
+                while((latest = pending.getAndSet(null)) != null)
+                    save(latest);
+            }
+        });
+    }/*end write*/
+    
+    /**
+     * Name: close
+     * Goal: waits for the checkpoints waiting to be written and stops the
+     *       writing thread
+     */
+    void close(){
+        writer.shutdown();
+        try{
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }/*end close*/
+    
+    /**
+     * Name: save
+     * Goal: writes a checkpoint into a temporary file, then replaces the
+     *       checkpoint file by it
+     * @param state: the checkpoint
+     */
+    private void save(byte[] state){
+        File temporary = new File(file.getPath()+".tmp");
+        try{
+            FileOutputStream out = new FileOutputStream(temporary);
+            try{
+                out.write(state);
+                out.getFD().sync();
+            }
+            finally{
+                out.close();
+            }
+            if(!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file)))
+                throw new IOException("Cannot replace "+file);
+        }
+        catch(IOException e){
+            Logger.getLogger(Checkpoint.class.getName()).log(Level.WARNING, "Checkpoint not written", e);
+        }
+    }/*end save*/
+
+}/*end Checkpoint*/
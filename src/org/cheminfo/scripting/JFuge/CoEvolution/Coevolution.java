@@ -7,15 +7,80 @@
  *      - evolveSystem: evolves the populations to create fuzzy systems. The system
  *        of the last generation with the highest fitness is chosen and returned for
  *        use.The parameters of the evolution are all given by JFuge.
+ *      - setEvaluationThreads: sets the number of threads evaluating the
+ *        individuals of a generation. Fitness does not depend on the number of
+ *        threads, only the time needed to compute it does.
+ *      - addEvolutionListener: registers a listener receiving the statistics
+ *        of each generation (times, throughput, fitness, memory)
+ *      - setStagnationLimit, setTargetFitness, setTimeBudget: stop the
+ *        evolution before the last generation when fitness stops improving,
+ *        reaches a target, or when the time budget is spent. When one of them
+ *        is set, the best system found during the whole evolution is returned
+ *      - setFitnessCache: sets the cache remembering the fitness of evaluated
+ *        individuals. Copies of an individual are then only evaluated once.
+ *      - setMiniBatch: scores the individuals of each generation on a
+ *        stratified sample of the training rows, drawn again at each
+ *        generation. The fittest individuals are scored again on all rows
+ *        before a system is chosen
+ *      - setDeltaEvaluation: evaluates individuals by only recomputing the
+ *        memberships and rule activations their genes changed since their
+ *        last evaluation. Fitness is identical, but each gene keeps the
+ *        values of its last evaluation, for each training row
+ *      - setSparseInference: evaluates the evolved systems through an index
+ *        from terms to rules, skipping the rules an instance cannot activate.
+ *        Fitness is identical
+ *      - setDistributedEvaluation: scores the individuals of each generation
+ *        on worker JVMs, which only receive genes and send back fitnesses.
+ *        Fitness is identical
+ *      - setDoubleBuffering: breeds each population into two pools of genes
+ *        allocated once, instead of allocating the DNA of each child. The
+ *        evolution is identical
+ *      - setCheckpoint: periodically saves the state of the evolution
+ *        (populations, fitnesses, random numbers, generation counter) to a
+ *        file, written in the background
+ *      - resume: restores the state saved in a checkpoint. The next call to
+ *        evolveSystem continues that evolution instead of starting a new one,
+ *        and evolves the same systems the stopped evolution would have
+ *      - cancel: stops the evolution after the current generation, from any
+ *        thread. The best system found so far is kept
+ *      - getGenerationsRun, getBestSoFar: follow the progress of a running
+ *        evolution from another thread, without waiting for it
+ * Evaluation: individuals are scored from a compiled system built straight
+ *             from their genes. A fuzzy system is only built for the best
+ *             individual of a generation when it is kept (best so far,
+ *             returned system)
+ * Threads: the coevolution owns a single pool for the whole evolution. Both
+ *          populations are bred at the same time on it, then the individuals
+ *          are evaluated on it. The pool is shut down once evolution is over.
+ *          Each population draws from its own random stream, so the evolved
+ *          systems only depend on the seed, not on the number of threads.
  * @see JFuge
  * @author Numa Trezzini
  */
 package org.cheminfo.scripting.JFuge.CoEvolution;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.ColumnarData;
 import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystem;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystemFile;
 import org.cheminfo.scripting.JFuge.JFuge;
-import weka.core.Instance;
+import org.cheminfo.scripting.Utils.RandomStream;
 import weka.core.Instances;
 
 
@@ -34,6 +99,9 @@ public class Coevolution {
     //data used for evaaluating systems
     private Instances train_data;
     
+    //snapshot of the training data, read by fitness computation
+    private ColumnarData train_columns;
+    
     //gene mutation rate
     private double mutation_rate;
     
@@ -65,20 +133,116 @@ public class Coevolution {
     //in case of tournament selection, indicates the size of a tournament
     private int tournament_size = 2;
     
-    //indicates the weight of the classification ratio in fitness computation
-    private double classification_weight = 1;
-    
-    //indicates the weight of the error rate in fitness computation
-    private double error_weight = 1;
-    
     //indicates which error computation algorithm is used
     private String error_algo = JFuge.ERROR_RMSE;
     
-    //indicates the weight of the number of rules in fitness computation
-    private double rule_number_weight = 1;
+    //number of threads evaluating the individuals of a generation
+    private int eval_threads = 1;
+    
+    //indicates if membership functions are binary or tertiary
+    private boolean is_binary;
+    
+    //remembers the fitness of evaluated individuals. null if disabled
+    private FitnessCache fitness_cache;
+    
+    //number of training rows individuals are scored on at each generation.
+    //0 if all rows are used
+    private int batch_size = 0;
+    
+    //indicates when individuals scored on a batch are scored on all rows
+    private String rescore_policy = JFuge.RESCORE_FINAL;
+    
+    //rows of each class (the last group holds rows without class), from
+    //which batches are drawn. null if batches are disabled
+    private int[][] strata;
+    
+    //draws the rows of each batch
+    private RandomStream batch_random;
+    
+    //rows the individuals of the current generation are scored on: all
+    //training rows, or the batch of the generation
+    private ColumnarData fitness_data;
+    
+    //individuals of the last generation scored on all rows, fittest on the
+    //batch first. null if the generation was scored on all rows
+    private int[] rescored;
+    
+    //evaluates individuals incrementally. null if disabled
+    private DeltaEvaluator delta_evaluator;
+    
+    //indicates if the systems kept by the evolution are translated with the
+    //sparse rule index. The scorer holds its own copy for evaluation
+    private boolean sparse_inference = false;
+    
+    //classification, error, rule number and var per rule weights, given to
+    //the scorer and identifying the fitness function in the cache
+    private double[] fitness_weights;
+    
+    //computes the fitness of individuals straight from their genes
+    private GenomeScorer scorer;
+    
+    //scores the individuals of each generation on worker JVMs. null if
+    //individuals are scored in this JVM
+    private DistributedEvaluator distributed;
+    
+    //rows of the batch of the current generation, null if all rows are used
+    private int[] batch_rows;
+    
+    //number of generations without improvement of the best fitness before
+    //evolution stops. 0 if disabled
+    private int stagnation_limit = 0;
+    
+    //fitness at which evolution stops. NaN if disabled
+    private double target_fitness = Double.NaN;
+    
+    //time after which evolution stops, in milliseconds. 0 if disabled
+    private long time_budget = 0;
+    
+    //number of generations run by the last evolution. Read by the threads
+    //following the evolution
+    private volatile int generations_run;
+    
+    //set by cancel, stops the evolution after the current generation
+    private volatile boolean cancelled = false;
+    
+    //best system of all generations run, published after each generation
+    //for the threads following the evolution
+    private volatile FuzzySystem progress_best;
+    
+    //genes and fitnesses of the last evaluated generation
+    private Gene[] last_mf_genes;
+    
+    private Gene[] last_rule_genes;
+    
+    private double[] fitnesses;
+    
+    //best system of the last generation, translated once asked for. null
+    //until then
+    private FuzzySystem last_best;
+    
+    //best system found so far, only tracked when evolution may stop early
+    private FuzzySystem best;
+    
+    //number of generations since the best fitness improved
+    private int stagnation;
+    
+    //time at which the time budget is spent
+    private long deadline;
     
-    //indicates the weight of the number of variables per rule in fitness computation
-    private double var_per_rule_weight = 1;
+    //file receiving the checkpoints. null if disabled
+    private File checkpoint_file;
+    
+    //number of generations between two checkpoints
+    private int checkpoint_interval;
+    
+    //indicates if the next evolution continues a resumed one
+    private boolean resumed = false;
+    
+    //time already spent by a resumed evolution, in milliseconds
+    private long time_spent = 0;
+    
+    //listeners told about each generation
+    private LinkedList<EvolutionListener> listeners = new LinkedList<EvolutionListener>();
     
     /**
      * Name: Coevolution
@@ -107,16 +271,70 @@ public class Coevolution {
                        int tournament_size, double classification_weight,
                        double error_weight, double rule_number_weight,
                        double var_per_rule_weight, int rule_count){
+        this(train_data, mutation_rate, crossover_rate, selection_rate,
+             population_size, num_generations, is_binary, selection_algorithm,
+             error_algorithm, elitism_rate, tournament_size,
+             classification_weight, error_weight, rule_number_weight,
+             var_per_rule_weight, rule_count, new RandomStream());
+    }/*end Coevolution*/
+    
+    /**
+     * Name: Coevolution
+     * Goal: instanciaties a Coevolution algorithm with given parameters and
+     *       random numbers. Two coevolutions with the same parameters and
+     *       streams with the same seed evolve the same systems, whatever the
+     *       number of threads
+     * @param random: the random numbers of the evolution. Each population gets
+     *                its own stream, split from this one
+     * @see Coevolution(Instances, double, double, double, int, int, boolean,
+     *                  String, String, double, int, double, double, double,
+     *                  double, int)
+     */
+    public Coevolution(Instances train_data, double mutation_rate,
+                       double crossover_rate, double selection_rate,
+                       int population_size, int num_generations,
+                       boolean is_binary, String selection_algorithm,
+                       String error_algorithm, double elitism_rate,
+                       int tournament_size, double classification_weight,
+                       double error_weight, double rule_number_weight,
+                       double var_per_rule_weight, int rule_count,
+                       RandomStream random){
+        this(new TrainingSnapshot(train_data), mutation_rate, crossover_rate,
+             selection_rate, population_size, num_generations, is_binary,
+             selection_algorithm, error_algorithm, elitism_rate,
+             tournament_size, classification_weight, error_weight,
+             rule_number_weight, var_per_rule_weight, rule_count, random);
+    }/*end Coevolution*/
+    
+    /**
+     * Name: Coevolution
+     * Goal: instanciaties a Coevolution algorithm on training data already
+     *       prepared. Coevolutions sharing a snapshot do not prepare the data
+     *       again, and evolve as if each had been given the dataset
+     * @param snapshot: the prepared training data
+     * @see Coevolution(Instances, double, double, double, int, int, boolean,
+     *                  String, String, double, int, double, double, double,
+     *                  double, int, RandomStream)
+     */
+    public Coevolution(TrainingSnapshot snapshot, double mutation_rate,
+                       double crossover_rate, double selection_rate,
+                       int population_size, int num_generations,
+                       boolean is_binary, String selection_algorithm,
+                       String error_algorithm, double elitism_rate,
+                       int tournament_size, double classification_weight,
+                       double error_weight, double rule_number_weight,
+                       double var_per_rule_weight, int rule_count,
+                       RandomStream random){
         this.elitism_rate = elitism_rate;
         this.tournament_size = tournament_size;
         this.selection_algo = selection_algorithm;
         this.error_algo = error_algorithm;
-        this.train_data = train_data;
-        this.classification_weight = classification_weight;
-        this.error_weight = error_weight;
-        this.rule_number_weight = rule_number_weight;
-        this.var_per_rule_weight = var_per_rule_weight;
+        this.train_data = snapshot.getData();
+        this.train_columns = snapshot.getColumns();
         this.rule_count = rule_count;
+        this.is_binary = is_binary;
+        this.fitness_weights = new double[]{classification_weight, error_weight, rule_number_weight, var_per_rule_weight};
+        this.scorer = new GenomeScorer(train_columns, error_algorithm, fitness_weights, false);
         
         if(mutation_rate != -1)
             this.mutation_rate = mutation_rate;
@@ -128,12 +346,12 @@ public class Coevolution {
             pop_size = population_size;
         if(num_generations != -1)
             this.num_generations = num_generations;
-        //find the min and max values from the data set
-        min_max = findMinMax(train_data);
+        //min and max values from the data set
+        min_max = snapshot.getMinMax();
         
-        int max_var_index = train_data.numAttributes();
+        int max_var_index = train_columns.numAttributes();
         int max_input_index = is_binary?2:3;
-        int max_output_index = train_data.classAttribute().numValues();
+        int max_output_index = train_columns.numClasses();
 
         //System.out.println("parameters found. threads init");
         
@@ -142,276 +360,880 @@ public class Coevolution {
         //max_term_index = 2-3
         //line count: nb variables+nb classes (output) = data.numAttributes+data.classAttribute.numValues()
         //column count: nb termes (2-3)
-        this.mf_evolver = new GeneticEngine(this.crossover_rate, this.selection_rate, this.selection_algo, this.elitism_rate, this.tournament_size, this.mutation_rate, pop_size, MF, min_max, max_var_index, max_input_index, max_output_index, train_data.numAttributes()+train_data.classAttribute().numValues()-1, is_binary?2:3);
+        this.mf_evolver = new GeneticEngine(this.crossover_rate, this.selection_rate, this.selection_algo, this.elitism_rate, this.tournament_size, this.mutation_rate, pop_size, MF, min_max, max_var_index, max_input_index, max_output_index, train_columns.numAttributes()+train_columns.numClasses()-1, is_binary?2:3, random.split());
         
         //line count: nb regles (5-6)
         //column count: nb variables+nb classes(out) = data.numAttributes+data.classAttribute.numValues()
-        this.rule_evolver = new GeneticEngine(this.crossover_rate, this.selection_rate, this.selection_algo, this.elitism_rate, this.tournament_size, this.mutation_rate, pop_size, RULE, min_max, max_var_index, max_input_index, max_output_index, rule_count, train_data.numAttributes()+train_data.classAttribute().numValues()-1);
+        this.rule_evolver = new GeneticEngine(this.crossover_rate, this.selection_rate, this.selection_algo, this.elitism_rate, this.tournament_size, this.mutation_rate, pop_size, RULE, min_max, max_var_index, max_input_index, max_output_index, rule_count, train_columns.numAttributes()+train_columns.numClasses()-1, random.split());
+        this.batch_random = random.split();
+        this.fitness_data = train_columns;
     }/*end Coevolution*/
     
-    /**
-     * Name: findMinMax
-     * Goal: looks into data to find minimum and maximum values MFs may take.
-     * @param data1: the data in which to look
-     * @return double[]: first result is min, second is max
-     */
-    private double[][] findMinMax(Instances data1){
-        double[][] result = new double[data1.numAttributes()+data1.classAttribute().numValues()-1][2];
-        result[0][0] = data1.instance(0).value(0);
-        result[0][1] = data1.instance(0).value(0);
-        Instance current; 
-        int num_attributes = data1.numAttributes();
-        for(int i = 0; i < data1.numInstances(); i++){
-            current = data1.instance(i);
-            //result[i][0] = current.value(0);
-            for(int j = 0; j < num_attributes-1; j++){
-                if(current.value(j) < result[j][0])
-                    result[j][0] = current.value(j);
-                if(current.value(j) > result[j][1])
-                    result[j][1] = current.value(j);
-            }
-        }
-        for(int i = data1.numAttributes()-1; i < result.length;i++){
-            result[i][0] = 0;
-            result[i][1] = 1;
-        }
-        return result;
-    }/*end findMinMax*/
-    
     /**
      * Name: evolveSystem
      * Goal: launches the evolution for specified number of generation, and
      *       computes fitness for each individual. Once evolution is over, the
-     *       best (fittest) system is returned
+     *       best (fittest) system is returned. Evolution is over after the
+     *       last generation, or as soon as a stop condition is met
      * @return FuzzySystem: the best evolved fuzzy system
      */
     public FuzzySystem evolveSystem(){
-        LinkedList<Gene> mf_genes;
-        LinkedList<Gene> rule_genes;
-        LinkedList<FuzzySystem> systems = new LinkedList<FuzzySystem>();
-        double[] fitnesses = new double[pop_size];
-        for(int i = 0; i < num_generations; i++){
-            
-            System.out.println("=======================================================================");
-            System.out.println("generation "+i);
-            //run garbage collector to prevent memory over allocation problems
-            System.gc();
-            //clear previous generation systems
-            systems.clear();
-            //run evolution
-            mf_genes = mf_evolver.start();
-            rule_genes = rule_evolver.start();
-            //evaluate all individuals of current generation
-            for(int j = 0; j < pop_size; j++){
-                systems.add(GeneTranslator.geneToFuzzy((MFGene)mf_genes.get(j), (RuleGene)rule_genes.get(j), train_data, false, min_max));
-                fitnesses[j] = fitness(systems.get(j));
-                mf_genes.get(j).setFitness(fitnesses[j]);
-                rule_genes.get(j).setFitness(fitnesses[j]);
-                systems.get(j).setFitness(fitnesses[j]);
+        //both populations are bred at once, so the pool needs at least two threads
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(2, eval_threads));
+        Checkpoint checkpoint = checkpoint_file==null?null:new Checkpoint(checkpoint_file);
+        try{
+            startEvolution();
+            while(!isOver()){
+                if(evolveGeneration(pool))
+                    break;
+                if(checkpoint != null && generations_run%checkpoint_interval == 0)
+                    checkpoint.write(checkpoint());
             }
-            
         }
-        //return fittest individual after all evolutions
-        return selectBest(systems, fitnesses);
+        finally{
+            pool.shutdown();
+            if(checkpoint != null)
+                checkpoint.close();
+        }
+        return getBestSystem();
     }/*end evolveSystem*/
     
     /**
-     * Name: fitness
-     * Goal: computes the fitness of a system according to its performance with
-     *       given data.
-     * @param system: the system to evaluate
-     * @return double: the system's fitness
-     */
-    private double fitness(FuzzySystem system){
-        double[][] activation = new double[train_data.numInstances()][train_data.classAttribute().numValues()];
-        for(int i = 0; i < train_data.numInstances(); i++){
-            activation[i] = system.distributionForInstance(train_data.instance(i));
+     * Name: startEvolution
+     * Goal: prepares a new evolution, to be run generation by generation with
+     *       evolveGeneration. The time budget starts now. After resume, the
+     *       resumed evolution is continued instead, with the time it already spent
+     */
+    void startEvolution(){
+        if(!resumed){
+            last_mf_genes = null;
+            last_rule_genes = null;
+            last_best = null;
+            fitnesses = new double[pop_size];
+            best = null;
+            rescored = null;
+            stagnation = 0;
+            generations_run = 0;
+            time_spent = 0;
         }
-        
-        //compute classification rate
-        double correctly_classified_percent = computeClassificationRate(system.preclassifyInstances(train_data));
-        double fitness=classification_weight*correctly_classified_percent;
-        //compute error between prediction and actual result
-        double error = computeError(activation);
-        fitness += error_weight*Math.pow(2, -error);
-        //compute number of rules
-        double rule_number = system.getRules().size();
-        if(rule_number == 0.0)
-            return 0;
+        resumed = false;
+        progress_best = best;
+        fitness_data = train_columns;
+        batch_rows = null;
+        deadline = System.currentTimeMillis()+time_budget-time_spent;
+        if(distributed != null)
+            distributed.open(train_columns, scorer);
+    }/*end startEvolution*/
+    
+    /**
+     * Name: checkpoint
+     * Goal: copies the state of the evolution into memory, between two generations
+     * @return byte[]: the checkpoint, header included
+     */
+    private byte[] checkpoint(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = Checkpoint.header(Checkpoint.COEVOLUTION, bytes);
+        try{
+            writeState(out);
+            out.flush();
+        }
+        catch(IOException e){
+            //never thrown by a stream in memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }/*end checkpoint*/
+    
+    /**
+     * Name: writeState
+     * Goal: writes the state of the evolution between two generations:
+     *       counters, time spent, both populations and their random numbers,
+     *       the fitnesses of the last generation, the batches and the best
+     *       system found
+     * @param out: the output to write into
+     * @throws IOException: if the output cannot be written
+     */
+    void writeState(DataOutput out) throws IOException{
+        out.writeInt(pop_size);
+        out.writeInt(generations_run);
+        out.writeInt(stagnation);
+        out.writeLong(System.currentTimeMillis()-(deadline-time_budget));
+        mf_evolver.writeState(out);
+        rule_evolver.writeState(out);
+        batch_random.writeState(out);
+        for(double fit : fitnesses)
+            out.writeDouble(fit);
+        writeIndexes(out, rescored);
+        out.writeInt(strata==null?-1:strata.length);
+        if(strata != null)
+            for(int[] stratum : strata)
+                writeIndexes(out, stratum);
+        out.writeBoolean(best != null);
+        if(best != null){
+            ByteArrayOutputStream system = new ByteArrayOutputStream();
+            FuzzySystemFile.save(best, system);
+            out.writeInt(system.size());
+            out.write(system.toByteArray());
+        }
+    }/*end writeState*/
+    
+    /**
+     * Name: readState
+     * Goal: restores the state written by writeState. The coevolution must
+     *       have been created with the options of the saved one; if reading
+     *       fails, it must not be used anymore
+     * @param in: the input to read from
+     * @throws IOException: if the input cannot be read or does not match the options
+     */
+    void readState(DataInput in) throws IOException{
+        int saved_size = in.readInt();
+        if(saved_size != pop_size)
+            throw new IOException("Checkpoint of a population of "+saved_size+" individuals, "+pop_size+" expected");
+        int saved_generations = in.readInt();
+        int saved_stagnation = in.readInt();
+        long saved_time = in.readLong();
+        mf_evolver.readState(in);
+        rule_evolver.readState(in);
+        RandomStream saved_random = RandomStream.readState(in);
+        double[] saved_fitnesses = new double[pop_size];
+        for(int i = 0; i < pop_size; i++)
+            saved_fitnesses[i] = in.readDouble();
+        int[] saved_rescored = readIndexes(in, pop_size);
+        int groups = in.readInt();
+        if(groups != (strata==null?-1:strata.length))
+            throw new IOException("Checkpoint does not use the same batches");
+        int[][] saved_strata = groups==-1?null:new int[groups][];
+        for(int g = 0; g < groups; g++){
+            saved_strata[g] = readIndexes(in, train_columns.numRows());
+            if(saved_strata[g] == null || saved_strata[g].length != strata[g].length)
+                throw new IOException("Checkpoint does not use the same batches");
+        }
+        FuzzySystem saved_best = null;
+        if(in.readBoolean()){
+            byte[] system = new byte[in.readInt()];
+            in.readFully(system);
+            saved_best = FuzzySystemFile.load(ByteBuffer.wrap(system));
+        }
+        generations_run = saved_generations;
+        stagnation = saved_stagnation;
+        time_spent = saved_time;
+        batch_random = saved_random;
+        fitnesses = saved_fitnesses;
+        rescored = saved_rescored;
+        strata = saved_strata;
+        best = saved_best;
+        //genes of the last generation, for getBestSystem
+        last_mf_genes = mf_evolver.getPopulation().toArray(new Gene[pop_size]);
+        last_rule_genes = rule_evolver.getPopulation().toArray(new Gene[pop_size]);
+        last_best = null;
+        resumed = true;
+    }/*end readState*/
+    
+    /**
+     * Name: writeIndexes
+     * Goal: writes the count of indexes (-1 if null), then each index
+     */
+    private static void writeIndexes(DataOutput out, int[] indexes) throws IOException{
+        out.writeInt(indexes==null?-1:indexes.length);
+        if(indexes != null)
+            for(int index : indexes)
+                out.writeInt(index);
+    }/*end writeIndexes*/
+    
+    /**
+     * Name: readIndexes
+     * Goal: reads indexes written by writeIndexes, each lower than the given bound
+     * @return int[]: the indexes, null if none were written
+     */
+    private static int[] readIndexes(DataInput in, int bound) throws IOException{
+        int count = in.readInt();
+        if(count == -1)
+            return null;
+        if(count < 0 || count > bound)
+            throw new IOException("Invalid number of indexes: "+count);
+        int[] indexes = new int[count];
+        for(int i = 0; i < count; i++){
+            indexes[i] = in.readInt();
+            if(indexes[i] < 0 || indexes[i] >= bound)
+                throw new IOException("Invalid index: "+indexes[i]);
+        }
+        return indexes;
+    }/*end readIndexes*/
+    
+    /**
+     * Name: evolveGeneration
+     * Goal: breeds both populations, evaluates all individuals of the new
+     *       generation, and checks the stop conditions
+     * @param pool: the pool breeding and evaluating the generation. null runs
+     *              everything on the caller's thread
+     * @return boolean: true if a stop condition is met
+     */
+    boolean evolveGeneration(ExecutorService pool){
+        Gene[] mf_genes;
+        Gene[] rule_genes;
+        //statistics are only measured when someone listens
+        boolean observed = !listeners.isEmpty();
+        long start = 0, bred = 0, heap = 0, hits = 0;
+        if(observed){
+            heap = usedHeap();
+            hits = fitness_cache==null?0:fitness_cache.getHitCount();
+            start = System.nanoTime();
+        }
+        //run evolution
+        if(pool == null){
+            mf_genes = mf_evolver.start().toArray(new Gene[pop_size]);
+            rule_genes = rule_evolver.start().toArray(new Gene[pop_size]);
+        }
+        else{
+            Future<ArrayList<Gene>> mf_breeding = mf_evolver.submit(pool);
+            Future<ArrayList<Gene>> rule_breeding = rule_evolver.submit(pool);
+            mf_genes = join(mf_breeding).toArray(new Gene[pop_size]);
+            rule_genes = join(rule_breeding).toArray(new Gene[pop_size]);
+        }
+        if(observed)
+            bred = System.nanoTime();
+        //evaluate all individuals of current generation
+        batch_rows = strata==null?null:drawBatch();
+        fitness_data = batch_rows==null?train_columns:new ColumnarData(train_columns, batch_rows);
+        rescored = null;
+        if(distributed != null)
+            evaluateRemotely(mf_genes, rule_genes);
+        else if(pool == null || eval_threads == 1)
+            new SystemEvaluator(this, mf_genes, rule_genes, fitnesses, 0, pop_size).call();
         else
-            fitness += rule_number_weight*1/rule_number;
-        //compute mean number of variables per rule
-        double var_per_rule_number = computeVarPerRuleNumber(system);
-        if(var_per_rule_number == 0.0)
-            return 0;
+            evaluateConcurrently(pool, mf_genes, rule_genes, fitnesses);
+        //batch fitness is only compared on all rows: every generation for
+        //the elite policy or when the best system is tracked, otherwise once
+        //the last generation is evaluated
+        if(fitness_data != train_columns
+           && (rescore_policy.equals(JFuge.RESCORE_ELITE) || mayStop() || cancelled || generations_run+1 >= num_generations))
+            rescore(mf_genes, rule_genes);
+        if(observed){
+            long end = System.nanoTime();
+            GenerationStats stats = new GenerationStats(generations_run, bred-start, end-bred, end-start, fitnesses,
+                                                        fitness_cache==null?0:fitness_cache.getHitCount()-hits,
+                                                        Math.max(0, usedHeap()-heap));
+            for(EvolutionListener listener : listeners)
+                listener.generationEvolved(stats);
+        }
+        generations_run++;
+        last_mf_genes = mf_genes;
+        last_rule_genes = rule_genes;
+        last_best = null;
+        //only systems better than the best so far are translated
+        double generation_fitness = fitnesses[generationBestIndex()];
+        if(progress_best == null || generation_fitness > progress_best.getFitness())
+            progress_best = generationBest();
+        //check stop conditions
+        if(cancelled)
+            return true;
+        if(!mayStop())
+            return false;
+        if(best == null || generation_fitness > best.getFitness()){
+            best = generationBest();
+            stagnation = 0;
+        }
         else
-            fitness += var_per_rule_weight*1/var_per_rule_number;
-        //System.out.println("fitness: "+fitness);
-        return fitness;
-    }/*end fitness*/
+            stagnation++;
+        return (stagnation_limit > 0 && stagnation >= stagnation_limit)
+               || reachedTarget()
+               || (time_budget > 0 && System.currentTimeMillis() >= deadline);
+    }/*end evolveGeneration*/
     
     /**
-     * Name: computeClassificationRate
-     * Goal: computes the proportion of correctly classified data instances
-     * @param system: the system to evaluate
-     * @return double: the percentage of correctly classified instances
+     * Name: drawBatch
+     * Goal: draws the rows of a batch, without replacement. Each class gets
+     *       a share of the batch proportional to its share of the training
+     *       rows; the rows left by rounding go to the largest remainders
+     * @return int[]: the rows of the batch, in the order of the training data
      */
-    private double computeClassificationRate(double[][] activation){
-        int count = 0;
-        
-        for(int i = 0; i < train_data.numInstances(); i++){
-            for(int j = 0; j < activation[i].length; j++){
-                if(activation[i][j] == 1 && j == train_data.instance(i).classValue())
-                    count++;
-                else if(activation[i][j] == 0 && j != train_data.instance(i).classValue())
-                    count++;
+    private int[] drawBatch(){
+        int[] quotas = new int[strata.length];
+        double[] remainders = new double[strata.length];
+        int total = 0;
+        for(int g = 0; g < strata.length; g++){
+            double share = (double)batch_size*strata[g].length/train_columns.numRows();
+            quotas[g] = (int)share;
+            remainders[g] = share-quotas[g];
+            total += quotas[g];
+        }
+        while(total < batch_size){
+            int max = -1;
+            for(int g = 0; g < strata.length; g++)
+                if(quotas[g] < strata[g].length && (max == -1 || remainders[g] > remainders[max]))
+                    max = g;
+            quotas[max]++;
+            remainders[max] = -1;
+            total++;
+        }
+        //partial shuffle of each class: its first rows are the drawn ones
+        int[] rows = new int[batch_size];
+        int done = 0;
+        for(int g = 0; g < strata.length; g++){
+            int[] stratum = strata[g];
+            for(int i = 0; i < quotas[g]; i++){
+                int j = batch_random.randomInt(i, stratum.length-1);
+                int row = stratum[j];
+                stratum[j] = stratum[i];
+                stratum[i] = row;
+                rows[done++] = row;
             }
-            //System.out.println(count);
         }
-        return ((double)count)/(train_data.numInstances()*train_data.classAttribute().numValues());
-    }/*end computeClassificationRate*/
+        //keep the rows in order, so they are read sequentially
+        Arrays.sort(rows);
+        return rows;
+    }/*end drawBatch*/
+    
+    /**
+     * Name: rescore
+     * Goal: scores the fittest individuals of a generation evaluated on a
+     *       batch again, on all training rows. Their genes keep the new
+     *       fitness, so the elite is selected on it. The number of rescored
+     *       individuals is the size of the elite, at least one
+     * @param mf_genes: the MF genes of the generation
+     * @param rule_genes: the rule genes of the generation
+     */
+    private void rescore(Gene[] mf_genes, Gene[] rule_genes){
+        int count = Math.min(pop_size, Math.max(1, (int)Math.round(pop_size*elitism_rate)));
+        rescored = new int[count];
+        boolean[] taken = new boolean[pop_size];
+        for(int k = 0; k < count; k++){
+            int max = -1;
+            for(int i = 0; i < pop_size; i++)
+                if(!taken[i] && (max == -1 || fitnesses[i] > fitnesses[max]))
+                    max = i;
+            taken[max] = true;
+            rescored[k] = max;
+        }
+        for(int i : rescored)
+            fitnesses[i] = score((MFGene)mf_genes[i], (RuleGene)rule_genes[i], train_columns);
+    }/*end rescore*/
+    
+    /**
+     * Name: generationBestIndex
+     * Goal: chooses the best individual of the last generation. If it was
+     *       evaluated on a batch, only the rescored individuals compete
+     * @return int: the index of the best individual of the last generation
+     */
+    private int generationBestIndex(){
+        if(rescored == null)
+            return selectBest(fitnesses);
+        int max = rescored[0];
+        for(int i : rescored)
+            if(fitnesses[i] > fitnesses[max] || (fitnesses[i] == fitnesses[max] && i < max))
+                max = i;
+        return max;
+    }/*end generationBestIndex*/
+    
+    /**
+     * Name: generationBest
+     * Goal: translates the best individual of the last generation into a
+     *       fuzzy system, once per generation
+     * @return FuzzySystem: the best system of the last generation, null if
+     *                      no generation was evaluated
+     */
+    private FuzzySystem generationBest(){
+        if(last_best == null && last_mf_genes != null){
+            int max = generationBestIndex();
+            FuzzySystem system = translate((MFGene)last_mf_genes[max], (RuleGene)last_rule_genes[max]);
+            system.setFitness(fitnesses[max]);
+            last_best = system;
+        }
+        return last_best;
+    }/*end generationBest*/
+    
+    /**
+     * Name: isOver
+     * @return boolean: true once all generations have been run
+     */
+    boolean isOver(){
+        return generations_run >= num_generations;
+    }/*end isOver*/
     
     /**
-     * Name: computeError
-     * Goal: computes the quantity of error the system made when classifying
-     * @param system: the system to evaluate
-     * @return double: the quantity of error
+     * Name: mayStop
+     * @return boolean: true if a stop condition is set
      */
-    private double computeError(double[][] activation){
-        double error;
-        if(error_algo.equals(JFuge.ERROR_RMSE)){
-            error = computeRMSE(activation);
+    private boolean mayStop(){
+        return stagnation_limit > 0 || !Double.isNaN(target_fitness) || time_budget > 0;
+    }/*end mayStop*/
+    
+    /**
+     * Name: reachedTarget
+     * @return boolean: true if a system has reached the target fitness
+     */
+    boolean reachedTarget(){
+        return best != null && best.getFitness() >= target_fitness;
+    }/*end reachedTarget*/
+    
+    /**
+     * Name: cancel
+     * Goal: asks the evolution to stop. It stops once the current generation
+     *       is evaluated, and the best system of all generations run is kept.
+     *       May be called from any thread, before or during the evolution; the
+     *       coevolution stays cancelled
+     */
+    public void cancel(){
+        cancelled = true;
+    }/*end cancel*/
+    
+    /**
+     * Name: isCancelled
+     * @return boolean: true if cancel was called
+     */
+    public boolean isCancelled(){
+        return cancelled;
+    }/*end isCancelled*/
+    
+    /**
+     * Name: getBestSoFar
+     * Goal: gives the fittest system of the generations run so far, without
+     *       waiting for the evolution. May be called from any thread; the
+     *       system is no longer modified by the evolution. Individuals scored
+     *       on a mini-batch compete with their batch fitness
+     * @return FuzzySystem: the best system so far, null before the first
+     *                      generation is evaluated
+     */
+    public FuzzySystem getBestSoFar(){
+        return progress_best;
+    }/*end getBestSoFar*/
+    
+    /**
+     * Name: getBestSystem
+     * Goal: returns the best system of the evolution. If a stop condition is
+     *       set or the evolution was cancelled, this is the best system of all
+     *       generations, otherwise the best system of the last generation
+     * @return FuzzySystem: the best system
+     */
+    FuzzySystem getBestSystem(){
+        if(mayStop() && best != null)
+            return best;
+        if(cancelled && progress_best != null)
+            return progress_best;
+        //return fittest individual after all evolutions
+        return generationBest();
+    }/*end getBestSystem*/
+    
+    /**
+     * Name: emigrate
+     * Goal: copies the fittest individuals of both populations, to send them
+     *       to another coevolution
+     * @param count: the number of individuals of each population to copy
+     * @return Migrants: copies of the fittest MF genes and of the fittest
+     *                   rule genes
+     */
+    Migrants emigrate(int count){
+        return new Migrants(mf_evolver.getFittest(count), rule_evolver.getFittest(count));
+    }/*end emigrate*/
+    
+    /**
+     * Name: immigrate
+     * Goal: replaces the weakest individuals of both populations by migrants
+     *       of another coevolution
+     * @param migrants: the MF genes and the rule genes to insert, as given by
+     *                  emigrate. Must not be shared with another coevolution
+     */
+    void immigrate(Migrants migrants){
+        mf_evolver.replaceWeakest(migrants.mf_genes);
+        rule_evolver.replaceWeakest(migrants.rule_genes);
+    }/*end immigrate*/
+    
+    /**
+     * Name: usedHeap
+     * @return long: the memory currently used in the heap, in bytes
+     */
+    private static long usedHeap(){
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory()-runtime.freeMemory();
+    }/*end usedHeap*/
+    
+    /**
+     * Name: join
+     * Goal: waits for a task of the pool and returns its result. Failures of
+     *       the task are rethrown on the caller's thread
+     * @param task: the task to wait for
+     * @return T: the result of the task
+     */
+    static <T> T join(Future<T> task){
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Evolution interrupted", ex);
+        } catch (ExecutionException ex) {
+            Logger.getLogger(Coevolution.class.getName()).log(Level.SEVERE, null, ex.getCause());
+            throw new IllegalStateException("Evolution failed: "+ex.getCause(), ex.getCause());
         }
-        else if(error_algo.equals(JFuge.ERROR_MSE)){
-            error = computeMSE(activation);
+    }/*end join*/
+    
+    /**
+     * Name: evaluateConcurrently
+     * Goal: splits the generation into one slice per evaluation thread and
+     *       waits for all slices to be evaluated. Each individual is evaluated
+     *       exactly as in the sequential path, so fitnesses are identical
+     * @param pool: the pool running the slices
+     * @param mf_genes: the MF genes of the generation
+     * @param rule_genes: the rule genes of the generation
+     * @param fitnesses: receives the fitness of each individual
+     */
+    private void evaluateConcurrently(ExecutorService pool, Gene[] mf_genes, Gene[] rule_genes, double[] fitnesses){
+        LinkedList<Future<Integer>> slices = new LinkedList<Future<Integer>>();
+        int slice_size = (pop_size+eval_threads-1)/eval_threads;
+        for(int from = 0; from < pop_size; from += slice_size)
+            slices.add(pool.submit(new SystemEvaluator(this, mf_genes, rule_genes, fitnesses, from, Math.min(from+slice_size, pop_size))));
+        for(Future<Integer> slice : slices)
+            join(slice);
+    }/*end evaluateConcurrently*/
+    
+    /**
+     * Name: evaluateRemotely
+     * Goal: has the workers of the distributed evaluation score the
+     *       individuals of the generation. Individuals found in the fitness
+     *       cache are not sent. Workers score exactly as this JVM does, so
+     *       fitnesses are identical; delta evaluation is not used by workers
+     * @param mf_genes: the MF genes of the generation
+     * @param rule_genes: the rule genes of the generation
+     */
+    private void evaluateRemotely(Gene[] mf_genes, Gene[] rule_genes){
+        boolean cached = fitness_cache != null && fitness_data == train_columns;
+        int[] pending = new int[pop_size];
+        int count = 0;
+        for(int i = 0; i < pop_size; i++){
+            fitnesses[i] = cached?fitness_cache.get((MFGene)mf_genes[i], (RuleGene)rule_genes[i], fitness_weights, error_algo):Double.NaN;
+            if(Double.isNaN(fitnesses[i]))
+                pending[count++] = i;
         }
-        else if(error_algo.equals(JFuge.ERROR_RRSE)){
-            error = computeRRSE(activation);
+        pending = Arrays.copyOf(pending, count);
+        double[] scores = distributed.evaluate(mf_genes, rule_genes, pending, batch_rows);
+        for(int k = 0; k < count; k++){
+            int i = pending[k];
+            fitnesses[i] = scores[k];
+            if(cached)
+                fitness_cache.put((MFGene)mf_genes[i], (RuleGene)rule_genes[i], fitness_weights, error_algo, scores[k]);
         }
-        else if(error_algo.equals(JFuge.ERROR_RAE)){
-            error = computeRAE(activation);
+        for(int i = 0; i < pop_size; i++){
+            mf_genes[i].setFitness(fitnesses[i]);
+            rule_genes[i].setFitness(fitnesses[i]);
         }
+    }/*end evaluateRemotely*/
+    
+    /**
+     * Name: evaluate
+     * Goal: computes the fitness of an individual on the rows of the current
+     *       generation, straight from its genes: no fuzzy system is built.
+     *       The fitness is written into both genes. Only reads shared data
+     *       (the cache is lock free), so it may be called from several threads
+     * @param mf_gene: the membership function gene of the individual
+     * @param rule_gene: the rule gene of the individual
+     * @return double: the fitness of the individual
+     */
+    double evaluate(MFGene mf_gene, RuleGene rule_gene){
+        return score(mf_gene, rule_gene, fitness_data);
+    }/*end evaluate*/
+    
+    /**
+     * Name: translate
+     * Goal: translates an individual into a fuzzy system, compiled in the
+     *       inference mode of the evolution. Only the systems kept by the
+     *       evolution are translated
+     * @param mf_gene: the membership function gene of the individual
+     * @param rule_gene: the rule gene of the individual
+     * @return FuzzySystem: the system of the individual
+     */
+    private FuzzySystem translate(MFGene mf_gene, RuleGene rule_gene){
+        FuzzySystem system = GeneTranslator.geneToFuzzy(mf_gene, rule_gene, train_data, false, min_max);
+        system.setSparseInference(sparse_inference, train_columns);
+        return system;
+    }/*end translate*/
+    
+    /**
+     * Name: score
+     * Goal: computes the fitness of an individual on the given rows and
+     *       writes it into both genes and the system. If the individual is
+     *       scored on all rows and is in the fitness cache, its fitness is not
+     *       computed again. Batch fitness depends on the batch, so it is never
+     *       cached
+     * @param mf_gene: the membership function gene of the individual
+     * @param rule_gene: the rule gene of the individual
+     * @param data: the rows to score the individual on
+     * @return double: the fitness of the individual
+     */
+    private double score(MFGene mf_gene, RuleGene rule_gene, ColumnarData data){
+        double fit;
+        if(fitness_cache == null || data != train_columns)
+            fit = fitness(mf_gene, rule_gene, data);
         else{
-            System.out.println("error computation algorithm not supported: "+error_algo);
-            return -1;
+            fit = fitness_cache.get(mf_gene, rule_gene, fitness_weights, error_algo);
+            if(Double.isNaN(fit)){
+                fit = fitness(mf_gene, rule_gene, data);
+                fitness_cache.put(mf_gene, rule_gene, fitness_weights, error_algo, fit);
+            }
         }
-        return error;
-    }/*end computeError*/
+        mf_gene.setFitness(fit);
+        rule_gene.setFitness(fit);
+        return fit;
+    }/*end score*/
     
     /**
-     * Name: computeVarPerRuleNumber
-     * Goal: computes the mean of variables per rule in a system
-     * @param system: the system to evaluate
-     * @return double: the mean number of variables per rule
+     * Name: setEvaluationThreads
+     * Goal: sets the number of threads evaluating the individuals of a generation
+     * @param eval_threads: the number of threads. 1 evaluates on the caller's thread
      */
-    private double computeVarPerRuleNumber(FuzzySystem system){
-        double var_count = 0;
-        //ignore default rule
-        for(int i = 0; i < system.getRules().size()-1; i++){
-            if(system.getRules().get(i).getAntecedents() != null)
-                var_count += system.getRules().get(i).getAntecedents().size();
+    public void setEvaluationThreads(int eval_threads){
+        this.eval_threads = Math.max(1, eval_threads);
+    }/*end setEvaluationThreads*/
+    
+    /**
+     * Name: setStagnationLimit
+     * Goal: stops evolution when the best fitness has not improved for the
+     *       given number of generations
+     * @param stagnation_limit: the number of generations. 0 disables the condition
+     */
+    public void setStagnationLimit(int stagnation_limit){
+        this.stagnation_limit = Math.max(0, stagnation_limit);
+    }/*end setStagnationLimit*/
+    
+    /**
+     * Name: setTargetFitness
+     * Goal: stops evolution as soon as a system reaches the given fitness
+     * @param target_fitness: the fitness to reach. NaN disables the condition
+     */
+    public void setTargetFitness(double target_fitness){
+        this.target_fitness = target_fitness;
+    }/*end setTargetFitness*/
+    
+    /**
+     * Name: setTimeBudget
+     * Goal: stops evolution once the given time is spent. The budget is
+     *       checked between generations, so the generation running when it
+     *       expires is finished first
+     * @param time_budget: the budget in milliseconds. 0 disables the condition
+     */
+    public void setTimeBudget(long time_budget){
+        this.time_budget = Math.max(0, time_budget);
+    }/*end setTimeBudget*/
+    
+    /**
+     * Name: getGenerationsRun
+     * Goal: gives the number of generations run by the last evolution. May
+     *       be called from any thread while the evolution runs
+     * @return int: the number of generations run by the last evolution
+     */
+    public int getGenerationsRun(){
+        return generations_run;
+    }/*end getGenerationsRun*/
+    
+    /**
+     * Name: setCheckpoint
+     * Goal: saves the state of the evolution to a file every few generations,
+     *       so it may be resumed if it is stopped. The state is copied between
+     *       two generations and written in the background
+     * @param checkpoint_file: the file, replaced by each checkpoint. null
+     *                         disables checkpoints
+     * @param checkpoint_interval: the number of generations between two checkpoints
+     */
+    public void setCheckpoint(File checkpoint_file, int checkpoint_interval){
+        this.checkpoint_file = checkpoint_file;
+        this.checkpoint_interval = Math.max(1, checkpoint_interval);
+    }/*end setCheckpoint*/
+    
+    /**
+     * Name: resume
+     * Goal: restores the evolution saved in a checkpoint. The next call to
+     *       evolveSystem continues it from the saved generation, and evolves
+     *       the systems the saved evolution would have evolved. The
+     *       coevolution must have been created with the same training data
+     *       and options as the saved one
+     * @param checkpoint_file: the checkpoint written by an evolution
+     * @throws IOException: if the file cannot be read or does not match the options
+     */
+    public void resume(File checkpoint_file) throws IOException{
+        DataInputStream in = Checkpoint.open(checkpoint_file, Checkpoint.COEVOLUTION);
+        try{
+            readState(in);
+        }
+        finally{
+            in.close();
+        }
+    }/*end resume*/
+    
+    /**
+     * Name: setFitnessCache
+     * Goal: sets the cache remembering the fitness of evaluated individuals
+     * @param fitness_cache: the cache. null disables caching
+     */
+    public void setFitnessCache(FitnessCache fitness_cache){
+        this.fitness_cache = fitness_cache;
+    }/*end setFitnessCache*/
+    
+    /**
+     * Name: setMiniBatch
+     * Goal: scores the individuals of each generation on a stratified sample
+     *       of the training rows instead of all of them. A new sample is drawn
+     *       at each generation. Batch fitnesses are noisy, so the fittest
+     *       individuals of a generation are scored again on all rows before
+     *       being compared to other generations or returned
+     * @param batch_size: the number of rows of a batch. 0, or more than the
+     *                    number of training rows, uses all rows
+     * @param rescore_policy: JFuge.RESCORE_ELITE scores the elite of each
+     *                        generation on all rows, so it is kept on its
+     *                        true fitness. JFuge.RESCORE_FINAL only scores
+     *                        the fittest individuals of the last generation
+     */
+    public void setMiniBatch(int batch_size, String rescore_policy){
+        this.rescore_policy = rescore_policy;
+        if(batch_size <= 0 || batch_size >= train_columns.numRows()){
+            this.batch_size = 0;
+            this.strata = null;
+            return;
+        }
+        this.batch_size = batch_size;
+        int[] labels = train_columns.getClassLabels();
+        int groups = train_columns.numClasses()+1;
+        int[] sizes = new int[groups];
+        for(int i = 0; i < labels.length; i++)
+            sizes[labels[i]<0?groups-1:labels[i]]++;
+        strata = new int[groups][];
+        for(int g = 0; g < groups; g++)
+            strata[g] = new int[sizes[g]];
+        Arrays.fill(sizes, 0);
+        for(int i = 0; i < labels.length; i++){
+            int g = labels[i]<0?groups-1:labels[i];
+            strata[g][sizes[g]++] = i;
+        }
+    }/*end setMiniBatch*/
+    
+    /**
+     * Name: setDeltaEvaluation
+     * Goal: enables or disables the incremental evaluation of individuals.
+     *       Fitness is the same either way; incremental evaluation trades
+     *       memory (the memberships and rule activations of each gene, for
+     *       each training row) for the time spent evaluating unchanged parts
+     *       of the genes. Individuals scored on a batch are not evaluated
+     *       incrementally, since the rows change at each generation
+     * @param delta_evaluation: true to enable incremental evaluation
+     */
+    public void setDeltaEvaluation(boolean delta_evaluation){
+        this.delta_evaluator = delta_evaluation?new DeltaEvaluator(train_columns):null;
+    }/*end setDeltaEvaluation*/
+    
+    /**
+     * Name: setSparseInference
+     * Goal: compiles the evolved systems with an index from terms to rules.
+     *       Each instance then only reads the AND rules whose most selective
+     *       antecedent is nonzero, measured on the training rows. The best
+     *       system keeps the index, for classification
+     * @param sparse_inference: true to enable the sparse rule index
+     */
+    public void setSparseInference(boolean sparse_inference){
+        this.sparse_inference = sparse_inference;
+        this.scorer = new GenomeScorer(train_columns, error_algo, fitness_weights, sparse_inference);
+    }/*end setSparseInference*/
+    
+    /**
+     * Name: setDistributedEvaluation
+     * Goal: scores the individuals of each generation on worker JVMs instead
+     *       of the evaluation threads. The workers receive the training data
+     *       when evolution starts, then only genes and fitnesses are sent.
+     *       Breeding, the fitness cache and rescoring stay in this JVM
+     * @param distributed: the connections to the workers, null to score in
+     *                     this JVM. Closed by its owner, not by the coevolution
+     */
+    public void setDistributedEvaluation(DistributedEvaluator distributed){
+        this.distributed = distributed;
+    }/*end setDistributedEvaluation*/
+    
+    /**
+     * Name: setDoubleBuffering
+     * Goal: breeds both populations into preallocated genes. Each engine
+     *       keeps two pools of pop_size genes, which alternate between the
+     *       parents and the children, so crossover and elitism write into
+     *       existing DNA and a generation no longer allocates it
+     * @param double_buffering: true to breed into the gene pools
+     */
+    public void setDoubleBuffering(boolean double_buffering){
+        mf_evolver.setDoubleBuffering(double_buffering);
+        rule_evolver.setDoubleBuffering(double_buffering);
+    }/*end setDoubleBuffering*/
+    
+    /**
+     * Name: getFitnessCache
+     * @return FitnessCache: the cache of the evolution, null if disabled
+     */
+    public FitnessCache getFitnessCache(){
+        return fitness_cache;
+    }/*end getFitnessCache*/
+    
+    /**
+     * Name: addEvolutionListener
+     * Goal: registers a listener told about each generation. Must be called
+     *       before evolveSystem
+     * @param listener: the listener to add
+     */
+    public void addEvolutionListener(EvolutionListener listener){
+        listeners.add(listener);
+    }/*end addEvolutionListener*/
+    
+    /**
+     * Name: removeEvolutionListener
+     * @param listener: the listener to remove
+     */
+    public void removeEvolutionListener(EvolutionListener listener){
+        listeners.remove(listener);
+    }/*end removeEvolutionListener*/
+    
+    /**
+     * Name: fitness
+     * Goal: computes the fitness of an individual according to its
+     *       performance with given data. If delta evaluation is enabled, the
+     *       distributions are computed from the states of the genes, otherwise
+     *       from the system compiled straight from the genes
+     * @param mf_gene: the membership function gene of the individual
+     * @param rule_gene: the rule gene of the individual
+     * @param data: the rows to evaluate the individual on
+     * @return double: the individual's fitness
+     */
+    private double fitness(MFGene mf_gene, RuleGene rule_gene, ColumnarData data){
+        if(delta_evaluator != null && data == train_columns){
+            int[] rules = delta_evaluator.keptRules(rule_gene);
+            return scorer.score(delta_evaluator.distribution(mf_gene, rule_gene, rules), data,
+                                rules.length, delta_evaluator.varPerRuleNumber(rule_gene, rules));
         }
-        return var_count/(system.getRules().size()-1);
-    }/*en computeVarPerRuleNumber*/
+        return scorer.score(mf_gene, rule_gene, data);
+    }/*end fitness*/
     
     /**
      * Name: selectBest
-     * Goal: chooses the best system of a list according to their fitness
-     * @param systems: the systems from which to choose
-     * @param fitnesses: the fitness of each system from the list. indexes of a 
-     *                   system and its fitness must be the same
-     * @return FuzzySystem: the system with the best fitness from given  list
+     * Goal: chooses the best individual of a generation according to their
+     *       fitness, the first one on ties
+     * @param fitnesses: the fitness of each individual
+     * @return int: the index of the individual with the best fitness
      */
-    private FuzzySystem selectBest(LinkedList<FuzzySystem> systems, double[] fitnesses){
+    private int selectBest(double[] fitnesses){
         int max = 0;
         for(int i = 1; i < fitnesses.length; i++){
             if(fitnesses[i] > fitnesses[max])
                 max = i;
         }
-        return systems.get(max);  
+        return max;
     }/*end selectBest*/
-
+    
     /**
-     * Name: computeRMSE
-     * Goal: computes the Root Mean Square Error between the system's prediction
-     *       and the trainig data's value
-     * @param system: the system to evaluate
-     * @return double: the RMSE of the system
-     */
-    private double computeRMSE(double[][] activation) {
-        double error;
-        double square_error = 0;
-        for(int i = 0; i < train_data.numInstances(); i++){
-            for(int j = 0; j < activation[i].length; j++){
-                error = activation[i][j]-(j==train_data.instance(i).classValue()?1:0);
-                square_error+=error*error;
-            }   
-        }
-        return Math.sqrt(square_error/train_data.numInstances());
+     * Name: Migrants
+     * Goal: individuals sent by a coevolution to another one, MF genes and
+     *       rule genes
+     */
+    static class Migrants {
         
-    }/*end computeRMSE*/
-
-    /**
-     * Name: computeMSE
-     * Goal: computes the Mean Square Error between the system's prediction
-     *       and the trainig data's value
-     * @param system: the system to evaluate
-     * @return double: the MSE of the system
-     */
-    private double computeMSE(double[][] activation) {
-        double error;
-        double square_error = 0;
-        for(int i = 0; i < train_data.numInstances(); i++){
-            for(int j = 0; j < activation[i].length; j++){
-                error = activation[i][j]-(j==train_data.instance(i).classValue()?1:0);
-                square_error+=error*error;
-            }
-        }
-        return square_error/train_data.numInstances();
-    }/*end computeMSE*/
-
-    /**
-     * Name: computeRRSE
-     * Goal: computes the Root Relative Square Error between the system's prediction
-     *       and the trainig data's value
-     * @param system: the system to evaluate
-     * @return double: the RRSE of the system
-     */
-    private double computeRRSE(double[][] activation) {
-        double error;
-        double square_error = 0;
-        double mean_error;
-        for(int i = 0; i < train_data.numInstances(); i++){
-            for(int j = 0; j < activation[i].length; j++){
-                error = activation[i][j]-(j==train_data.instance(i).classValue()?1:0);
-                mean_error = (activation[i][j]+(j==train_data.instance(i).classValue()?1:0))/2;
-                square_error+=(error/mean_error)*(error/mean_error);
-            }
-            
-            
-        }
-        return Math.sqrt(square_error/train_data.numInstances());
-    }/*end computeRRSE*/
+        final LinkedList<Gene> mf_genes;
+        
+        final LinkedList<Gene> rule_genes;
+        
+        Migrants(LinkedList<Gene> mf_genes, LinkedList<Gene> rule_genes){
+            this.mf_genes = mf_genes;
+            this.rule_genes = rule_genes;
+        }/*end Migrants*/
+    
+    }/*end Migrants*/
 
-    /**
-     * Name: computeRAE
-     * Goal: computes the Relative Absolute Error between the system's prediction
-     *       and the trainig data's value
-     * @param system: the system to evaluate
-     * @return double: the RAE of the system
-     */
-    private double computeRAE(double[][] activation) {
-        double error;
-        double abs_error = 0;
-        double mean_error;
-        for(int i = 0; i < train_data.numInstances(); i++){
-            for(int j = 0; j < activation[i].length; j++){
-                error = activation[i][j]-(j==train_data.instance(i).classValue()?1:0);
-                mean_error = (activation[i][j]+(j==train_data.instance(i).classValue()?1:0))/2;
-                abs_error+=Math.abs(error)/mean_error;
-            }
-            
-        }
-        return abs_error/train_data.numInstances();
-    }/*end computeRAE*/   
 }/*end Coevolution*/
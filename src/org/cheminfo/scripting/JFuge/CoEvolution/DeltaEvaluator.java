@@ -0,0 +1,349 @@
+/**
+ * Name: DeltaEvaluator
+ * Goal: computes the distributions of an individual on the training data by
+ *       only recomputing what changed since its genes were last evaluated.
+ *       Mutation changes a single cell and crossover keeps the DNA of a parent
+ *       up to the cut, so most of the work of the previous evaluation is
+ *       still valid. Each gene keeps the state of its last evaluation:
+ *      - a MF gene keeps, for each input variable, the membership of each
+ *        training row to each term. Only the variables whose zero points
+ *        changed are evaluated again
+ *      - a rule gene keeps, for each rule, the activation of each training
+ *        row. Only the rules whose antecedents changed, or whose variables
+ *        got new memberships, are evaluated again
+ *       Defuzzyfication is then made from the activations, in the same order
+ *       as CompiledFuzzySystem, so the distributions are identical.
+ * Usage: states are immutable and replaced, never modified, so a gene may be
+ *        evaluated by several threads at the same time. Each state holds
+ *        (number of input variables * number of terms + number of rules)
+ *        values per training row.
+ * @see CompiledFuzzySystem
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.util.Arrays;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.ColumnarData;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.MembershipFunction;
+
+class DeltaEvaluator {
+    
+    //training data
+    private ColumnarData data;
+    
+    //number of input variables
+    private int ante_count;
+    
+    //number of output classes
+    private int class_count;
+    
+    /**
+     * Name: DeltaEvaluator
+     * Goal: creates an evaluator for the given training data
+     * @param data: the training data. The class must be the last attribute
+     */
+    DeltaEvaluator(ColumnarData data){
+        this.data = data;
+        this.ante_count = data.numAttributes()-1;
+        this.class_count = data.numClasses();
+    }/*end DeltaEvaluator*/
+    
+    /**
+     * Name: keptRules
+     * Goal: finds the lines of a rule gene kept as rules of the fuzzy system:
+     *       lines with at least one antecedent, and the default rule (last line)
+     * @param rule_gene: the rule gene
+     * @return int[]: the kept lines, in order
+     */
+    int[] keptRules(RuleGene rule_gene){
+        int line_count = rule_gene.getLineCount();
+        int[] lines = new int[line_count];
+        int kept = 0;
+        for(int i = 0; i < line_count; i++)
+            if(i == line_count-1 || countAntecedents(rule_gene, i) != 0)
+                lines[kept++] = i;
+        return Arrays.copyOf(lines, kept);
+    }/*end keptRules*/
+    
+    /**
+     * Name: varPerRuleNumber
+     * Goal: computes the mean number of variables per rule, default rule ignored
+     * @param rule_gene: the rule gene
+     * @param rules: the kept lines of the gene
+     * @return double: the mean number of variables per rule
+     */
+    double varPerRuleNumber(RuleGene rule_gene, int[] rules){
+        double var_count = 0;
+        for(int r = 0; r < rules.length-1; r++)
+            var_count += countAntecedents(rule_gene, rules[r]);
+        return var_count/(rules.length-1);
+    }/*end varPerRuleNumber*/
+    
+    /**
+     * Name: distribution
+     * Goal: computes the probability of membership of each training row for
+     *       each class. The states of both genes are updated
+     * @param mf_gene: the membership function gene
+     * @param rule_gene: the rule gene
+     * @param rules: the kept lines of the rule gene
+     * @return double[][]: for each row, the probability of membership for each class
+     */
+    double[][] distribution(MFGene mf_gene, RuleGene rule_gene, int[] rules){
+        double[][] memberships = updateMemberships(mf_gene).memberships;
+        double[][] activations = updateActivations(rule_gene, memberships, mf_gene.getColumnCount()).activations;
+        
+        //singleton of each kept rule for each class
+        double[][] out_points = outputZeroPoints(mf_gene);
+        double[][] singletons = new double[rules.length][class_count];
+        for(int r = 0; r < rules.length; r++)
+            for(int c = 0; c < class_count; c++)
+                singletons[r][c] = out_points[c][rule_gene.getTerm(rules[r], ante_count+c)];
+        
+        int rule_count = rules.length;
+        double[][] result = new double[data.numRows()][class_count];
+        double[] activation = new double[rule_count];
+        double[] distribution;
+        for(int row = 0; row < data.numRows(); row++){
+            for(int r = 0; r < rule_count; r++){
+                double[] rule = activations[rules[r]];
+                activation[r] = rule==null?0:rule[row];
+            }
+            //default rule
+            double max = activation[0];
+            for(int r = 0; r < rule_count-1; r++)
+                if(activation[r] > max)
+                    max = activation[r];
+            activation[rule_count-1] = 1-max;
+            //singleton defuzzyfication
+            distribution = result[row];
+            double mu_sum = 0;
+            for(int r = 0; r < rule_count; r++){
+                mu_sum += activation[r];
+                for(int c = 0; c < class_count; c++)
+                    distribution[c] += activation[r]*singletons[r][c];
+            }
+            for(int c = 0; c < class_count; c++)
+                distribution[c] = mu_sum==0?0:distribution[c]/mu_sum;
+        }
+        return result;
+    }/*end distribution*/
+    
+    /**
+     * Name: updateMemberships
+     * Goal: brings the state of a MF gene up to date with its DNA. The
+     *       memberships of unchanged variables are shared with the old state
+     * @param gene: the MF gene
+     * @return MFState: the up to date state
+     */
+    private MFState updateMemberships(MFGene gene){
+        double[] points = gene.getPoints();
+        int width = gene.getColumnCount();
+        MFState previous = gene.getDeltaState();
+        double[][] memberships = new double[ante_count][];
+        boolean changed = previous == null;
+        for(int v = 0; v < ante_count; v++){
+            if(previous != null && sameCells(previous.points, points, v*width, width))
+                memberships[v] = previous.memberships[v];
+            else{
+                memberships[v] = computeMemberships(points, v*width, width, data.getColumn(v));
+                changed = true;
+            }
+        }
+        if(!changed)
+            return previous;
+        MFState state = new MFState(points.clone(), memberships);
+        gene.setDeltaState(state);
+        return state;
+    }/*end updateMemberships*/
+    
+    /**
+     * Name: updateActivations
+     * Goal: brings the state of a rule gene up to date with its DNA and the
+     *       given memberships. A rule is evaluated again if its antecedents
+     *       changed or if one of its variables has new memberships
+     * @param gene: the rule gene
+     * @param memberships: the memberships of the MF gene it is evaluated with
+     * @param term_count: number of terms of each input variable
+     * @return RuleState: the up to date state
+     */
+    private RuleState updateActivations(RuleGene gene, double[][] memberships, int term_count){
+        short[] vars = gene.getVars();
+        byte[] terms = gene.getTerms();
+        int width = gene.getColumnCount();
+        RuleState previous = gene.getDeltaState();
+        double[][] activations = new double[gene.getLineCount()][];
+        boolean changed = previous == null;
+        for(int i = 0; i < activations.length; i++){
+            int cell = i*width;
+            if(previous != null && sameAntecedents(previous, vars, terms, cell, memberships))
+                activations[i] = previous.activations[i];
+            else{
+                activations[i] = computeActivations(vars, terms, cell, memberships, term_count);
+                changed = true;
+            }
+        }
+        if(!changed)
+            return previous;
+        RuleState state = new RuleState(vars.clone(), terms.clone(), memberships, activations);
+        gene.setDeltaState(state);
+        return state;
+    }/*end updateActivations*/
+    
+    /**
+     * Name: computeMemberships
+     * Goal: computes the membership of each row to each term of a variable
+     * @param points: the DNA of the MF gene
+     * @param first: index of the first zero point of the variable
+     * @param width: number of zero points of the variable
+     * @param column: the values of the variable
+     * @return double[]: the membership of row r to term t, at index r*width+t
+     */
+    private static double[] computeMemberships(double[] points, int first, int width, double[] column){
+        //membership functions sort their zero points
+        double[] zero_points = Arrays.copyOfRange(points, first, first+width);
+        Arrays.sort(zero_points);
+        double[] result = new double[column.length*width];
+        for(int row = 0; row < column.length; row++)
+            MembershipFunction.evalInto(zero_points, 0, width, column[row], result, row*width);
+        return result;
+    }/*end computeMemberships*/
+    
+    /**
+     * Name: computeActivations
+     * Goal: computes the activation of a rule for each row. Antecedents are
+     *       linked by AND (min), in the order of the DNA
+     * @param vars: variable index of each cell of the rule gene
+     * @param terms: term index of each cell of the rule gene
+     * @param cell: index of the first cell of the rule
+     * @param memberships: the memberships of each input variable
+     * @param term_count: number of terms of each input variable
+     * @return double[]: the activation of each row, null if the rule has no antecedent
+     */
+    private double[] computeActivations(short[] vars, byte[] terms, int cell, double[][] memberships, int term_count){
+        double[] result = null;
+        for(int j = 0; j < ante_count; j++){
+            int term = terms[cell+j];
+            if(term == -1)
+                continue;
+            double[] membership = memberships[vars[cell+j]];
+            if(result == null){
+                result = new double[data.numRows()];
+                for(int row = 0; row < result.length; row++)
+                    result[row] = membership[row*term_count+term];
+            }
+            else{
+                for(int row = 0; row < result.length; row++){
+                    double mu = membership[row*term_count+term];
+                    if(mu < result[row])
+                        result[row] = mu;
+                }
+            }
+        }
+        return result;
+    }/*end computeActivations*/
+    
+    /**
+     * Name: outputZeroPoints
+     * Goal: reads the zero points of each output variable, as GeneTranslator
+     *       builds them: the first two used cells of the line, sorted
+     * @param gene: the MF gene
+     * @return double[][]: the two zero points of each class
+     */
+    private double[][] outputZeroPoints(MFGene gene){
+        double[][] result = new double[class_count][2];
+        for(int c = 0; c < class_count; c++){
+            int done = 0;
+            for(int j = 0; j < gene.getColumnCount(); j++){
+                double point = gene.getPoint(ante_count+c, j);
+                if(!Double.isNaN(point))
+                    result[c][done++] = point;
+            }
+            Arrays.sort(result[c]);
+        }
+        return result;
+    }/*end outputZeroPoints*/
+    
+    /**
+     * Name: countAntecedents
+     * @param gene: the rule gene
+     * @param line: the rule
+     * @return int: the number of antecedents of the rule
+     */
+    private int countAntecedents(RuleGene gene, int line){
+        int count = 0;
+        for(int j = 0; j < ante_count; j++)
+            if(gene.getTerm(line, j) != -1)
+                count++;
+        return count;
+    }/*end countAntecedents*/
+    
+    /**
+     * Name: sameCells
+     * Goal: compares a range of cells of two MF DNAs, bit for bit
+     * @return boolean: true if the cells are identical
+     */
+    private static boolean sameCells(double[] a, double[] b, int first, int count){
+        for(int i = first; i < first+count; i++)
+            if(Double.doubleToLongBits(a[i]) != Double.doubleToLongBits(b[i]))
+                return false;
+        return true;
+    }/*end sameCells*/
+    
+    /**
+     * Name: sameAntecedents
+     * Goal: indicates if the activations of a rule in an old state are still
+     *       valid: same antecedents, evaluated on the same memberships
+     * @return boolean: true if the activations may be reused
+     */
+    private boolean sameAntecedents(RuleState previous, short[] vars, byte[] terms, int cell, double[][] memberships){
+        for(int j = cell; j < cell+ante_count; j++){
+            if(previous.terms[j] != terms[j] || previous.vars[j] != vars[j])
+                return false;
+            if(terms[j] != -1 && previous.memberships[vars[j]] != memberships[vars[j]])
+                return false;
+        }
+        return true;
+    }/*end sameAntecedents*/
+    
+    /**
+     * Name: MFState
+     * Goal: memberships computed for a MF gene, and the DNA they were computed for
+     */
+    static final class MFState {
+        
+        private final double[] points;
+        
+        //memberships[variable][row*term_count+term]
+        private final double[][] memberships;
+        
+        MFState(double[] points, double[][] memberships){
+            this.points = points;
+            this.memberships = memberships;
+        }
+    }/*end MFState*/
+    
+    /**
+     * Name: RuleState
+     * Goal: activations computed for a rule gene, and the DNA and memberships
+     *       they were computed from
+     */
+    static final class RuleState {
+        
+        private final short[] vars;
+        
+        private final byte[] terms;
+        
+        private final double[][] memberships;
+        
+        //activations[rule][row], null for rules without antecedents
+        private final double[][] activations;
+        
+        RuleState(short[] vars, byte[] terms, double[][] memberships, double[][] activations){
+            this.vars = vars;
+            this.terms = terms;
+            this.memberships = memberships;
+            this.activations = activations;
+        }
+    }/*end RuleState*/
+
+}/*end DeltaEvaluator*/
@@ -0,0 +1,454 @@
+/**
+ * Name: DistributedEvaluator
+ * Goal: scores the individuals of a coevolution on worker JVMs (see
+ *       EvaluationWorker), reached through sockets. Each worker keeps a copy
+ *       of the training data, sent once when evolution starts; then only the
+ *       genomes of the individuals are sent, and only their fitnesses come
+ *       back. The individuals of a generation are split into one slice per
+ *       worker, scored at the same time.
+ * Failover: workers send a heartbeat while they score a slice. A worker
+ *           which does not answer for three heartbeat intervals, or whose
+ *           connection fails, is dropped and its slice is scored again by the
+ *           other workers. When no worker is left, individuals are scored in
+ *           this JVM. Messages are written with a deadline, so a worker which
+ *           stops reading is dropped as well. Dropped workers are connected
+ *           again at the next generation. Workers score as this JVM does, so
+ *           fitnesses do not depend on which worker scored an individual.
+ * Usage: an evaluator serves a single coevolution; islands each need their
+ *        own. It must be given the shared token of the workers. Close it
+ *        once evolution is over.
+ * @see Coevolution
+ * @see EvaluationProtocol
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.ColumnarData;
+
+public class DistributedEvaluator {
+    
+    //default interval between two heartbeats of a worker, in milliseconds
+    public static final int HEARTBEAT_INTERVAL = 1000;
+    
+    //number of heartbeat intervals without message after which a worker is dropped
+    private static final int MISSED_HEARTBEATS = 3;
+    
+    //bytes a worker must read per millisecond, on top of the heartbeat
+    //timeout, before a write is given up
+    private static final int MIN_WRITE_RATE = 1000;
+    
+    //connections to the workers
+    private Link[] links;
+    
+    //shared token of the workers
+    private String token;
+    
+    //interval between two heartbeats, in milliseconds
+    private int heartbeat_interval;
+    
+    //threads waiting for and writing to the workers, two per worker
+    private ExecutorService pool;
+    
+    //fitness function and training data of the evolution, to score
+    //individuals when no worker is left. null before open
+    private GenomeScorer scorer;
+    
+    //SETUP message sent to the workers. null before open
+    private byte[] setup;
+    
+    /**
+     * Name: DistributedEvaluator
+     * Goal: creates an evaluator using the given workers, with the default
+     *       heartbeat interval. Workers are connected when evolution starts
+     * @param addresses: the "host:port" address of each worker
+     * @param token: the shared token of the workers
+     */
+    public DistributedEvaluator(String[] addresses, String token){
+        this(addresses, token, HEARTBEAT_INTERVAL);
+    }/*end DistributedEvaluator*/
+    
+    /**
+     * Name: DistributedEvaluator
+     * Goal: creates an evaluator using the given workers. Workers are
+     *       connected when evolution starts
+     * @param addresses: the "host:port" address of each worker
+     * @param token: the shared token of the workers
+     * @param heartbeat_interval: the interval between two heartbeats of a
+     *                            busy worker, in milliseconds
+     */
+    public DistributedEvaluator(String[] addresses, String token, int heartbeat_interval){
+        this.token = token;
+        this.heartbeat_interval = Math.max(1, heartbeat_interval);
+        this.links = new Link[addresses.length];
+        for(int i = 0; i < addresses.length; i++)
+            links[i] = new Link(addresses[i].trim());
+        this.pool = Executors.newCachedThreadPool(new ThreadFactory(){
+            public Thread newThread(Runnable task){
+                Thread thread = new Thread(task, "JFuge distributed evaluation");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }/*end DistributedEvaluator*/
+    
+    /**
+     * Name: open
+     * Goal: sends the fitness function and the training data to the workers,
+     *       connecting the ones which are not connected. Workers which cannot
+     *       be reached are left out until the next generation
+     * @param data: the training data
+     * @param scorer: the fitness function
+     */
+    synchronized void open(ColumnarData data, GenomeScorer scorer){
+        this.scorer = scorer;
+        try{
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(message);
+            out.writeByte(EvaluationProtocol.SETUP);
+            out.writeUTF(token);
+            out.writeInt(heartbeat_interval);
+            EvaluationProtocol.writeSetup(out, data, scorer);
+            out.flush();
+            setup = message.toByteArray();
+        }
+        catch(IOException e){
+            //written in memory
+            throw new IllegalStateException(e);
+        }
+        connect(new ArrayList<Link>(Arrays.asList(links)), Level.WARNING);
+    }/*end open*/
+    
+    /**
+     * Name: reconnect
+     * Goal: connects again the workers dropped since the last generation
+     */
+    private void reconnect(){
+        ArrayList<Link> dropped = new ArrayList<Link>();
+        for(Link link : links)
+            if(link.socket == null)
+                dropped.add(link);
+        //tried at each generation, so failures are not warned of again
+        connect(dropped, Level.FINE);
+    }/*end reconnect*/
+    
+    /**
+     * Name: connect
+     * Goal: connects some workers if needed and sends them the SETUP
+     *       message, all at once. Workers which cannot be reached are left out
+     * @param workers: the workers to set up
+     * @param level: the level failures are logged at
+     */
+    private void connect(ArrayList<Link> workers, final Level level){
+        LinkedList<Future<Object>> connections = new LinkedList<Future<Object>>();
+        for(final Link link : workers){
+            connections.add(pool.submit(new Callable<Object>(){
+                public Object call(){
+                    try{
+                        int timeout = heartbeat_interval*MISSED_HEARTBEATS;
+                        if(link.socket == null)
+                            link.connect(timeout);
+                        link.write(setup, pool, timeout);
+                        byte type = link.in.readByte();
+                        if(type != EvaluationProtocol.READY)
+                            throw new IOException("Unexpected message "+type);
+                    }
+                    catch(IOException e){
+                        Logger.getLogger(DistributedEvaluator.class.getName()).log(level, "Worker "+link.address+" not reached", e);
+                        link.close();
+                    }
+                    return null;
+                }
+            }));
+        }
+        for(Future<Object> connection : connections)
+            Coevolution.join(connection);
+    }/*end connect*/
+    
+    /**
+     * Name: evaluate
+     * Goal: scores some individuals of a generation on the workers, after
+     *       connecting again the dropped ones. Slices of workers dropped
+     *       meanwhile are scored again until every individual is scored
+     * @param mf_genes: the MF genes of the generation
+     * @param rule_genes: the rule genes of the generation
+     * @param individuals: the indexes of the individuals to score
+     * @param batch_rows: the rows to score the individuals on, null for all
+     *                    training rows
+     * @return double[]: the fitness of each individual, in the order of individuals
+     */
+    synchronized double[] evaluate(final Gene[] mf_genes, final Gene[] rule_genes, final int[] individuals, final int[] batch_rows){
+        final double[] fitnesses = new double[individuals.length];
+        int[] pending = new int[individuals.length];
+        for(int k = 0; k < pending.length; k++)
+            pending[k] = k;
+        reconnect();
+        while(pending.length > 0){
+            ArrayList<Link> live = new ArrayList<Link>();
+            for(Link link : links)
+                if(link.socket != null)
+                    live.add(link);
+            if(live.isEmpty()){
+                evaluateLocally(mf_genes, rule_genes, individuals, batch_rows, pending, fitnesses);
+                break;
+            }
+            LinkedList<Future<Boolean>> requests = new LinkedList<Future<Boolean>>();
+            LinkedList<int[]> slices = new LinkedList<int[]>();
+            int slice_size = (pending.length+live.size()-1)/live.size();
+            int w = 0;
+            for(int from = 0; from < pending.length; from += slice_size){
+                final Link link = live.get(w++);
+                final int[] slice = Arrays.copyOfRange(pending, from, Math.min(from+slice_size, pending.length));
+                slices.add(slice);
+                requests.add(pool.submit(new Callable<Boolean>(){
+                    public Boolean call(){
+                        return link.request(mf_genes, rule_genes, individuals, slice, batch_rows, fitnesses,
+                                            pool, heartbeat_interval*MISSED_HEARTBEATS);
+                    }
+                }));
+            }
+            //slices of the dropped workers are pending again
+            int[] failed = new int[pending.length];
+            int count = 0;
+            for(Future<Boolean> request : requests){
+                int[] slice = slices.removeFirst();
+                if(!Coevolution.join(request)){
+                    System.arraycopy(slice, 0, failed, count, slice.length);
+                    count += slice.length;
+                }
+            }
+            pending = Arrays.copyOf(failed, count);
+        }
+        return fitnesses;
+    }/*end evaluate*/
+    
+    /**
+     * Name: evaluateLocally
+     * Goal: scores individuals in this JVM, when no worker is left
+     * @param mf_genes: the MF genes of the generation
+     * @param rule_genes: the rule genes of the generation
+     * @param individuals: the indexes of the individuals of the request
+     * @param batch_rows: the rows to score the individuals on, null for all
+     *                    training rows
+     * @param pending: the positions in individuals to score
+     * @param fitnesses: receives the fitness of each individual of the request
+     */
+    private void evaluateLocally(Gene[] mf_genes, Gene[] rule_genes, int[] individuals, int[] batch_rows,
+                                 int[] pending, double[] fitnesses){
+        ColumnarData data = scorer.getTrainData();
+        if(batch_rows != null)
+            data = new ColumnarData(data, batch_rows);
+        for(int k : pending)
+            fitnesses[k] = scorer.score((MFGene)mf_genes[individuals[k]], (RuleGene)rule_genes[individuals[k]], data);
+    }/*end evaluateLocally*/
+    
+    /**
+     * Name: getLiveWorkerCount
+     * @return int: the number of workers currently connected
+     */
+    public synchronized int getLiveWorkerCount(){
+        int count = 0;
+        for(Link link : links)
+            if(link.socket != null)
+                count++;
+        return count;
+    }/*end getLiveWorkerCount*/
+    
+    /**
+     * Name: close
+     * Goal: closes the connections to the workers. The workers keep running,
+     *       for other evolutions
+     */
+    public synchronized void close(){
+        for(Link link : links){
+            if(link.socket != null){
+                try{
+                    link.write(new byte[]{EvaluationProtocol.BYE}, pool, heartbeat_interval*MISSED_HEARTBEATS);
+                }
+                catch(IOException e){
+                    //closed anyway
+                }
+                link.close();
+            }
+        }
+        pool.shutdown();
+    }/*end close*/
+    
+    /**
+     * Name: Link
+     * Goal: connection to a worker. null socket while not connected. Messages
+     *       are written whole, from memory, by a thread of the evaluator, so
+     *       that a worker which stops reading can be dropped
+     */
+    private static class Link {
+        
+        private String address;
+        
+        private Socket socket;
+        
+        private DataInputStream in;
+        
+        private DataOutputStream out;
+        
+        //identifier of the last request sent
+        private int request_id = 0;
+        
+        Link(String address){
+            this.address = address;
+        }/*end Link*/
+        
+        /**
+         * Name: connect
+         * @param timeout: the time a read may wait for the worker, in milliseconds
+         * @throws IOException: if the worker cannot be reached
+         */
+        void connect(int timeout) throws IOException{
+            int colon = address.lastIndexOf(':');
+            if(colon < 0)
+                throw new IOException("Worker address without port: "+address);
+            Socket connection = new Socket();
+            try{
+                connection.connect(new InetSocketAddress(address.substring(0, colon),
+                                                         Integer.parseInt(address.substring(colon+1))), timeout);
+                connection.setSoTimeout(timeout);
+                connection.setTcpNoDelay(true);
+                in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                out = new DataOutputStream(connection.getOutputStream());
+            }
+            catch(IOException e){
+                connection.close();
+                throw e;
+            }
+            catch(NumberFormatException e){
+                connection.close();
+                throw new IOException("Invalid worker port: "+address);
+            }
+            socket = connection;
+        }/*end connect*/
+        
+        /**
+         * Name: request
+         * Goal: has the worker score a slice of individuals, waiting for its
+         *       heartbeats until the result comes. The worker is dropped if
+         *       the request fails
+         * @param mf_genes: the MF genes of the generation
+         * @param rule_genes: the rule genes of the generation
+         * @param individuals: the indexes of the individuals of the request
+         * @param slice: the positions in individuals to score
+         * @param batch_rows: the rows to score the individuals on, null for
+         *                    all training rows
+         * @param fitnesses: receives the fitness of each individual of the slice
+         * @param writers: the threads writing the request
+         * @param timeout: the time the worker may stay silent, in milliseconds
+         * @return boolean: true if the slice was scored, false if the worker was dropped
+         */
+        boolean request(Gene[] mf_genes, Gene[] rule_genes, int[] individuals, int[] slice,
+                        int[] batch_rows, double[] fitnesses, ExecutorService writers, int timeout){
+            try{
+                int id = ++request_id;
+                ByteArrayOutputStream message = new ByteArrayOutputStream();
+                DataOutputStream buffer = new DataOutputStream(message);
+                buffer.writeByte(EvaluationProtocol.EVALUATE);
+                buffer.writeInt(id);
+                EvaluationProtocol.writeRows(buffer, batch_rows);
+                buffer.writeInt(slice.length);
+                for(int k : slice)
+                    EvaluationProtocol.writeGenome(buffer, (MFGene)mf_genes[individuals[k]], (RuleGene)rule_genes[individuals[k]]);
+                buffer.flush();
+                write(message.toByteArray(), writers, timeout);
+                byte type;
+                while((type = in.readByte()) == EvaluationProtocol.HEARTBEAT);
+                if(type != EvaluationProtocol.RESULT || in.readInt() != id)
+                    throw new IOException("Unexpected message "+type);
+                for(int k : slice)
+                    fitnesses[k] = in.readDouble();
+                return true;
+            }
+            catch(IOException e){
+                Logger.getLogger(DistributedEvaluator.class.getName()).log(Level.WARNING, "Worker "+address+" dropped, its individuals are scored again", e);
+                close();
+                return false;
+            }
+        }/*end request*/
+        
+        /**
+         * Name: write
+         * Goal: sends a message on a thread of writers and waits for it to be
+         *       written. The connection is closed if the worker does not read
+         *       it in time, which stops the write
+         * @param message: the bytes of the message
+         * @param writers: the threads writing the message
+         * @param timeout: the time the worker may stay silent, in
+         *                 milliseconds. Long messages get more time, as
+         *                 slow as MIN_WRITE_RATE
+         * @throws IOException: if the message cannot be written in time
+         */
+        void write(final byte[] message, ExecutorService writers, int timeout) throws IOException{
+            final DataOutputStream output = out;
+            Future<Object> write = writers.submit(new Callable<Object>(){
+                public Object call() throws IOException{
+                    output.write(message);
+                    output.flush();
+                    return null;
+                }
+            });
+            try{
+                write.get(timeout+message.length/MIN_WRITE_RATE, TimeUnit.MILLISECONDS);
+            }
+            catch(TimeoutException e){
+                close();
+                throw new IOException("Worker "+address+" stopped reading");
+            }
+            catch(ExecutionException e){
+                if(e.getCause() instanceof IOException)
+                    throw (IOException)e.getCause();
+                throw new IOException(e.getCause());
+            }
+            catch(InterruptedException e){
+                close();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Write to worker "+address+" interrupted");
+            }
+        }/*end write*/
+        
+        /**
+         * Name: close
+         * Goal: closes the connection, the worker is no longer used
+         */
+        void close(){
+            if(socket != null){
+                try{
+                    socket.close();
+                }
+                catch(IOException e){
+                    //already closed
+                }
+            }
+            socket = null;
+            in = null;
+            out = null;
+        }/*end close*/
+    
+    }/*end Link*/
+
+}/*end DistributedEvaluator*/
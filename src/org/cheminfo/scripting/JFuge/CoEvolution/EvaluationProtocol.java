@@ -0,0 +1,222 @@
+/**
+ * Name: EvaluationProtocol
+ * Goal: messages exchanged between a coevolution and the workers scoring its
+ *       individuals. Each message starts with its type (byte), the rest is
+ *       written with DataOutput (big endian):
+ *      - SETUP (master): shared token (UTF), heartbeat interval in
+ *        milliseconds (int), error
+ *        algorithm (UTF), the four fitness weights, sparse flag (boolean),
+ *        then the training data: rows, attributes and classes (int), each
+ *        column (doubles) and the class labels (ints)
+ *      - READY (worker): the training data is ready
+ *      - EVALUATE (master): request id (int), rows of the batch (int count,
+ *        -1 for all rows, then the row indexes), number of individuals (int),
+ *        then the genome of each individual
+ *      - HEARTBEAT (worker): sent at a fixed rate while a request is computed
+ *      - RESULT (worker): request id (int), then the fitness of each
+ *        individual (doubles), in the order of the request
+ *      - BYE (master): the connection is closed
+ * Genomes are compact: the size of the MF gene (two ints) and its zero points
+ * (doubles), then the size of the rule gene and its cells (short variable and
+ * byte term). Fitnesses are not sent with the genes.
+ * Counts read are checked before anything is allocated: an array of more than
+ * MAX_VALUES values is refused.
+ * @see DistributedEvaluator
+ * @see EvaluationWorker
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.ColumnarData;
+
+final class EvaluationProtocol {
+    
+    //message types
+    static final byte SETUP = 1;
+    
+    static final byte READY = 2;
+    
+    static final byte EVALUATE = 3;
+    
+    static final byte HEARTBEAT = 4;
+    
+    static final byte RESULT = 5;
+    
+    static final byte BYE = 6;
+    
+    //maximum number of values of an array read, 512 MB of doubles
+    static final int MAX_VALUES = 1<<26;
+    
+    private EvaluationProtocol(){
+    }/*end EvaluationProtocol*/
+    
+    /**
+     * Name: writeSetup
+     * Goal: writes the fitness function and the training data of a SETUP
+     *       message, after its type, token and heartbeat interval
+     * @param out: the output to write into
+     * @param data: the training data
+     * @param scorer: the fitness function
+     * @throws IOException: if the output cannot be written
+     */
+    static void writeSetup(DataOutput out, ColumnarData data, GenomeScorer scorer) throws IOException{
+        out.writeUTF(scorer.getErrorAlgorithm());
+        for(double weight : scorer.getFitnessWeights())
+            out.writeDouble(weight);
+        out.writeBoolean(scorer.isSparse());
+        out.writeInt(data.numRows());
+        out.writeInt(data.numAttributes());
+        out.writeInt(data.numClasses());
+        for(int j = 0; j < data.numAttributes(); j++)
+            for(double value : data.getColumn(j))
+                out.writeDouble(value);
+        for(int label : data.getClassLabels())
+            out.writeInt(label);
+    }/*end writeSetup*/
+    
+    /**
+     * Name: readSetup
+     * Goal: reads the fitness function and the training data of a SETUP
+     *       message, after its type, token and heartbeat interval
+     * @param in: the input to read from
+     * @return GenomeScorer: the fitness function, on the training data
+     * @throws IOException: if the input cannot be read or holds invalid counts
+     */
+    static GenomeScorer readSetup(DataInput in) throws IOException{
+        String error_algo = in.readUTF();
+        double[] fitness_weights = new double[4];
+        for(int i = 0; i < fitness_weights.length; i++)
+            fitness_weights[i] = in.readDouble();
+        boolean sparse = in.readBoolean();
+        int rows = checkCount(in.readInt(), "row");
+        int attributes = checkCount(in.readInt(), "attribute");
+        int classes = checkCount(in.readInt(), "class");
+        checkCount((long)rows*attributes, "value");
+        double[][] columns = new double[attributes][rows];
+        for(int j = 0; j < attributes; j++)
+            for(int i = 0; i < rows; i++)
+                columns[j][i] = in.readDouble();
+        int[] labels = new int[rows];
+        for(int i = 0; i < rows; i++)
+            labels[i] = in.readInt();
+        return new GenomeScorer(new ColumnarData(columns, labels, classes), error_algo, fitness_weights, sparse);
+    }/*end readSetup*/
+    
+    /**
+     * Name: writeRows
+     * @param out: the output to write into
+     * @param rows: the rows of the batch, null for all rows
+     * @throws IOException: if the output cannot be written
+     */
+    static void writeRows(DataOutput out, int[] rows) throws IOException{
+        if(rows == null){
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(rows.length);
+        for(int row : rows)
+            out.writeInt(row);
+    }/*end writeRows*/
+    
+    /**
+     * Name: readRows
+     * @param in: the input to read from
+     * @return int[]: the rows of the batch, null for all rows
+     * @throws IOException: if the input cannot be read or holds an invalid count
+     */
+    static int[] readRows(DataInput in) throws IOException{
+        int count = in.readInt();
+        if(count == -1)
+            return null;
+        int[] rows = new int[checkCount(count, "batch row")];
+        for(int i = 0; i < count; i++)
+            rows[i] = in.readInt();
+        return rows;
+    }/*end readRows*/
+    
+    /**
+     * Name: writeGenome
+     * Goal: writes the DNA of both genes of an individual
+     * @param out: the output to write into
+     * @param mf_gene: the membership function gene of the individual
+     * @param rule_gene: the rule gene of the individual
+     * @throws IOException: if the output cannot be written
+     */
+    static void writeGenome(DataOutput out, MFGene mf_gene, RuleGene rule_gene) throws IOException{
+        out.writeInt(mf_gene.getLineCount());
+        out.writeInt(mf_gene.getColumnCount());
+        for(double point : mf_gene.getPoints())
+            out.writeDouble(point);
+        short[] vars = rule_gene.getVars();
+        byte[] terms = rule_gene.getTerms();
+        out.writeInt(rule_gene.getLineCount());
+        out.writeInt(rule_gene.getColumnCount());
+        for(int i = 0; i < vars.length; i++){
+            out.writeShort(vars[i]);
+            out.writeByte(terms[i]);
+        }
+    }/*end writeGenome*/
+    
+    /**
+     * Name: readGenome
+     * Goal: reads the DNA of both genes of an individual. The genes can only
+     *       be scored: they are not given the ranges they are bred in
+     * @param in: the input to read from
+     * @return Gene[]: the MF gene and the rule gene
+     * @throws IOException: if the input cannot be read or holds invalid counts
+     */
+    static Gene[] readGenome(DataInput in) throws IOException{
+        int lines = checkCount(in.readInt(), "MF gene line");
+        int columns = checkCount(in.readInt(), "MF gene column");
+        double[] points = new double[checkCount((long)lines*columns, "MF gene value")];
+        for(int i = 0; i < points.length; i++)
+            points[i] = in.readDouble();
+        MFGene mf_gene = new MFGene(null, 0);
+        mf_gene.setPoints(lines, columns, points);
+        lines = checkCount(in.readInt(), "rule gene line");
+        columns = checkCount(in.readInt(), "rule gene column");
+        short[] vars = new short[checkCount((long)lines*columns, "rule gene cell")];
+        byte[] terms = new byte[vars.length];
+        for(int i = 0; i < vars.length; i++){
+            vars[i] = in.readShort();
+            terms[i] = in.readByte();
+        }
+        RuleGene rule_gene = new RuleGene(0, 0, 0);
+        rule_gene.setRules(lines, columns, vars, terms);
+        return new Gene[]{mf_gene, rule_gene};
+    }/*end readGenome*/
+    
+    /**
+     * Name: checkCount
+     * Goal: checks a count read, before an array of its size is allocated
+     * @param count: the count
+     * @param what: what is counted, for the error message
+     * @return int: the count
+     * @throws IOException: if the count is negative or above MAX_VALUES
+     */
+    static int checkCount(long count, String what) throws IOException{
+        if(count < 0 || count > MAX_VALUES)
+            throw new IOException("Invalid "+what+" count: "+count);
+        return (int)count;
+    }/*end checkCount*/
+    
+    /**
+     * Name: tokenBytes
+     * @param token: a shared token
+     * @return byte[]: the UTF-8 bytes of the token, to compare tokens in
+     *                 constant time
+     */
+    static byte[] tokenBytes(String token){
+        try{
+            return token.getBytes("UTF-8");
+        }
+        catch(UnsupportedEncodingException e){
+            throw new IllegalStateException(e);
+        }
+    }/*end tokenBytes*/
+
+}/*end EvaluationProtocol*/
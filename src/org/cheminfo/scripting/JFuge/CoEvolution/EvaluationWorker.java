@@ -0,0 +1,449 @@
+/**
+ * Name: EvaluationWorker
+ * Goal: scores individuals for coevolutions running in other JVMs. Each
+ *       connection receives a copy of the training data and the fitness
+ *       function once (SETUP), then requests holding the genomes of some
+ *       individuals of a generation; only their fitnesses are sent back.
+ *       Individuals are scored exactly as in the coevolution's JVM, so
+ *       fitnesses are identical.
+ * Methods:
+ *      - main: runs a worker listening on a port, until killed:
+ *              java org.cheminfo.scripting.JFuge.CoEvolution.EvaluationWorker <port> [threads]
+ *              Port 0 listens on any free port. The port is printed on the
+ *              first line of the standard output, as "PORT <port>"
+ *      - launchLocal: starts worker processes on this machine, with the
+ *                     classpath of this JVM
+ *      - createToken: creates a random shared token
+ * Security: masters must send the shared token of the worker, read from the
+ *           JFUGE_WORKER_TOKEN environment variable, in their SETUP message;
+ *           other connections are closed before any data is read. Local
+ *           workers only listen on the loopback address.
+ * Usage: each connection is served by its own thread; the individuals of a
+ *        request are scored by the threads of the worker. While a request is
+ *        scored, a heartbeat is sent at the interval asked by the master, so
+ *        it can tell a busy worker from a lost one.
+ * @see EvaluationProtocol
+ * @see DistributedEvaluator
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.ColumnarData;
+
+public class EvaluationWorker implements Runnable {
+    
+    //first word of the line giving the port of a worker
+    static final String PORT_LINE = "PORT ";
+    
+    //environment variable holding the shared token of the workers
+    public static final String TOKEN_VARIABLE = "JFUGE_WORKER_TOKEN";
+    
+    //address local workers listen on
+    private static final String LOOPBACK = "127.0.0.1";
+    
+    //argument making a local worker exit when its standard input is closed
+    private static final String LOCAL = "local";
+    
+    //shared token masters must send, as UTF-8 bytes
+    private byte[] token;
+    
+    //connection to the master
+    private Socket socket;
+    
+    //threads scoring the individuals, shared by all connections
+    private ExecutorService pool;
+    
+    //number of threads of the pool
+    private int threads;
+    
+    //sends the heartbeats, shared by all connections
+    private ScheduledExecutorService heart;
+    
+    //output to the master, shared with the heartbeats
+    private DataOutputStream out;
+    
+    //fitness function and training data of the connection. null before SETUP
+    private GenomeScorer scorer;
+    
+    //interval between two heartbeats, in milliseconds
+    private int heartbeat_interval;
+    
+    //rows of the last batch and their data, reused while the batch is the same
+    private int[] batch_rows;
+    
+    private ColumnarData batch_data;
+    
+    /**
+     * Name: EvaluationWorker
+     * Goal: prepares the service of a connection
+     * @param socket: the connection to the master
+     * @param pool: the threads scoring the individuals
+     * @param threads: the number of threads of the pool
+     * @param heart: the thread sending the heartbeats
+     * @param token: the shared token masters must send
+     */
+    EvaluationWorker(Socket socket, ExecutorService pool, int threads, ScheduledExecutorService heart, String token){
+        this.socket = socket;
+        this.token = EvaluationProtocol.tokenBytes(token);
+        this.pool = pool;
+        this.threads = threads;
+        this.heart = heart;
+    }/*end EvaluationWorker*/
+    
+    /**
+     * Name: run
+     * Goal: serves the requests of the master until it says BYE or the
+     *       connection is lost
+     */
+    public void run(){
+        try{
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            byte type;
+            while((type = in.readByte()) != EvaluationProtocol.BYE){
+                if(type == EvaluationProtocol.SETUP){
+                    //nothing else is read from a master without the token
+                    if(!MessageDigest.isEqual(token, EvaluationProtocol.tokenBytes(in.readUTF())))
+                        throw new IOException("Wrong token from "+socket.getRemoteSocketAddress());
+                    heartbeat_interval = in.readInt();
+                    scorer = EvaluationProtocol.readSetup(in);
+                    batch_rows = null;
+                    batch_data = null;
+                    synchronized(out){
+                        out.writeByte(EvaluationProtocol.READY);
+                        out.flush();
+                    }
+                }
+                else if(type == EvaluationProtocol.EVALUATE && scorer != null)
+                    evaluate(in);
+                else
+                    throw new IOException("Unexpected message "+type);
+            }
+        }
+        catch(EOFException e){
+            //the master closed the connection
+        }
+        catch(IOException e){
+            Logger.getLogger(EvaluationWorker.class.getName()).log(Level.WARNING, "Connection lost", e);
+        }
+        finally{
+            try{
+                socket.close();
+            }
+            catch(IOException e){
+                //already closed
+            }
+        }
+    }/*end run*/
+    
+    /**
+     * Name: evaluate
+     * Goal: reads an EVALUATE request, scores its individuals and sends their
+     *       fitnesses. Heartbeats are sent until the result is ready
+     * @param in: the input of the connection, after the message type
+     * @throws IOException: if the connection is lost
+     */
+    private void evaluate(DataInputStream in) throws IOException{
+        int request = in.readInt();
+        int[] rows = EvaluationProtocol.readRows(in);
+        if(rows != null)
+            for(int row : rows)
+                if(row < 0 || row >= scorer.getTrainData().numRows())
+                    throw new IOException("Invalid row "+row);
+        final Gene[][] genomes = new Gene[EvaluationProtocol.checkCount(in.readInt(), "genome")][];
+        for(int i = 0; i < genomes.length; i++)
+            genomes[i] = EvaluationProtocol.readGenome(in);
+        final ColumnarData data = rowData(rows);
+        ScheduledFuture<?> heartbeat = heart.scheduleAtFixedRate(new Runnable(){
+            public void run(){
+                try{
+                    synchronized(out){
+                        out.writeByte(EvaluationProtocol.HEARTBEAT);
+                        out.flush();
+                    }
+                }
+                catch(IOException e){
+                    //the request fails when its result is sent
+                }
+            }
+        }, heartbeat_interval, heartbeat_interval, TimeUnit.MILLISECONDS);
+        final double[] fitnesses = new double[genomes.length];
+        try{
+            LinkedList<Future<?>> slices = new LinkedList<Future<?>>();
+            int slice_size = Math.max(1, (genomes.length+threads-1)/threads);
+            for(int from = 0; from < genomes.length; from += slice_size){
+                final int first = from;
+                final int last = Math.min(from+slice_size, genomes.length);
+                slices.add(pool.submit(new Callable<Object>(){
+                    public Object call(){
+                        for(int i = first; i < last; i++)
+                            fitnesses[i] = scorer.score((MFGene)genomes[i][0], (RuleGene)genomes[i][1], data);
+                        return null;
+                    }
+                }));
+            }
+            for(Future<?> slice : slices)
+                Coevolution.join(slice);
+        }
+        finally{
+            heartbeat.cancel(false);
+        }
+        synchronized(out){
+            out.writeByte(EvaluationProtocol.RESULT);
+            out.writeInt(request);
+            for(double fitness : fitnesses)
+                out.writeDouble(fitness);
+            out.flush();
+        }
+    }/*end evaluate*/
+    
+    /**
+     * Name: rowData
+     * @param rows: the rows of the batch, null for all rows
+     * @return ColumnarData: the rows to score the individuals on
+     */
+    private ColumnarData rowData(int[] rows){
+        if(rows == null)
+            return scorer.getTrainData();
+        if(batch_rows == null || !Arrays.equals(rows, batch_rows)){
+            batch_rows = rows;
+            batch_data = new ColumnarData(scorer.getTrainData(), rows);
+        }
+        return batch_data;
+    }/*end rowData*/
+    
+    /**
+     * Name: serve
+     * Goal: accepts connections until the server socket is closed, each one
+     *       served by its own thread
+     * @param server: the listening socket
+     * @param threads: the number of threads scoring individuals
+     * @param token: the shared token masters must send
+     * @throws IOException: if the socket fails
+     */
+    static void serve(ServerSocket server, int threads, String token) throws IOException{
+        ExecutorService pool = Executors.newFixedThreadPool(threads, daemons("JFuge worker"));
+        ScheduledExecutorService heart = Executors.newSingleThreadScheduledExecutor(daemons("JFuge worker heartbeat"));
+        try{
+            while(true){
+                Socket socket = server.accept();
+                Thread connection = new Thread(new EvaluationWorker(socket, pool, threads, heart, token), "JFuge worker connection");
+                connection.setDaemon(true);
+                connection.start();
+            }
+        }
+        finally{
+            pool.shutdownNow();
+            heart.shutdownNow();
+        }
+    }/*end serve*/
+    
+    /**
+     * Name: daemons
+     * @param name: the name of the threads
+     * @return ThreadFactory: creates daemon threads, which do not keep the JVM alive
+     */
+    private static ThreadFactory daemons(final String name){
+        return new ThreadFactory(){
+            public Thread newThread(Runnable task){
+                Thread thread = new Thread(task, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }/*end daemons*/
+    
+    /**
+     * Name: main
+     * Goal: runs a worker, whose shared token is read from the
+     *       JFUGE_WORKER_TOKEN environment variable
+     * @param args: the port (0 for any free port), then optionally the
+     *              number of threads scoring individuals (all processors by
+     *              default)
+     * @throws IOException: if the token is not set or the port cannot be
+     *                      listened on
+     */
+    public static void main(String[] args) throws IOException{
+        int port = args.length > 0?Integer.parseInt(args[0]):0;
+        int threads = args.length > 1?Integer.parseInt(args[1]):Runtime.getRuntime().availableProcessors();
+        String token = System.getenv(TOKEN_VARIABLE);
+        if(token == null || token.length() == 0)
+            throw new IOException("No shared token, set the "+TOKEN_VARIABLE+" environment variable");
+        boolean local = args.length > 2 && args[2].equals(LOCAL);
+        //a local worker is only reached from this machine
+        final ServerSocket server = local?new ServerSocket(port, 0, InetAddress.getByName(LOOPBACK)):new ServerSocket(port);
+        //a local worker stops with the JVM which launched it
+        if(local){
+            Thread parent = new Thread(new Runnable(){
+                public void run(){
+                    try{
+                        while(System.in.read() != -1);
+                    }
+                    catch(IOException e){
+                        //the parent is gone as well
+                    }
+                    System.exit(0);
+                }
+            }, "JFuge worker parent");
+            parent.setDaemon(true);
+            parent.start();
+        }
+        System.out.println(PORT_LINE+server.getLocalPort());
+        System.out.flush();
+        serve(server, Math.max(1, threads), token);
+    }/*end main*/
+    
+    /**
+     * Name: launchLocal
+     * Goal: starts worker processes on this machine, each listening on a free
+     *       port of the loopback address and sharing the processors. The
+     *       workers exit when this JVM does
+     * @param count: the number of workers
+     * @param token: the shared token masters must send
+     * @return LocalWorkers: the running workers
+     * @throws IOException: if a worker cannot be started
+     */
+    public static LocalWorkers launchLocal(int count, String token) throws IOException{
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors()/count);
+        String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+        LocalWorkers workers = new LocalWorkers(count);
+        try{
+            for(int i = 0; i < count; i++){
+                ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                                            EvaluationWorker.class.getName(), "0",
+                                                            Integer.toString(threads), LOCAL);
+                builder.redirectErrorStream(true);
+                //not on the command line, which other users may see
+                builder.environment().put(TOKEN_VARIABLE, token);
+                Process process = builder.start();
+                workers.processes[i] = process;
+                workers.addresses[i] = LOOPBACK+":"+readPort(process);
+            }
+        }
+        catch(IOException e){
+            workers.destroy();
+            throw e;
+        }
+        return workers;
+    }/*end launchLocal*/
+    
+    /**
+     * Name: createToken
+     * @return String: a random token, to share between a master and its workers
+     */
+    public static String createToken(){
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for(byte b : bytes)
+            token.append(String.format("%02x", b & 0xff));
+        return token.toString();
+    }/*end createToken*/
+    
+    /**
+     * Name: readPort
+     * Goal: reads the port printed by a worker process. The rest of its
+     *       output is copied to the error stream of this JVM
+     * @param process: the worker process
+     * @return int: the port of the worker
+     * @throws IOException: if the worker stops before printing its port
+     */
+    private static int readPort(Process process) throws IOException{
+        final BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        String line;
+        while((line = output.readLine()) != null){
+            if(line.startsWith(PORT_LINE))
+                break;
+            System.err.println(line);
+        }
+        if(line == null)
+            throw new IOException("Worker stopped before listening");
+        //drained, so the worker never blocks on its output
+        Thread drain = new Thread(new Runnable(){
+            public void run(){
+                try{
+                    String rest;
+                    while((rest = output.readLine()) != null)
+                        System.err.println(rest);
+                }
+                catch(IOException e){
+                    //the worker is gone
+                }
+            }
+        }, "JFuge worker output");
+        drain.setDaemon(true);
+        drain.start();
+        return Integer.parseInt(line.substring(PORT_LINE.length()).trim());
+    }/*end readPort*/
+    
+    /**
+     * Name: LocalWorkers
+     * Goal: worker processes started by launchLocal, and their addresses
+     */
+    public static class LocalWorkers {
+        
+        private Process[] processes;
+        
+        private String[] addresses;
+        
+        LocalWorkers(int count){
+            processes = new Process[count];
+            addresses = new String[count];
+        }/*end LocalWorkers*/
+        
+        /**
+         * Name: getAddresses
+         * @return String[]: the "host:port" address of each worker
+         */
+        public String[] getAddresses(){
+            return addresses.clone();
+        }/*end getAddresses*/
+        
+        /**
+         * Name: destroy
+         * Goal: stops the worker processes
+         */
+        public void destroy(){
+            for(Process process : processes){
+                if(process != null){
+                    try{
+                        process.getOutputStream().close();
+                    }
+                    catch(IOException e){
+                        //already stopped
+                    }
+                    process.destroy();
+                }
+            }
+        }/*end destroy*/
+    
+    }/*end LocalWorkers*/
+
+}/*end EvaluationWorker*/
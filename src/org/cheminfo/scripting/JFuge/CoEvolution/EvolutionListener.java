@@ -0,0 +1,24 @@
+/**
+ * Name: EvolutionListener
+ * Goal: interface to follow the progress of a coevolution. The listener is
+ *       told about each generation once its individuals have been evaluated
+ * Usage: register the listener with Coevolution.addEvolutionListener before
+ *        evolveSystem is called. The listener is called on the thread running
+ *        the evolution, so a slow listener slows the evolution down. When no
+ *        listener is registered, no statistics are computed at all
+ * @see Coevolution
+ * @see GenerationStats
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+public interface EvolutionListener {
+    
+    /**
+     * Name: generationEvolved
+     * Goal: called after each generation has been bred and evaluated
+     * @param stats: the statistics of the generation
+     */
+    void generationEvolved(GenerationStats stats);
+
+}/*end EvolutionListener*/
@@ -0,0 +1,201 @@
+/**
+ * Name: FitnessCache
+ * Goal: remembers the fitness of already evaluated individuals. Elitism,
+ *       selection of the same parent several times and crossovers keeping a
+ *       parent unchanged make many individuals exact copies of individuals
+ *       evaluated before, whose fitness can be reused instead of computed.
+ *       An individual is identified by two independent 64 bit hashes of its
+ *       MF and rule genes and of the fitness weights it was evaluated with:
+ *       genes are not copied, and a wrong fitness would need both hashes of
+ *       two different individuals to collide.
+ * Methods:
+ *      - get: returns the fitness of an individual, if known
+ *      - put: records the fitness of an individual
+ *      - getHitCount, getMissCount, getHitRate: usage statistics
+ * Usage: the cache is bounded in bytes and direct mapped: each individual
+ *        may only be stored in one slot, chosen from its hash, and replaces
+ *        the previous occupant. Slots are read and written without locks,
+ *        so it may be used by all evaluation threads at once. The fitness
+ *        also depends on the training data, so a cache must not be shared
+ *        between evolutions using different data.
+ * @see Coevolution
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class FitnessCache {
+    
+    //approximate memory used by a slot and its entry, in bytes
+    public static final int ENTRY_BYTES = 48;
+    
+    //seeds of the hash choosing the slot and of the hash checking the entry
+    private static final long HASH_SEED = 0x2545F4914F6CDD1DL;
+    
+    private static final long CHECK_SEED = 0x5851F42D4C957F2DL;
+    
+    //slots of the cache. length is a power of two
+    private AtomicReferenceArray<Entry> slots;
+    
+    //mask giving the slot of a hash
+    private int mask;
+    
+    //number of lookups that found the individual
+    private AtomicLong hits = new AtomicLong();
+    
+    //number of lookups that did not find the individual
+    private AtomicLong misses = new AtomicLong();
+    
+    /**
+     * Name: FitnessCache
+     * Goal: creates an empty cache
+     * @param max_bytes: memory the cache may use, in bytes. The number of
+     *                   slots is the largest power of two fitting in it, at
+     *                   least one. MUST be positive
+     */
+    public FitnessCache(long max_bytes){
+        if(max_bytes <= 0)
+            throw new IllegalArgumentException("Fitness cache memory must be positive: "+max_bytes);
+        int size = Integer.highestOneBit((int)Math.min(Math.max(1, max_bytes/ENTRY_BYTES), 1<<30));
+        slots = new AtomicReferenceArray<Entry>(size);
+        mask = size-1;
+    }/*end FitnessCache*/
+    
+    /**
+     * Name: get
+     * Goal: looks for the fitness of an individual
+     * @param mf_gene: the MF gene of the individual
+     * @param rule_gene: the rule gene of the individual
+     * @param weights: the fitness weights
+     * @param error_algo: the error computation algorithm
+     * @return double: the fitness of the individual, NaN if unknown.
+     *                 Individuals with a NaN fitness are thus evaluated again
+     */
+    public double get(MFGene mf_gene, RuleGene rule_gene, double[] weights, String error_algo){
+        long hash = hash(mf_gene, rule_gene, weights, error_algo, HASH_SEED);
+        Entry entry = slots.get((int)hash&mask);
+        if(entry != null && entry.hash == hash && entry.check == hash(mf_gene, rule_gene, weights, error_algo, CHECK_SEED)){
+            hits.incrementAndGet();
+            return entry.fitness;
+        }
+        misses.incrementAndGet();
+        return Double.NaN;
+    }/*end get*/
+    
+    /**
+     * Name: put
+     * Goal: records the fitness of an individual. Only hashes of the genes
+     *       are kept, so they may be modified afterwards
+     * @param mf_gene: the MF gene of the individual
+     * @param rule_gene: the rule gene of the individual
+     * @param weights: the fitness weights
+     * @param error_algo: the error computation algorithm
+     * @param fitness: the fitness of the individual
+     */
+    public void put(MFGene mf_gene, RuleGene rule_gene, double[] weights, String error_algo, double fitness){
+        long hash = hash(mf_gene, rule_gene, weights, error_algo, HASH_SEED);
+        slots.set((int)hash&mask, new Entry(hash, hash(mf_gene, rule_gene, weights, error_algo, CHECK_SEED), fitness));
+    }/*end put*/
+    
+    /**
+     * Name: hash
+     * Goal: computes a 64 bit hash of an individual from the content of its
+     *       genes and the fitness parameters. Hashes with different seeds are
+     *       independent
+     * @param seed: the seed of the hash
+     * @return long: the hash, spread over all bits
+     */
+    private static long hash(MFGene mf_gene, RuleGene rule_gene, double[] weights, String error_algo, long seed){
+        long hash = seed;
+        for(double point : mf_gene.getPoints())
+            hash = mix(hash, Double.doubleToLongBits(point));
+        hash = mix(hash, mf_gene.getPoints().length);
+        short[] vars = rule_gene.getVars();
+        byte[] terms = rule_gene.getTerms();
+        for(int i = 0; i < vars.length; i++)
+            hash = mix(hash, (vars[i]<<8)|(terms[i]&0xff));
+        hash = mix(hash, vars.length);
+        hash = mix(hash, rule_gene.getLineCount());
+        for(double weight : weights)
+            hash = mix(hash, Double.doubleToLongBits(weight));
+        hash = mix(hash, error_algo.hashCode());
+        return finish(hash);
+    }/*end hash*/
+    
+    /**
+     * Name: mix
+     * @param hash: the hash so far
+     * @param value: the next value
+     * @return long: the hash including the value
+     */
+    private static long mix(long hash, long value){
+        return (hash^finish(value))*0x9E3779B97F4A7C15L;
+    }/*end mix*/
+    
+    /**
+     * Name: finish
+     * Goal: spreads each bit of a value over all bits (MurmurHash3 finalizer)
+     * @param value: the value
+     * @return long: the spread value
+     */
+    private static long finish(long value){
+        value ^= value>>>33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value>>>33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        return value^(value>>>33);
+    }/*end finish*/
+    
+    /**
+     * Name: getHitCount
+     * @return long: the number of lookups that found the individual
+     */
+    public long getHitCount(){
+        return hits.get();
+    }/*end getHitCount*/
+    
+    /**
+     * Name: getMissCount
+     * @return long: the number of lookups that did not find the individual
+     */
+    public long getMissCount(){
+        return misses.get();
+    }/*end getMissCount*/
+    
+    /**
+     * Name: getHitRate
+     * @return double: the proportion of lookups that found the individual,
+     *                 0 if there was no lookup
+     */
+    public double getHitRate(){
+        long hit_count = hits.get();
+        long lookups = hit_count+misses.get();
+        return lookups==0?0:((double)hit_count)/lookups;
+    }/*end getHitRate*/
+    
+    public String toString(){
+        return "fitness cache: "+getHitCount()+" hits, "+getMissCount()+" misses, hit rate "+getHitRate();
+    }/*end toString*/
+    
+    /**
+     * Name: Entry
+     * Goal: immutable hashes of an evaluated individual and its fitness
+     */
+    private static class Entry {
+        
+        private final long hash;
+        
+        private final long check;
+        
+        private final double fitness;
+        
+        Entry(long hash, long check, double fitness){
+            this.hash = hash;
+            this.check = check;
+            this.fitness = fitness;
+        }/*end Entry*/
+    }/*end Entry*/
+
+}/*end FitnessCache*/
@@ -0,0 +1,184 @@
+/**
+ * Name: FitnessKernel
+ * Goal: computes the performance part of the fitness of a system in a single
+ *       pass over the rows: each row is classified once, into a buffer, and
+ *       its distribution is immediately added to the classification rate and
+ *       to the error sums of all metrics. No distribution matrix is kept.
+ *       The metric weighted into the fitness is chosen once, when the kernel
+ *       is created:
+ *      - RMSE: root of the mean of the squared errors
+ *      - MSE: mean of the squared errors
+ *      - RRSE: root of the mean of the squared relative errors
+ *      - RAE: mean of the absolute relative errors
+ *       The relative error of a class is its error divided by the mean of the
+ *       prediction and the target. When both are 0 the error is 0 too, and
+ *       its relative error is taken as 0 instead of 0/0. Sums are made row by
+ *       row, class by class, so the fitness is the same as when computed from
+ *       the distributions.
+ * Usage: the kernel holds no state between calls, so it may be shared by
+ *        the threads evaluating a generation.
+ * @see Coevolution
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import org.cheminfo.scripting.JFuge.FuzzyLogic.ColumnarData;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.CompiledFuzzySystem;
+import org.cheminfo.scripting.JFuge.JFuge;
+
+class FitnessKernel {
+    
+    //error metrics
+    private static final int RMSE = 0;
+    
+    private static final int MSE = 1;
+    
+    private static final int RRSE = 2;
+    
+    private static final int RAE = 3;
+    
+    //error metric of the kernel
+    private final int metric;
+    
+    //weight of the classification rate
+    private final double classification_weight;
+    
+    //weight of the error
+    private final double error_weight;
+    
+    /**
+     * Name: FitnessKernel
+     * Goal: creates a kernel for the given metric and weights
+     * @param error_algo: the error metric. JFuge.ERROR_RMSE, JFuge.ERROR_MSE,
+     *                    JFuge.ERROR_RRSE or JFuge.ERROR_RAE
+     * @param classification_weight: the weight of the classification rate
+     * @param error_weight: the weight of the error
+     */
+    FitnessKernel(String error_algo, double classification_weight, double error_weight){
+        if(error_algo.equals(JFuge.ERROR_RMSE))
+            metric = RMSE;
+        else if(error_algo.equals(JFuge.ERROR_MSE))
+            metric = MSE;
+        else if(error_algo.equals(JFuge.ERROR_RRSE))
+            metric = RRSE;
+        else if(error_algo.equals(JFuge.ERROR_RAE))
+            metric = RAE;
+        else
+            throw new IllegalArgumentException("Error computation algorithm not supported: "+error_algo);
+        this.classification_weight = classification_weight;
+        this.error_weight = error_weight;
+    }/*end FitnessKernel*/
+    
+    /**
+     * Name: score
+     * Goal: classifies each row with a compiled system and computes the
+     *       weighted classification rate and error, in a single pass
+     * @param system: the compiled system
+     * @param data: the rows to score the system on
+     * @return double: classification_weight*rate+error_weight*2^-error
+     */
+    double score(CompiledFuzzySystem system, ColumnarData data){
+        double[] distribution = new double[data.numClasses()];
+        Sums sums = new Sums();
+        int[] class_labels = data.getClassLabels();
+        double[][] targets = data.getTargets();
+        for(int i = 0; i < data.numRows(); i++){
+            system.distributionForRow(data, i, distribution);
+            add(sums, distribution, class_labels[i], targets[i]);
+        }
+        return combine(sums, data);
+    }/*end score*/
+    
+    /**
+     * Name: score
+     * Goal: computes the weighted classification rate and error from
+     *       distributions already computed
+     * @param distributions: for each row, the probability of membership for each class
+     * @param data: the rows the distributions were computed on
+     * @return double: classification_weight*rate+error_weight*2^-error
+     */
+    double score(double[][] distributions, ColumnarData data){
+        Sums sums = new Sums();
+        int[] class_labels = data.getClassLabels();
+        double[][] targets = data.getTargets();
+        for(int i = 0; i < data.numRows(); i++)
+            add(sums, distributions[i], class_labels[i], targets[i]);
+        return combine(sums, data);
+    }/*end score*/
+    
+    /**
+     * Name: add
+     * Goal: adds a row to the correctly classified memberships and to the
+     *       error sums. Memberships are rounded to 0 or 1 to be classified
+     * @param sums: the sums of the rows already added
+     * @param distribution: the distribution of the row
+     * @param class_label: the class of the row, -1 if missing
+     * @param target: the expected membership of the row to each class
+     */
+    private static void add(Sums sums, double[] distribution, int class_label, double[] target){
+        for(int j = 0; j < target.length; j++){
+            double a = distribution[j];
+            double rounded = Math.round(a);
+            if(rounded == 1 && j == class_label)
+                sums.correct++;
+            else if(rounded == 0 && j != class_label)
+                sums.correct++;
+            double error = a-target[j];
+            sums.square_error += error*error;
+            double mean_error = (a+target[j])/2;
+            if(mean_error != 0){
+                sums.relative_square_error += (error/mean_error)*(error/mean_error);
+                sums.relative_abs_error += Math.abs(error)/mean_error;
+            }
+        }
+    }/*end add*/
+    
+    /**
+     * Name: combine
+     * Goal: turns the sums into the weighted classification rate and error
+     *       of the metric of the kernel
+     * @param sums: the sums of all rows
+     * @param data: the rows
+     * @return double: classification_weight*rate+error_weight*2^-error
+     */
+    private double combine(Sums sums, ColumnarData data){
+        double rate = ((double)sums.correct)/(data.numRows()*data.numClasses());
+        double error;
+        switch(metric){
+            case RMSE:
+                error = Math.sqrt(sums.square_error/data.numRows());
+                break;
+            case MSE:
+                error = sums.square_error/data.numRows();
+                break;
+            case RRSE:
+                error = Math.sqrt(sums.relative_square_error/data.numRows());
+                break;
+            default:
+                error = sums.relative_abs_error/data.numRows();
+        }
+        double fitness = classification_weight*rate;
+        fitness += error_weight*Math.pow(2, -error);
+        return fitness;
+    }/*end combine*/
+    
+    /**
+     * Name: Sums
+     * Goal: values accumulated over the rows by a single scoring
+     */
+    private static final class Sums {
+        
+        //number of memberships rounded to the expected value
+        private int correct;
+        
+        //sum of the squared errors, for RMSE and MSE
+        private double square_error;
+        
+        //sum of the squared relative errors, for RRSE
+        private double relative_square_error;
+        
+        //sum of the absolute relative errors, for RAE
+        private double relative_abs_error;
+    }/*end Sums*/
+
+}/*end FitnessKernel*/
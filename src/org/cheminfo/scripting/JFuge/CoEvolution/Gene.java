@@ -3,31 +3,67 @@
  * Goal: abstract class to represent a gene (individual) in a population. This
  *       class ensures compatibility with the genetic algorithm
  * Attributes:
- *      - dna: tridimensional matrix of doubles to represent  genome
+ *      - dna: matrix of line_count lines and column_count columns. Subclasses
+ *             store it line by line in flat primitive arrays: cell (line, column)
+ *             is at index line*column_count+column
  *      - fitness: indicates the gene's fitness value
  * Methods:
  *      - mutate: enables a gene to mutate
- *      - crossover: enables a gene to cross its DNA with another
+ *      - crossover: enables a gene to cross its DNA with another, into new
+ *                   genes or into genes whose storage is reused
  *      - makeRandom: generates a random dna
+ *      - copy: copies the gene, so the copy may evolve independently
+ *      - copyInto: copies the gene into another one, reusing its storage
+ *      - writeState, readState: save and restore the dna and fitness, for
+ *        checkpoints
+ *      Random methods draw their numbers from the stream of the breeding
+ *      engine, never from a shared generator
  * @author Numa Trezzini
  */
 
 package org.cheminfo.scripting.JFuge.CoEvolution;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.cheminfo.scripting.Utils.RandomStream;
+
 public abstract class Gene {
     
-    protected Double[][][] dna;
+    //number of lines of the dna
+    protected int line_count;
+    
+    //number of columns of the dna
+    protected int column_count;
     
     protected double fitness;
     
     //prototype for mutation method
-    abstract void mutate();
+    abstract void mutate(RandomStream random);
     
     //prototype for crossover method
-    abstract Gene[] crossover(Gene companion);
+    abstract Gene[] crossover(Gene companion, RandomStream random);
+    
+    //prototype for crossover method writing both children into given genes
+    abstract void crossover(Gene companion, RandomStream random, Gene first, Gene second);
     
     //prototype for random construction method
-    abstract void makeRandom(int line_length, int column_length);
+    abstract void makeRandom(int line_length, int column_length, RandomStream random);
+    
+    //prototype for copying the gene, fitness included
+    abstract Gene copy();
+    
+    //prototype for copying the dna and fitness into another gene
+    abstract void copyInto(Gene target);
+    
+    //prototype for saving the dna and fitness
+    abstract void writeState(DataOutput out) throws IOException;
+    
+    //prototype for restoring the dna and fitness saved by writeState
+    abstract void readState(DataInput in) throws IOException;
+    
+    //prototype for printing a cell of the dna, each value followed by ", "
+    abstract String cellToString(int line, int column);
     
     public void setFitness(double fitness){
         this.fitness = fitness;
@@ -35,27 +71,23 @@ public abstract class Gene {
     
     public double getFitness(){return fitness;}/*end getFitness*/
 
-    public Double[][][] getDNA() {
-        return dna;
-    }/*end getDNA*/
+    public int getLineCount() {
+        return line_count;
+    }/*end getLineCount*/
 
-    public void setDNA(Double[][][] dna) {
-        this.dna = dna;
-    }/*end setDNA*/
+    public int getColumnCount() {
+        return column_count;
+    }/*end getColumnCount*/
     
     public String toString(){
-        String str = "DNA:\n[";
-        for(int i = 0; i < dna.length; i++){
-            str += "[";
-            for(int j = 0; j < dna[i].length; j++){
-                str += "[";
-                for(int k = 0; k < dna[i][j].length; k++){
-                    str += dna[i][j][k]+", ";
-                }
-                str += "],";
+        StringBuilder str = new StringBuilder("DNA:\n[");
+        for(int i = 0; i < line_count; i++){
+            str.append("[");
+            for(int j = 0; j < column_count; j++){
+                str.append("[").append(cellToString(i, j)).append("],");
             }
-            str += "]\n";
+            str.append("]\n");
         }
-        return str+"];";
+        return str.append("];").toString();
     }/*end toString*/
 }/*end Gene*/
@@ -6,16 +6,24 @@
  * Methods:
  *      - call: the method called upon starting the FutureTask using it. runs an
  *              iteration of the genetic algorithm
+ *       Parents are drawn at random among the remaining ones, without
+ *       replacement. The remaining parents are counted in a Fenwick tree, so
+ *       each draw costs O(log n) instead of a removal from the list
+ *       With double buffering, the children and the elite are written into
+ *       the child pool of the engine instead of new genes. An individual
+ *       present several times in the elite is copied once, and stays shared
+ *       as it would be without double buffering
  * @author: Numa Trezzini
  */
 package org.cheminfo.scripting.JFuge.CoEvolution;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.concurrent.Callable;
-import org.cheminfo.scripting.Utils.Tools;
+import org.cheminfo.scripting.Utils.RandomStream;
 
 
-public class GeneEvolver implements Callable<LinkedList<Gene>>{
+public class GeneEvolver implements Callable<ArrayList<Gene>>{
     
     private GeneticEngine ge;
     
@@ -30,39 +38,129 @@ public class GeneEvolver implements Callable<LinkedList<Gene>>{
     /**
      * Name: call
      * Goal: runs an iteration of a genetic algorithm
-     * @return LinkedList<Gene>: the new generation of a population
+     * @return ArrayList<Gene>: the new generation of a population
      * @throws Exception 
      */
-    public LinkedList<Gene> call() throws Exception{
+    public ArrayList<Gene> call() throws Exception{
+        //random numbers of the population, only used by this thread
+        RandomStream random = ge.getRandom();
 
         //selects parents for the new generation
         ge.selection();
 
-        LinkedList<Gene> children = new LinkedList<Gene>();
+        ArrayList<Gene> children = new ArrayList<Gene>(ge.getPopSize());
+        //genes receiving the children, null to allocate them
+        Gene[] slots = ge.getChildPool();
         //adds the elite the the next generation if there is any
-        children.addAll(ge.getElite());
+        if(slots == null)
+            children.addAll(ge.getElite());
+        else{
+            //slot of the copy of each elite individual already copied
+            IdentityHashMap<Gene, Integer> copies = new IdentityHashMap<Gene, Integer>();
+            for(Gene g : ge.getElite()){
+                Integer first_copy = copies.get(g);
+                if(first_copy != null)
+                    children.add(children.get(first_copy));
+                else{
+                    copies.put(g, children.size());
+                    g.copyInto(slots[children.size()]);
+                    children.add(slots[children.size()]);
+                }
+            }
+        }
         
         //crosses parents until population is complete again
+        ArrayList<Gene> parents = ge.getPopulation();
+        Remaining remaining = new Remaining(parents.size());
         Gene[] offspring;
+        Gene first;
+        Gene second;
         while(children.size() < ge.getPopSize()-1){
-            offspring = ge.crossover(ge.getPopulation().remove(Tools.randomInt(0, ge.getPopulation().size()-1)), ge.getPopulation().remove(Tools.randomInt(0, ge.getPopulation().size()-1)));
-            children.add(offspring[0]);
-            children.add(offspring[1]);
+            first = parents.get(remaining.remove(random.randomInt(0, remaining.size()-1)));
+            second = parents.get(remaining.remove(random.randomInt(0, remaining.size()-1)));
+            if(slots == null){
+                offspring = ge.crossover(first, second);
+                children.add(offspring[0]);
+                children.add(offspring[1]);
+            }
+            else{
+                int slot = children.size();
+                ge.crossover(first, second, slots[slot], slots[slot+1]);
+                children.add(slots[slot]);
+                children.add(slots[slot+1]);
+            }
         }
         //adds the fittest individual to the next generation if only one
-        //individual misses to complete next generation
+        //individual misses to complete next generation. The elite is sorted
+        //fittest first, so in the child pool its copy is the first child
         if(children.size() == ge.getPopSize()-1){
-            children.add(ge.getElite().getFirst());
+            Gene fittest = ge.getElite().getFirst();
+            children.add(slots==null?fittest:children.get(0));
         }
         //replaces the population by the children
         ge.setPopulation(children);
+        if(slots != null)
+            ge.swapPools();
         
 
         //mutates the next generation
         for(int i = 0; i < ge.getPopSize(); i++)
-            if(Tools.randomDouble(0, 1) < ge.getMutationRate())
+            if(random.randomDouble(0, 1) < ge.getMutationRate())
                 ge.mutate(i);
         return ge.getPopulation();
     }/*end call*/
+    
+    /**
+     * Name: Remaining
+     * Goal: positions of the parents not drawn yet, in their order in the
+     *       population. The k-th remaining parent is the one a list of the
+     *       remaining parents would hold at index k
+     */
+    private static final class Remaining {
+        
+        //Fenwick tree: tree[i] counts the remaining positions in (i-(i&-i), i]
+        private int[] tree;
+        
+        //highest power of 2 not above the number of positions
+        private int top;
+        
+        //number of remaining positions
+        private int size;
+        
+        Remaining(int count){
+            tree = new int[count+1];
+            for(int i = 1; i <= count; i++){
+                tree[i]++;
+                int parent = i+(i&-i);
+                if(parent <= count)
+                    tree[parent] += tree[i];
+            }
+            top = count==0?0:Integer.highestOneBit(count);
+            size = count;
+        }
+        
+        int size(){
+            return size;
+        }
+        
+        //removes the k-th remaining position and returns it
+        int remove(int k){
+            if(k < 0 || k >= size)
+                throw new IndexOutOfBoundsException("Index: "+k+", Size: "+size);
+            int position = 0;
+            int rank = k+1;
+            for(int step = top; step > 0; step >>= 1){
+                int next = position+step;
+                if(next < tree.length && tree[next] < rank){
+                    position = next;
+                    rank -= tree[next];
+                }
+            }
+            for(int i = position+1; i < tree.length; i += i&-i)
+                tree[i]--;
+            size--;
+            return position;
+        }
+    }/*end Remaining*/
 
 }/*end GeneEvolver*/
\ No newline at end of file
@@ -6,12 +6,19 @@
  *                     array the function returns contains the mf gene in the
  *                     first cell and the rule gene in the second
  *      - geneToFuzzy: transforms a rule and a mf gene into a fuzzy system
+ *      - geneToCompiled: transforms a rule and a mf gene straight into the
+ *                        compiled form of the fuzzy system geneToFuzzy would
+ *                        build, without variables, rules or terms. Used to
+ *                        evaluate individuals, whose systems are thrown away
  * @author Numa Trezzini
  */
 package org.cheminfo.scripting.JFuge.CoEvolution;
 
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.LinkedList;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.ColumnarData;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.CompiledFuzzySystem;
 import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystem;
 import org.cheminfo.scripting.JFuge.FuzzyLogic.MembershipFunction;
 import org.cheminfo.scripting.JFuge.FuzzyLogic.Rule;
@@ -75,6 +82,87 @@ public class GeneTranslator {
         return fs;
     }/*end geneToFuzzy*/
     
+    /**
+     * Name: geneToCompiled
+     * Goal: transforms the given genes into the compiled system of the fuzzy
+     *       system geneToFuzzy builds, reading the genome arrays directly.
+     *       Variables, rules and antecedents are kept in the same order, so the
+     *       distributions are identical:
+     *      - input variable v reads attribute v, its zero points are line v
+     *        of the MF gene, sorted
+     *      - the zero points of class c are the first two used cells of line
+     *        (input count+c) of the MF gene, sorted
+     *      - lines of the rule gene without antecedents are dropped, but the
+     *        last one (default rule)
+     * @param mf_gene: the membership function gene
+     * @param rule_gene: the rule gene
+     * @param train_data: the dataset the system has to classify. used for
+     *                    the number of variables and classes, and as the
+     *                    observed rows in sparse mode
+     * @param sparse: true to index the rules by term
+     * @return CompiledFuzzySystem: the compiled system of the genes
+     */
+    public static CompiledFuzzySystem geneToCompiled(MFGene mf_gene, RuleGene rule_gene, ColumnarData train_data, boolean sparse){
+        int ante_count = train_data.numAttributes()-1;
+        int class_count = train_data.numClasses();
+        double[] points = mf_gene.getPoints();
+        int width = mf_gene.getColumnCount();
+        
+        //input variables
+        double[] zero_points = Arrays.copyOf(points, ante_count*width);
+        int[] zp_offset = new int[ante_count+1];
+        int[] attribute_index = new int[ante_count];
+        for(int v = 0; v < ante_count; v++){
+            Arrays.sort(zero_points, v*width, (v+1)*width);
+            zp_offset[v+1] = (v+1)*width;
+            attribute_index[v] = v;
+        }
+        //output variables
+        double[][] out_points = new double[class_count][2];
+        for(int c = 0; c < class_count; c++){
+            int done = 0;
+            for(int j = 0; j < width; j++){
+                double point = points[(ante_count+c)*width+j];
+                if(!Double.isNaN(point))
+                    out_points[c][done++] = point;
+            }
+            Arrays.sort(out_points[c]);
+        }
+        
+        //rules
+        short[] vars = rule_gene.getVars();
+        byte[] terms = rule_gene.getTerms();
+        int line_count = rule_gene.getLineCount();
+        int columns = rule_gene.getColumnCount();
+        int[] ante_offset = new int[line_count+1];
+        int[] ante_var = new int[line_count*ante_count];
+        int[] ante_term = new int[line_count*ante_count];
+        double[] singletons = new double[line_count*class_count];
+        int rule_count = 0;
+        int a = 0;
+        for(int i = 0; i < line_count; i++){
+            int cell = i*columns;
+            int first = a;
+            for(int j = 0; j < ante_count; j++){
+                if(terms[cell+j] != -1){
+                    ante_var[a] = vars[cell+j];
+                    ante_term[a] = terms[cell+j];
+                    a++;
+                }
+            }
+            if(a == first && i != line_count-1)
+                continue;
+            for(int c = 0; c < class_count; c++)
+                singletons[rule_count*class_count+c] = out_points[c][terms[cell+ante_count+c]];
+            ante_offset[++rule_count] = a;
+        }
+        return new CompiledFuzzySystem(zero_points, zp_offset, attribute_index,
+                                       Arrays.copyOf(ante_offset, rule_count+1),
+                                       Arrays.copyOf(ante_var, a), Arrays.copyOf(ante_term, a),
+                                       Arrays.copyOf(singletons, rule_count*class_count),
+                                       class_count, sparse, train_data);
+    }/*end geneToCompiled*/
+    
     /**
      * Name: makeRules
      * Goal: reconstructs rules form the rule gene and the variables
@@ -93,28 +181,29 @@ public class GeneTranslator {
         String term;
         int term_index;
         int column = 0;
+        Variable[] inputs = in_vars.toArray(new Variable[in_vars.size()]);
+        Variable[] outputs = out_var.toArray(new Variable[out_var.size()]);
         //read each rule
-        for(int i = 0; i < gene.getDNA().length; i++){
+        for(int i = 0; i < gene.getLineCount(); i++){
             ante = new LinkedList<RuleTerm>();
             cons = new LinkedList<RuleTerm>();
             //add input vars and expected terms (== RuleTerm) to antecedents
-            for(int j = 0; j < in_vars.size(); j++){
-                if(gene.getDNA()[i][j][1] != -1){
-                    var = in_vars.get(gene.getDNA()[i][j][0].intValue());
-                    term = in_vars.get(gene.getDNA()[i][j][0].intValue()).getTerms()[gene.getDNA()[i][j][1].intValue()];
-                    //System.out.println((int)gene.getDNA()[i][j][0]+": "+var);
-                    term_index = gene.getDNA()[i][j][1].intValue();
+            for(int j = 0; j < inputs.length; j++){
+                term_index = gene.getTerm(i, j);
+                if(term_index != -1){
+                    var = inputs[gene.getVar(i, j)];
+                    term = var.getTerms()[term_index];
                     ante.add(new RuleTerm(var, term, term_index));
                 }
             }
-            if(ante.size() == 0 && i != gene.getDNA().length-1)
+            if(ante.size() == 0 && i != gene.getLineCount()-1)
                 continue;
             //set current rule output value
-            column = in_vars.size();
-            for(int j = 0; j < out_var.size(); j++){
-                var = out_var.get(j);
-                term = out_var.get(j).getTerms()[gene.getDNA()[i][column][1].intValue()];
-                term_index = gene.getDNA()[i][column++][1].intValue();
+            column = inputs.length;
+            for(int j = 0; j < outputs.length; j++){
+                var = outputs[j];
+                term_index = gene.getTerm(i, column++);
+                term = var.getTerms()[term_index];
                 cons.add(new RuleTerm(var, term, term_index));
             }
             rule = new Rule(ante.size()==0?null:ante, cons, connector);
@@ -161,10 +250,8 @@ public class GeneTranslator {
         String[] default_terms = is_binary?Variable.DEFAULT_BINARY_TERMS:Variable.DEFAULT_TRIPLE_TERMS;
         //input variables
         for(int i = 0; i < terms.size()-1; i++){
-            zero_points = new double[gene.getDNA()[i].length];
-            for(int j = 0; j < gene.getDNA()[i].length; j++){
-                zero_points[j] = gene.getDNA()[i][j][0];
-            }
+            zero_points = new double[gene.getColumnCount()];
+            System.arraycopy(gene.getPoints(), i*gene.getColumnCount(), zero_points, 0, zero_points.length);
             mf = new MembershipFunction(null, min_max[i][0], min_max[i][1], zero_points);
             if(terms.get(i) == null){
                 var = new Variable((String)names[i], default_terms, mf, i);
@@ -178,14 +265,12 @@ public class GeneTranslator {
         //output variables
         int done;
         int value_done = 0;
-        for(int i = terms.size()-1; i < gene.getDNA().length; i++){
+        for(int i = terms.size()-1; i < gene.getLineCount(); i++){
             zero_points = new double[2];
             done = 0;
-            for(int j = 0; j < gene.getDNA()[i].length; j++){
-                if(gene.getDNA()[i][j][0]!=null){
-                    Double d = gene.getDNA()[i][j][0];
-                    zero_points[done++] = d;
-                }
+            for(int j = 0; j < gene.getColumnCount(); j++){
+                if(!Double.isNaN(gene.getPoint(i, j)))
+                    zero_points[done++] = gene.getPoint(i, j);
             }
             //value_done = 0;
             mf = new MembershipFunction(null, min_max[i][0], min_max[i][1], zero_points);
@@ -204,46 +289,48 @@ public class GeneTranslator {
         MFGene mf_gene;
         int mf_length = in_vars.getFirst().getMf().getZeroPoints().length;
         
-        Double[][][] mf_adn = new Double[in_vars.size()+1][mf_length][1];
+        double[] mf_adn = new double[(in_vars.size()+1)*mf_length];
+        Arrays.fill(mf_adn, Double.NaN);
         
         //input variables
         MembershipFunction mf;
-        double min = in_vars.getFirst().getMf().getMinVal();
-        double max = in_vars.getFirst().getMf().getMaxVal();
         for(int i = 0; i < in_vars.size(); i++){
             mf = in_vars.get(i).getMf();
             for(int j = 0; j < mf_length; j++){
-                mf_adn[i][j][0] = mf.getZeroPoints()[j];
+                mf_adn[i*mf_length+j] = mf.getZeroPoints()[j];
             }
         }
         
         //output variable
         for(int i = 0; i < 2; i++){
-            mf_adn[in_vars.size()][i][0] = out_var.get(i).getMf().getZeroPoints()[i];
+            mf_adn[in_vars.size()*mf_length+i] = out_var.get(i).getMf().getZeroPoints()[i];
         }
         
         mf_gene = new MFGene(min_max, in_vars.size());
-        mf_gene.setDNA(mf_adn);
+        mf_gene.setPoints(in_vars.size()+1, mf_length, mf_adn);
         return mf_gene;
     }/*end makeMFGene*/
     
     private static RuleGene makeRuleGene(LinkedList<Rule> rules, int var_count){
         RuleGene rule_gene;
-        Double[][][] adn = new Double[rules.size()][var_count][2];
+        short[] vars = new short[rules.size()*var_count];
+        byte[] terms = new byte[rules.size()*var_count];
         Rule rule;
+        int cell;
         int max_input = rules.getFirst().getAntecedents().getFirst().getVar().getTerms().length;
         int max_output = rules.getFirst().getAntecedents().getLast().getVar().getTerms().length;
-        for(int i = 0; i < adn.length; i++){
+        for(int i = 0; i < rules.size(); i++){
             rule = rules.get(i);
+            cell = i*var_count;
             if(rule.getAntecedents() != null){
                 for(int j = 0; j < var_count-1; j++){
                     if(rule.getAntecedents().size() <= j){
-                        adn[i][j][0] = -1.0;
-                        adn[i][j][1] = -1.0;
+                        vars[cell+j] = -1;
+                        terms[cell+j] = -1;
                     }
                     else{
-                        adn[i][j][0] = (double)rule.getAntecedents().get(j).getVar().getAttributeIndex();
-                        adn[i][j][1] = (double)rule.getAntecedents().get(j).getTermIndex();
+                        vars[cell+j] = (short)rule.getAntecedents().get(j).getVar().getAttributeIndex();
+                        terms[cell+j] = (byte)rule.getAntecedents().get(j).getTermIndex();
                         if(rule.getAntecedents().get(j).getVar().getTerms().length > max_input)
                             max_input = rule.getAntecedents().get(j).getVar().getTerms().length;
                     }
@@ -251,15 +338,15 @@ public class GeneTranslator {
             }
             else{
                 for(int j = 0; j < var_count-1; j++){
-                    adn[i][j][0] = -1.0;
-                    adn[i][j][1] = -1.0;
+                    vars[cell+j] = -1;
+                    terms[cell+j] = -1;
                 }
             }
-            adn[i][var_count-1][0] = (double)rule.getConsequent().get(0).getVar().getAttributeIndex();
-            adn[i][var_count-1][1] = (double)rule.getConsequent().get(0).getTermIndex();
+            vars[cell+var_count-1] = (short)rule.getConsequent().get(0).getVar().getAttributeIndex();
+            terms[cell+var_count-1] = (byte)rule.getConsequent().get(0).getTermIndex();
         }
         rule_gene = new RuleGene(var_count, max_input, max_output);
-        rule_gene.setDNA(adn);
+        rule_gene.setRules(rules.size(), var_count, vars, terms);
         return rule_gene;
     }/*end makeRuleGene*/
     
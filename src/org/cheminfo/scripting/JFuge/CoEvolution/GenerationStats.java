@@ -0,0 +1,154 @@
+/**
+ * Name: GenerationStats
+ * Goal: statistics of one generation of a coevolution:
+ *      - wall time of the generation, split between breeding of both
+ *        populations and evaluation of the individuals
+ *      - number of evaluated individuals and how many of them were found in
+ *        the fitness cache, and the evaluation throughput
+ *      - best, mean and worst fitness of the generation
+ *      - estimate of the memory allocated during the generation
+ * Usage: created by Coevolution and given to its listeners. Statistics are
+ *        immutable
+ * @see EvolutionListener
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+public class GenerationStats {
+    
+    //index of the generation, starting at 0
+    private int generation;
+    
+    //times, in nanoseconds
+    private long wall_time;
+    
+    private long breeding_time;
+    
+    private long evaluation_time;
+    
+    //number of evaluated individuals
+    private int evaluations;
+    
+    //number of evaluations answered by the fitness cache
+    private long cache_hits;
+    
+    private double best_fitness;
+    
+    private double mean_fitness;
+    
+    private double worst_fitness;
+    
+    //growth of the used heap during the generation, in bytes
+    private long allocated_bytes;
+    
+    /**
+     * Name: GenerationStats
+     * Goal: creates the statistics of a generation. Times are in nanoseconds
+     * @param generation: index of the generation
+     * @param breeding_time: time spent breeding both populations
+     * @param evaluation_time: time spent evaluating the individuals
+     * @param wall_time: total time of the generation
+     * @param fitnesses: fitness of each individual of the generation
+     * @param cache_hits: number of evaluations answered by the fitness cache
+     * @param allocated_bytes: estimate of the memory allocated by the generation
+     */
+    GenerationStats(int generation, long breeding_time, long evaluation_time,
+                    long wall_time, double[] fitnesses, long cache_hits,
+                    long allocated_bytes){
+        this.generation = generation;
+        this.breeding_time = breeding_time;
+        this.evaluation_time = evaluation_time;
+        this.wall_time = wall_time;
+        this.evaluations = fitnesses.length;
+        this.cache_hits = cache_hits;
+        this.allocated_bytes = allocated_bytes;
+        best_fitness = fitnesses[0];
+        worst_fitness = fitnesses[0];
+        double sum = 0;
+        for(double fitness : fitnesses){
+            if(fitness > best_fitness)
+                best_fitness = fitness;
+            if(fitness < worst_fitness)
+                worst_fitness = fitness;
+            sum += fitness;
+        }
+        mean_fitness = sum/fitnesses.length;
+    }/*end GenerationStats*/
+    
+    public int getGeneration(){
+        return generation;
+    }/*end getGeneration*/
+    
+    /**
+     * Name: getWallTime
+     * @return long: the total time of the generation, in nanoseconds
+     */
+    public long getWallTime(){
+        return wall_time;
+    }/*end getWallTime*/
+    
+    /**
+     * Name: getBreedingTime
+     * @return long: the time spent breeding both populations, in nanoseconds
+     */
+    public long getBreedingTime(){
+        return breeding_time;
+    }/*end getBreedingTime*/
+    
+    /**
+     * Name: getEvaluationTime
+     * @return long: the time spent evaluating the individuals, in nanoseconds
+     */
+    public long getEvaluationTime(){
+        return evaluation_time;
+    }/*end getEvaluationTime*/
+    
+    public int getEvaluations(){
+        return evaluations;
+    }/*end getEvaluations*/
+    
+    public long getCacheHits(){
+        return cache_hits;
+    }/*end getCacheHits*/
+    
+    /**
+     * Name: getEvaluationsPerSecond
+     * @return double: the number of individuals evaluated per second
+     */
+    public double getEvaluationsPerSecond(){
+        return evaluation_time==0?0:evaluations*1e9/evaluation_time;
+    }/*end getEvaluationsPerSecond*/
+    
+    public double getBestFitness(){
+        return best_fitness;
+    }/*end getBestFitness*/
+    
+    public double getMeanFitness(){
+        return mean_fitness;
+    }/*end getMeanFitness*/
+    
+    public double getWorstFitness(){
+        return worst_fitness;
+    }/*end getWorstFitness*/
+    
+    /**
+     * Name: getAllocatedBytes
+     * Goal: estimates the memory allocated during the generation, from the
+     *       growth of the used heap. Memory collected during the generation
+     *       is not seen, so this is a lower bound
+     * @return long: the estimate, in bytes. Never negative
+     */
+    public long getAllocatedBytes(){
+        return allocated_bytes;
+    }/*end getAllocatedBytes*/
+    
+    public String toString(){
+        return "generation "+generation+": "+wall_time/1000000+" ms (breeding "
+               +breeding_time/1000000+" ms, evaluation "+evaluation_time/1000000
+               +" ms), "+evaluations+" evaluations ("+cache_hits+" cached, "
+               +(long)getEvaluationsPerSecond()+"/s), fitness best "
+               +best_fitness+" mean "+mean_fitness+" worst "+worst_fitness
+               +", ~"+allocated_bytes/1024+" KB allocated";
+    }/*end toString*/
+
+}/*end GenerationStats*/
@@ -7,30 +7,55 @@
  *      - crossover: crosses two individuals to produce two offspring to replace
  *                   the parents in the population
  *      - mutate: mutates an individual
- *      - start: Launches the evolution of this generation. made by a thread to
- *               allow parallelism.
+ *      - start: Launches the evolution of this generation on the caller's thread.
+ *      - getFittest: copies the fittest individuals, to send them to another
+ *                    population
+ *      - replaceWeakest: replaces the weakest individuals by given ones
+ *      - submit: submits the evolution of this generation to an executor, so
+ *                that several populations may be bred in parallel.
+ *      - writeState, readState: save the population and the random numbers,
+ *                               and restore them to resume the evolution
+ *      - setDoubleBuffering: breeds the children into two pools of genes
+ *                            allocated once, which alternate between the
+ *                            parent and the child generation
  * Usage: this class is used by the coevolution to run a generation of an algorithm.
- *        It should only be used internally by the coevolution
+ *        It should only be used internally by the coevolution. The population
+ *        is an array list, so individuals are reached in constant time:
+ *        roulette picks by binary search over the cumulative fitness, and
+ *        tournament and random picks are direct. A generation costs
+ *        O(n log n) for a population of n individuals.
+ *        The elite is the fittest individuals since the elitism comparator
+ *        was fixed; before, it was the first individuals of the population.
+ *        Seeded evolutions with elitism do not reproduce the results of
+ *        earlier versions
  * @see Coevolution
  * @author Numa Trezzini
  */
 package org.cheminfo.scripting.JFuge.CoEvolution;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.cheminfo.scripting.JFuge.JFuge;
-import org.cheminfo.scripting.Utils.Tools;
+import org.cheminfo.scripting.Utils.RandomStream;
 
 
 public class GeneticEngine {
     
     //the population to evolve
-    private LinkedList<Gene> population;
+    private ArrayList<Gene> population;
     
     //the crossover rate
     private double crossover_rate;
@@ -57,7 +82,20 @@ public class GeneticEngine {
     private LinkedList<Gene> elite = new LinkedList<Gene>();
     
     //the evolution thread
-    private FutureTask<LinkedList<Gene>> evol;
+    private FutureTask<ArrayList<Gene>> evol;
+    
+    //the random numbers of this population. Only used by the thread breeding it
+    private RandomStream random;
+    
+    //indicates if children are bred into the gene pools
+    private boolean double_buffering = false;
+    
+    //genes receiving the next generation, null until needed. Never part of
+    //the current population
+    private Gene[] child_pool;
+    
+    //genes holding the current generation, null if it was not bred into a pool
+    private Gene[] parent_pool;
     
     /**
      * Name: GeneticEngine
@@ -77,8 +115,10 @@ public class GeneticEngine {
      * @param max_output_index: the number of terms the output variable may take
      * @param line_number: indicates the number rules
      * @param column_number: indicates the number of variables per rules
+     * @param random: the random numbers of the population. Must not be shared
+     *                with another engine
      */
-    public GeneticEngine(double crossover_rate, double selection_rate, String selection_algorithm, double elitism_rate, int tournament_size, double mutation_rate, int pop_size, String gene_type, double[][] min_max, int max_var_index, int max_input_index, int max_output_index, int line_number, int column_number){
+    public GeneticEngine(double crossover_rate, double selection_rate, String selection_algorithm, double elitism_rate, int tournament_size, double mutation_rate, int pop_size, String gene_type, double[][] min_max, int max_var_index, int max_input_index, int max_output_index, int line_number, int column_number, RandomStream random){
         this.elitism_rate = elitism_rate;
         this.tournament_size = tournament_size;
         this.selection_algorithm = selection_algorithm;
@@ -86,6 +126,7 @@ public class GeneticEngine {
         this.crossover_rate = crossover_rate;
         this.mutation_rate = mutation_rate;
         this.selection_rate = selection_rate;
+        this.random = random;
         //generate a random population upon creation
         if(gene_type.equals(Coevolution.MF))
             this.population = makeRandomMFPop(pop_size, min_max, line_number, column_number, max_var_index-1);
@@ -101,14 +142,14 @@ public class GeneticEngine {
      * @param max: the maximum value a MF may take
      * @param line_number: the number of rules
      * @param column_number: the number of variables per rule
-     * @return linkedlist<Gene>: the random population
+     * @return ArrayList<Gene>: the random population
      */
-    private LinkedList<Gene> makeRandomMFPop(int pop_size, double[][] min_max, int line_number, int column_number, int ante_count){
-        LinkedList<Gene> mf_pop = new LinkedList<Gene>();
+    private ArrayList<Gene> makeRandomMFPop(int pop_size, double[][] min_max, int line_number, int column_number, int ante_count){
+        ArrayList<Gene> mf_pop = new ArrayList<Gene>(pop_size);
         MFGene g;
         for(int i = 0; i < pop_size; i++){
             g = new MFGene(min_max, ante_count);
-            g.makeRandom(line_number, column_number);
+            g.makeRandom(line_number, column_number, random);
             mf_pop.add(g);
         }
         return mf_pop;
@@ -123,14 +164,14 @@ public class GeneticEngine {
      * @param max_output_index: the number of terms the output variable may take
      * @param line_length: number of rules
      * @param column_length: number of variables per rule
-     * @return linkedlist<Gene>: the random population
+     * @return ArrayList<Gene>: the random population
      */
-    private LinkedList<Gene> makeRandomRulePop(int pop_size, int max_var_index, int max_input_index, int max_output_index, int line_length, int column_length){
-        LinkedList<Gene> rule_pop = new LinkedList<Gene>();
+    private ArrayList<Gene> makeRandomRulePop(int pop_size, int max_var_index, int max_input_index, int max_output_index, int line_length, int column_length){
+        ArrayList<Gene> rule_pop = new ArrayList<Gene>(pop_size);
         RuleGene g;
         for(int i = 0; i < pop_size; i++){
             g = new RuleGene(max_var_index, max_input_index, max_output_index);
-            g.makeRandom(line_length, column_length);
+            g.makeRandom(line_length, column_length, random);
             rule_pop.add(g);
         }
         return rule_pop;
@@ -144,7 +185,19 @@ public class GeneticEngine {
      * @return Gene[]: both offspring
      */
     public Gene[] crossover(Gene parent1, Gene parent2){
-        return parent1.crossover(parent2);
+        return parent1.crossover(parent2, random);
+    }/*end crossover*/
+    
+    /**
+     * Name: crossover
+     * Goal: crosses two individuals into genes of the child pool
+     * @param parent1
+     * @param parent2
+     * @param first: receives the offspring beginning like parent1
+     * @param second: receives the offspring beginning like parent2
+     */
+    public void crossover(Gene parent1, Gene parent2, Gene first, Gene second){
+        parent1.crossover(parent2, random, first, second);
     }/*end crossover*/
     
     /**
@@ -152,7 +205,7 @@ public class GeneticEngine {
      * @param individual_index : the index of the individual to mutate in the population
      */
     public void mutate(int individual_index){
-        population.get(individual_index).mutate();
+        population.get(individual_index).mutate(random);
         //System.out.println(population.get(individual_index));
     }/*end mutate*/
     
@@ -178,7 +231,10 @@ public class GeneticEngine {
     /**
      * Name: elitism
      * Goal: chooses the elite (the fittest) from the current population for
-     *       reintroduction in next generation
+     *       reintroduction in next generation. The elite is kept fittest first.
+     *       Earlier versions kept the first individuals of the population
+     *       instead, whatever their fitness: with elitism, a seed does not
+     *       evolve the same systems as it did with those versions
      */
     private void elitism(){
         //clear previous elite
@@ -186,27 +242,28 @@ public class GeneticEngine {
         //compute number of elite to choose
         int elite_count = (int)Math.round(pop_size*elitism_rate);
         //copy population list to prevent messing with acutal population order
-        LinkedList<Gene> sorted_pop = (LinkedList<Gene>)population.clone();
-        //sort population according to their fitness
+        ArrayList<Gene> sorted_pop = new ArrayList<Gene>(population);
+        //sort population according to their fitness, fittest first
         Collections.sort(sorted_pop, new Comparator<Gene>(){
             public int compare(Gene o1, Gene o2){
-                return Double.compare(o1.getFitness(), o1.getFitness());
+                return Double.compare(o2.getFitness(), o1.getFitness());
             }
         });
         //get the elite from sorted population
         for(int i = 0; i < elite_count; i++)
-            elite.add(sorted_pop.pop());
+            elite.add(sorted_pop.get(i));
     }/*end elitism*/
     
     /**
      * Name: rouletteSelection
      * Goal: Performs roulette selection on current population for parents of
-     *       next generation
+     *       next generation. Fitnesses are never negative, so the cumulative
+     *       fitness is sorted and each pick is a binary search
      */
     private void rouletteSelection(){
         double fit_sum = 0;
         double[] select_proba = new double[population.size()];
-        LinkedList<Gene> new_pop = new LinkedList<Gene>();
+        ArrayList<Gene> new_pop = new ArrayList<Gene>(pop_size);
         int i = 0;
         //compute fitness sum and "selection probability" for each individual
         for(Gene g : population){
@@ -217,44 +274,52 @@ public class GeneticEngine {
         if(fit_sum == 0)
             return;
         //selects individuals
-        double random;
+        double pick;
         while(new_pop.size() < pop_size){
-            random = Tools.randomDouble(0, fit_sum);
-            i = 0;
-            while(select_proba[i] < random)
-                i++;
-            new_pop.add(population.get(i));
+            pick = random.randomDouble(0, fit_sum);
+            new_pop.add(population.get(firstAtLeast(select_proba, pick)));
         }
         population = new_pop;
     }/*end rouletteSelection*/
     
+    /**
+     * Name: firstAtLeast
+     * Goal: finds the first individual whose cumulative fitness reaches the pick
+     * @param cumulative: the cumulative fitness of each individual, sorted
+     * @param pick: the picked value
+     * @return int: the index of the individual, the last one if none reaches the pick
+     */
+    private static int firstAtLeast(double[] cumulative, double pick){
+        int low = 0, high = cumulative.length-1;
+        while(low < high){
+            int mid = (low+high)>>>1;
+            if(cumulative[mid] < pick)
+                low = mid+1;
+            else
+                high = mid;
+        }
+        return low;
+    }/*end firstAtLeast*/
+    
     /**
      * Name: tournamentSelection
      * Goal: performs tournament selection on the population for the parents of
      *       the next generation
      */
     private void tournamentSelection(){
-        LinkedList<Gene> pool = new LinkedList<Gene>();
-        LinkedList<Gene> new_pop = new LinkedList<Gene>();
-        double max_fitness;
-        int max_fitness_index;
+        ArrayList<Gene> new_pop = new ArrayList<Gene>(pop_size);
+        Gene winner;
+        Gene candidate;
         while(new_pop.size() < pop_size){
-            //choose a pool for a tournament
-            for(int i = 0; i < tournament_size; i++){
-                pool.add(population.get(Tools.randomInt(0, pop_size-1)));
+            //choose winner of a tournament (fittest participant, first one
+            //on ties)
+            winner = population.get(random.randomInt(0, pop_size-1));
+            for(int i = 1; i < tournament_size; i++){
+                candidate = population.get(random.randomInt(0, pop_size-1));
+                if(candidate.getFitness() > winner.getFitness())
+                    winner = candidate;
             }
-            //choose winner of tournament (fittest individual)
-            max_fitness = pool.getFirst().getFitness();
-            max_fitness_index = 0;
-            for(int i = 0; i < pool.size(); i++){
-                if(pool.get(i).getFitness() > max_fitness){
-                    max_fitness = pool.get(i).getFitness();
-                    max_fitness_index = i;
-                }
-            }
-            new_pop.add(pool.get(max_fitness_index));
-            //empty pool for next tournament
-            pool.clear();
+            new_pop.add(winner);
         }
         population = new_pop;
     }/*end tournamentSelection*/
@@ -264,13 +329,123 @@ public class GeneticEngine {
      * Goal: randomly selects individuals as parents for the next generation
      */
     private void randomSelection(){
-        LinkedList<Gene> new_pop = new LinkedList<Gene>();
+        ArrayList<Gene> new_pop = new ArrayList<Gene>(pop_size);
         while(new_pop.size() < population.size()){
-            new_pop.add(population.get(Tools.randomInt(0, pop_size-1)));
+            new_pop.add(population.get(random.randomInt(0, pop_size-1)));
         }
         population = new_pop;
     }/*end randomSelection*/
 
+    /**
+     * Name: getFittest
+     * Goal: copies the fittest individuals of the population. The population
+     *       is not modified
+     * @param count: the number of individuals to copy
+     * @return LinkedList<Gene>: copies of the fittest individuals, fittest first
+     */
+    public LinkedList<Gene> getFittest(int count){
+        LinkedList<Gene> sorted_pop = new LinkedList<Gene>(population);
+        Collections.sort(sorted_pop, new Comparator<Gene>(){
+            public int compare(Gene o1, Gene o2){
+                return Double.compare(o2.getFitness(), o1.getFitness());
+            }
+        });
+        LinkedList<Gene> fittest = new LinkedList<Gene>();
+        for(Gene g : sorted_pop){
+            if(fittest.size() == count)
+                break;
+            fittest.add(g.copy());
+        }
+        return fittest;
+    }/*end getFittest*/
+    
+    /**
+     * Name: replaceWeakest
+     * Goal: replaces the weakest individuals of the population by the given
+     *       ones. The population keeps its size
+     * @param genes: the individuals to insert. Must not be shared with another
+     *               population
+     */
+    public void replaceWeakest(LinkedList<Gene> genes){
+        final Gene[] pop = population.toArray(new Gene[population.size()]);
+        Integer[] order = new Integer[pop.length];
+        for(int i = 0; i < order.length; i++)
+            order[i] = i;
+        //weakest individuals first
+        Arrays.sort(order, new Comparator<Integer>(){
+            public int compare(Integer o1, Integer o2){
+                return Double.compare(pop[o1].getFitness(), pop[o2].getFitness());
+            }
+        });
+        int i = 0;
+        for(Gene g : genes){
+            if(i == order.length)
+                break;
+            pop[order[i++]] = g;
+        }
+        population = new ArrayList<Gene>(Arrays.asList(pop));
+    }/*end replaceWeakest*/
+
+    /**
+     * Name: writeState
+     * Goal: writes the random numbers and the population. An individual may
+     *       appear several times in the population (selection picks it
+     *       several times); it is written once, so it is still shared when
+     *       restored and mutates the same way
+     * @param out: the output to write into
+     * @throws IOException: if the output cannot be written
+     */
+    public void writeState(DataOutput out) throws IOException{
+        random.writeState(out);
+        IdentityHashMap<Gene, Integer> ids = new IdentityHashMap<Gene, Integer>();
+        LinkedList<Gene> individuals = new LinkedList<Gene>();
+        for(Gene g : population){
+            if(!ids.containsKey(g)){
+                ids.put(g, ids.size());
+                individuals.add(g);
+            }
+        }
+        out.writeInt(individuals.size());
+        for(Gene g : individuals)
+            g.writeState(out);
+        out.writeInt(population.size());
+        for(Gene g : population)
+            out.writeInt(ids.get(g));
+    }/*end writeState*/
+    
+    /**
+     * Name: readState
+     * Goal: replaces the random numbers and the population by the ones
+     *       saved by writeState. Genes must have the same size as the ones
+     *       of this engine
+     * @param in: the input to read from
+     * @throws IOException: if the input cannot be read or does not match the engine
+     */
+    public void readState(DataInput in) throws IOException{
+        RandomStream saved_random = RandomStream.readState(in);
+        Gene[] individuals = new Gene[in.readInt()];
+        if(individuals.length <= 0 || individuals.length > pop_size)
+            throw new IOException("Invalid number of individuals: "+individuals.length);
+        Gene prototype = population.get(0);
+        for(int i = 0; i < individuals.length; i++){
+            individuals[i] = prototype.copy();
+            individuals[i].readState(in);
+        }
+        int size = in.readInt();
+        if(size != pop_size)
+            throw new IOException("Population of "+size+" individuals, "+pop_size+" expected");
+        ArrayList<Gene> saved = new ArrayList<Gene>(size);
+        for(int i = 0; i < size; i++){
+            int id = in.readInt();
+            if(id < 0 || id >= individuals.length)
+                throw new IOException("Invalid individual: "+id);
+            saved.add(individuals[id]);
+        }
+        random = saved_random;
+        population = saved;
+        elite.clear();
+    }/*end readState*/
+    
     public double getCrossoverRate() {
         return crossover_rate;
     }/*end getCrossoverRate*/
@@ -279,11 +454,11 @@ public class GeneticEngine {
         return mutation_rate;
     }/*end getMutationRate*/
 
-    public LinkedList<Gene> getPopulation() {
+    public ArrayList<Gene> getPopulation() {
         return population;
     }/*end getPopulation*/
 
-    public void setPopulation(LinkedList<Gene> population) {
+    public void setPopulation(ArrayList<Gene> population) {
         this.population = population;
     }/*end setPopulation*/
 
@@ -299,14 +474,18 @@ public class GeneticEngine {
         return elite;
     }/*end getElite*/
     
+    public RandomStream getRandom() {
+        return random;
+    }/*end getRandom*/
+    
     /**
      * Name: start
-     * Goal: creates and runs a new thread for evolving a generation of genes
-     * @return LinkedList<Gene>: the new generation bred from the current one
+     * Goal: evolves a generation of genes on the caller's thread
+     * @return ArrayList<Gene>: the new generation bred from the current one
      */
-    public LinkedList<Gene> start(){
+    public ArrayList<Gene> start(){
         //System.out.println("running evolution...");
-        evol = new FutureTask<LinkedList<Gene>>(new GeneEvolver(this));
+        evol = new FutureTask<ArrayList<Gene>>(new GeneEvolver(this));
         evol.run();
         try {
             return evol.get();
@@ -319,5 +498,64 @@ public class GeneticEngine {
         }
     }/*end start*/
     
+    /**
+     * Name: submit
+     * Goal: submits the evolution of a generation of genes to the given
+     *       executor. The engine must not be used until the returned future
+     *       is done.
+     * @param executor: the executor breeding the generation
+     * @return Future<ArrayList<Gene>>: the new generation bred from the current one
+     */
+    public Future<ArrayList<Gene>> submit(ExecutorService executor){
+        return executor.submit(new GeneEvolver(this));
+    }/*end submit*/
+    
+    /**
+     * Name: setDoubleBuffering
+     * Goal: enables or disables breeding into the gene pools. Once enabled,
+     *       crossover writes the children into preallocated genes, and the
+     *       elite is copied into them, so a generation allocates no DNA. The
+     *       pool of the parents becomes the child pool of the next generation.
+     *       The random numbers are drawn in the same order, so the evolution
+     *       is the same either way
+     * @param double_buffering: true to breed into the gene pools
+     */
+    public void setDoubleBuffering(boolean double_buffering){
+        this.double_buffering = double_buffering;
+        if(!double_buffering){
+            child_pool = null;
+            parent_pool = null;
+        }
+    }/*end setDoubleBuffering*/
+    
+    /**
+     * Name: getChildPool
+     * Goal: gives the genes receiving the next generation. They are allocated
+     *       the first time, as copies of an individual of the population
+     * @return Gene[]: pop_size genes, none in the current population. null if
+     *                 double buffering is disabled
+     */
+    Gene[] getChildPool(){
+        if(!double_buffering)
+            return null;
+        if(child_pool == null){
+            child_pool = new Gene[pop_size];
+            for(int i = 0; i < pop_size; i++)
+                child_pool[i] = population.get(0).copy();
+        }
+        return child_pool;
+    }/*end getChildPool*/
+    
+    /**
+     * Name: swapPools
+     * Goal: makes the child pool, now holding the population, the parent
+     *       pool. The genes of the previous parents are no longer in the
+     *       population, so they receive the next generation
+     */
+    void swapPools(){
+        Gene[] bred = child_pool;
+        child_pool = parent_pool;
+        parent_pool = bred;
+    }/*end swapPools*/
     
 }/*end GeneticEngine*/
@@ -0,0 +1,144 @@
+/**
+ * Name: GenomeScorer
+ * Goal: computes the fitness of an individual straight from its genes. The
+ *       genes are compiled into a fuzzy system (GeneTranslator.geneToCompiled),
+ *       whose performance on the given rows is combined with its complexity:
+ *      - performance: weighted classification rate and error, computed by
+ *        the fitness kernel
+ *      - complexity: number of rules and mean number of variables per rule
+ * Usage: the scorer holds no state between calls, so it may be shared by the
+ *        threads evaluating a generation. The coevolution and the workers of
+ *        a distributed evaluation score with it, so they compute the same
+ *        fitness.
+ * @see Coevolution
+ * @see EvaluationWorker
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import org.cheminfo.scripting.JFuge.FuzzyLogic.ColumnarData;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.CompiledFuzzySystem;
+
+class GenomeScorer {
+    
+    //the training data, observed by the sparse index
+    private final ColumnarData train_data;
+    
+    //error metric
+    private final String error_algo;
+    
+    //classification, error, rule number and var per rule weights
+    private final double[] fitness_weights;
+    
+    //indicates if systems are compiled with the sparse rule index
+    private final boolean sparse_inference;
+    
+    //computes the classification rate and error of systems in a single pass
+    private final FitnessKernel kernel;
+    
+    /**
+     * Name: GenomeScorer
+     * Goal: creates a scorer for the given data and fitness function
+     * @param train_data: the training data
+     * @param error_algo: the error metric
+     * @param fitness_weights: the classification, error, rule number and
+     *                         var per rule weights
+     * @param sparse_inference: true to compile systems with the sparse index
+     */
+    GenomeScorer(ColumnarData train_data, String error_algo, double[] fitness_weights, boolean sparse_inference){
+        this.train_data = train_data;
+        this.error_algo = error_algo;
+        this.fitness_weights = fitness_weights.clone();
+        this.sparse_inference = sparse_inference;
+        this.kernel = new FitnessKernel(error_algo, fitness_weights[0], fitness_weights[1]);
+    }/*end GenomeScorer*/
+    
+    /**
+     * Name: score
+     * Goal: computes the fitness of an individual on the given rows
+     * @param mf_gene: the membership function gene of the individual
+     * @param rule_gene: the rule gene of the individual
+     * @param data: the rows to evaluate the individual on, all training rows
+     *              or some of them
+     * @return double: the individual's fitness
+     */
+    double score(MFGene mf_gene, RuleGene rule_gene, ColumnarData data){
+        CompiledFuzzySystem system = GeneTranslator.geneToCompiled(mf_gene, rule_gene, train_data, sparse_inference);
+        return fitness(kernel.score(system, data), system.getRuleCount(), computeVarPerRuleNumber(system));
+    }/*end score*/
+    
+    /**
+     * Name: score
+     * Goal: computes the fitness of an individual from distributions already
+     *       computed
+     * @param distributions: for each row, the probability of membership for each class
+     * @param data: the rows the distributions were computed on
+     * @param rule_number: the number of rules of the individual
+     * @param var_per_rule_number: the mean number of variables per rule
+     * @return double: the individual's fitness
+     */
+    double score(double[][] distributions, ColumnarData data, double rule_number, double var_per_rule_number){
+        return fitness(kernel.score(distributions, data), rule_number, var_per_rule_number);
+    }/*end score*/
+    
+    /**
+     * Name: fitness
+     * Goal: computes the fitness of a system from its performance on the
+     *       training data and its complexity
+     * @param performance: the weighted classification rate and error, as
+     *                     computed by the fitness kernel
+     * @param rule_number: the number of rules of the system
+     * @param var_per_rule_number: the mean number of variables per rule
+     * @return double: the system's fitness
+     */
+    private double fitness(double performance, double rule_number, double var_per_rule_number){
+        double fitness = performance;
+        //compute number of rules
+        if(rule_number == 0.0)
+            return 0;
+        else
+            fitness += fitness_weights[2]*1/rule_number;
+        //compute mean number of variables per rule
+        if(var_per_rule_number == 0.0)
+            return 0;
+        else
+            fitness += fitness_weights[3]*1/var_per_rule_number;
+        return fitness;
+    }/*end fitness*/
+    
+    /**
+     * Name: computeVarPerRuleNumber
+     * Goal: computes the mean of variables per rule in a system
+     * @param system: the system to evaluate
+     * @return double: the mean number of variables per rule
+     */
+    private static double computeVarPerRuleNumber(CompiledFuzzySystem system){
+        double var_count = 0;
+        //ignore default rule
+        for(int i = 0; i < system.getRuleCount()-1; i++)
+            var_count += system.getAntecedentCount(i);
+        return var_count/(system.getRuleCount()-1);
+    }/*end computeVarPerRuleNumber*/
+    
+    ColumnarData getTrainData(){
+        return train_data;
+    }/*end getTrainData*/
+    
+    String getErrorAlgorithm(){
+        return error_algo;
+    }/*end getErrorAlgorithm*/
+    
+    /**
+     * Name: getFitnessWeights
+     * @return double[]: the classification, error, rule number and var per
+     *                   rule weights. Must not be modified
+     */
+    double[] getFitnessWeights(){
+        return fitness_weights;
+    }/*end getFitnessWeights*/
+    
+    boolean isSparse(){
+        return sparse_inference;
+    }/*end isSparse*/
+
+}/*end GenomeScorer*/
@@ -0,0 +1,279 @@
+/**
+ * Name: IslandCoevolution
+ * Goal: runs several independent coevolutions (islands) at once, each on its
+ *       own thread. Every few generations, the fittest individuals of each
+ *       island are copied to its neighbours, where they replace the weakest
+ *       individuals. Neighbours depend on the topology:
+ *      - ring: each island sends its migrants to the next one
+ *      - full: each island sends its migrants to all other islands
+ *       Once all islands are over, the best system of all islands is returned.
+ * Methods:
+ *      - evolveSystem: evolves all islands and returns the best system
+ *      - setCheckpoint: periodically saves the state of all islands to a
+ *        file. Checkpoints are taken after migrations, when all islands are
+ *        between two generations
+ *      - resume: restores the islands saved in a checkpoint, so the next
+ *        evolution continues from there
+ * Usage: islands must have been created with the same training data. Each
+ *        island keeps its own parameters, number of generations and stop
+ *        conditions; reaching the target fitness on one island stops all of
+ *        them. Islands breed and evaluate on their own thread only, so their
+ *        number of evaluation threads is not used. A fitness cache may be
+ *        shared by all islands.
+ * @see Coevolution
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystem;
+
+public class IslandCoevolution {
+    
+    //available topologies
+    public static final String TOPOLOGY_RING = "ring";
+    
+    public static final String TOPOLOGY_FULL = "full";
+    
+    //the islands
+    private Coevolution[] islands;
+    
+    //number of generations between two migrations
+    private int migration_interval;
+    
+    //number of individuals of each population sent by an island
+    private int migrant_count;
+    
+    //indicates where migrants are sent
+    private String topology;
+    
+    //file receiving the checkpoints. null if disabled
+    private File checkpoint_file;
+    
+    //number of migrations between two checkpoints
+    private int checkpoint_interval;
+    
+    //islands over in the resumed evolution. null if not resumed
+    private boolean[] resumed_over;
+    
+    /**
+     * Name: IslandCoevolution
+     * Goal: creates an island coevolution from existing coevolutions
+     * @param islands: the coevolutions to run, at least one
+     * @param migration_interval: number of generations between two migrations
+     * @param migrant_count: number of individuals of each population sent by
+     *                       an island at each migration. 0 disables migration
+     * @param topology: where migrants are sent. TOPOLOGY_RING or
+     *                  TOPOLOGY_FULL
+     */
+    public IslandCoevolution(Coevolution[] islands, int migration_interval,
+                             int migrant_count, String topology){
+        if(islands.length == 0)
+            throw new IllegalArgumentException("At least one island is needed");
+        this.islands = islands;
+        this.migration_interval = Math.max(1, migration_interval);
+        this.migrant_count = Math.max(0, migrant_count);
+        this.topology = topology;
+    }/*end IslandCoevolution*/
+    
+    /**
+     * Name: evolveSystem
+     * Goal: evolves all islands, with migrations every migration_interval
+     *       generations, until every island is over
+     * @return FuzzySystem: the best system of all islands
+     */
+    public FuzzySystem evolveSystem(){
+        boolean[] over = resumed_over==null?new boolean[islands.length]:resumed_over;
+        resumed_over = null;
+        ExecutorService pool = Executors.newFixedThreadPool(islands.length);
+        Checkpoint checkpoint = checkpoint_file==null?null:new Checkpoint(checkpoint_file);
+        int migrations = 0;
+        try{
+            for(Coevolution island : islands)
+                island.startEvolution();
+            boolean running = true;
+            while(running){
+                //evolve all running islands until next migration
+                LinkedList<Future<Boolean>> epochs = new LinkedList<Future<Boolean>>();
+                for(int i = 0; i < islands.length; i++)
+                    epochs.add(over[i]?null:pool.submit(epoch(islands[i])));
+                int i = 0;
+                for(Future<Boolean> epoch : epochs){
+                    if(epoch != null)
+                        over[i] = Coevolution.join(epoch);
+                    i++;
+                }
+                //stop everything as soon as an island reached the target
+                running = false;
+                for(i = 0; i < islands.length; i++){
+                    if(islands[i].reachedTarget()){
+                        running = false;
+                        break;
+                    }
+                    running |= !over[i];
+                }
+                if(running){
+                    migrate(over);
+                    migrations++;
+                    if(checkpoint != null && migrations%checkpoint_interval == 0)
+                        checkpoint.write(checkpoint(over));
+                }
+            }
+        }
+        finally{
+            pool.shutdown();
+            if(checkpoint != null)
+                checkpoint.close();
+        }
+        return selectBest();
+    }/*end evolveSystem*/
+    
+    /**
+     * Name: epoch
+     * Goal: creates the task evolving an island until next migration
+     * @param island: the island to evolve
+     * @return Callable<Boolean>: the task. Its result is true once the island
+     *                            is over
+     */
+    private Callable<Boolean> epoch(final Coevolution island){
+        return new Callable<Boolean>(){
+            public Boolean call(){
+                for(int g = 0; g < migration_interval && !island.isOver(); g++)
+                    if(island.evolveGeneration(null))
+                        return true;
+                return island.isOver();
+            }
+        };
+    }/*end epoch*/
+    
+    /**
+     * Name: migrate
+     * Goal: sends the fittest individuals of each island to its neighbours.
+     *       All migrants are chosen before any of them is inserted, so the
+     *       order of the islands does not matter. Islands that are over do
+     *       not receive migrants
+     * @param over: indicates which islands are over
+     */
+    private void migrate(boolean[] over){
+        if(migrant_count == 0 || islands.length == 1)
+            return;
+        Coevolution.Migrants[] emigrants = new Coevolution.Migrants[islands.length];
+        for(int i = 0; i < islands.length; i++)
+            emigrants[i] = islands[i].emigrate(migrant_count);
+        for(int to = 0; to < islands.length; to++){
+            if(over[to])
+                continue;
+            if(topology.equals(TOPOLOGY_FULL)){
+                LinkedList<Gene> mf_migrants = new LinkedList<Gene>();
+                LinkedList<Gene> rule_migrants = new LinkedList<Gene>();
+                for(int from = 0; from < islands.length; from++){
+                    if(from == to)
+                        continue;
+                    //each destination gets its own copies
+                    for(Gene g : emigrants[from].mf_genes)
+                        mf_migrants.add(g.copy());
+                    for(Gene g : emigrants[from].rule_genes)
+                        rule_migrants.add(g.copy());
+                }
+                islands[to].immigrate(new Coevolution.Migrants(mf_migrants, rule_migrants));
+            }
+            //ring: island receives the migrants of the previous one
+            else
+                islands[to].immigrate(emigrants[(to+islands.length-1)%islands.length]);
+        }
+    }/*end migrate*/
+    
+    /**
+     * Name: setCheckpoint
+     * Goal: saves the state of all islands to a file every few generations.
+     *       Checkpoints are only taken after migrations, so the interval is
+     *       rounded to a number of migrations, at least one
+     * @param checkpoint_file: the file, replaced by each checkpoint. null
+     *                         disables checkpoints
+     * @param checkpoint_interval: the number of generations between two checkpoints
+     */
+    public void setCheckpoint(File checkpoint_file, int checkpoint_interval){
+        this.checkpoint_file = checkpoint_file;
+        this.checkpoint_interval = Math.max(1, Math.round((float)checkpoint_interval/migration_interval));
+    }/*end setCheckpoint*/
+    
+    /**
+     * Name: resume
+     * Goal: restores the islands saved in a checkpoint. The next call to
+     *       evolveSystem continues their evolution. The islands must have
+     *       been created with the same training data and options as the
+     *       saved ones
+     * @param checkpoint_file: the checkpoint written by an island evolution
+     * @throws IOException: if the file cannot be read or does not match the islands
+     */
+    public void resume(File checkpoint_file) throws IOException{
+        DataInputStream in = Checkpoint.open(checkpoint_file, Checkpoint.ISLANDS);
+        try{
+            int count = in.readInt();
+            if(count != islands.length)
+                throw new IOException("Checkpoint of "+count+" islands, "+islands.length+" expected");
+            boolean[] over = new boolean[count];
+            for(int i = 0; i < count; i++){
+                over[i] = in.readBoolean();
+                islands[i].readState(in);
+            }
+            resumed_over = over;
+        }
+        finally{
+            in.close();
+        }
+    }/*end resume*/
+    
+    /**
+     * Name: checkpoint
+     * Goal: copies the state of all islands into memory, after a migration
+     * @param over: indicates which islands are over
+     * @return byte[]: the checkpoint, header included
+     */
+    private byte[] checkpoint(boolean[] over){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = Checkpoint.header(Checkpoint.ISLANDS, bytes);
+        try{
+            out.writeInt(islands.length);
+            for(int i = 0; i < islands.length; i++){
+                out.writeBoolean(over[i]);
+                islands[i].writeState(out);
+            }
+            out.flush();
+        }
+        catch(IOException e){
+            //never thrown by a stream in memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }/*end checkpoint*/
+    
+    /**
+     * Name: selectBest
+     * @return FuzzySystem: the best system of all islands
+     */
+    private FuzzySystem selectBest(){
+        FuzzySystem result = null;
+        FuzzySystem candidate;
+        for(Coevolution island : islands){
+            candidate = island.getBestSystem();
+            if(result == null || (candidate != null && candidate.getFitness() > result.getFitness()))
+                result = candidate;
+        }
+        return result;
+    }/*end selectBest*/
+    
+    public Coevolution[] getIslands(){
+        return islands;
+    }/*end getIslands*/
+
+}/*end IslandCoevolution*/
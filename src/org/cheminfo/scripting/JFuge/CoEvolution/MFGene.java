@@ -2,19 +2,26 @@
  * Name: MFGene
  * Goal: extends a Gene to represent the membership functions associated with
  *       each variable of a fuzzy system. Each line is a variable, and each
- *       column is a zero point of the MF. To ensure compatibility with the Gene
- *       abstract class, the thrid dimanesion of the DNA only contains one element
+ *       column is a zero point of the MF. The zero points are stored line by
+ *       line in a flat array of doubles. Output variables only use their first
+ *       two columns; unused cells hold NaN
  * Methods:
  *      - mutate: changes a random cell of the DNA
  *      - crossover: copies and swaps DNA of two individuals from a random point
  *                   in the DNA.
  *      - makeRandom: attributes random (valid) values to the gene's DNA
+ *      - copy: copies the gene and its DNA. The copy shares the delta
+ *              evaluation state, which is never modified
+ *      - copyInto: copies the DNA into another gene, reusing its storage
  * @see: Gene
  * @author: Numa Trezzini
  */
 package org.cheminfo.scripting.JFuge.CoEvolution;
 
-import org.cheminfo.scripting.Utils.Tools;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.cheminfo.scripting.Utils.RandomStream;
 
 
 public class MFGene extends Gene{
@@ -23,6 +30,12 @@ public class MFGene extends Gene{
     
     private int ante_count;
     
+    //zero points, line by line
+    private double[] points;
+    
+    //memberships of the last delta evaluation, null if none
+    private volatile DeltaEvaluator.MFState delta_state;
+    
     //private double max;
     
     public MFGene(double[][] min_max, int ante_count){
@@ -33,15 +46,16 @@ public class MFGene extends Gene{
     /**
      * Name: mutate
      * Goal: mutates a MF gene randomly. Only one cell is modified
+     * @param random: the stream choosing the mutated cell
      */
-    void mutate(){
-        int line_index = Tools.randomInt(0, dna.length-1);
-        int column_index = Tools.randomInt(0, dna[0].length-1);
+    void mutate(RandomStream random){
+        int line_index = random.randomInt(0, line_count-1);
+        int column_index = random.randomInt(0, column_count-1);
         if(line_index < ante_count)
-            dna[line_index][column_index][0] = Tools.randomDouble(min_max[line_index][0], min_max[line_index][1]);
+            points[line_index*column_count+column_index] = random.randomDouble(min_max[line_index][0], min_max[line_index][1]);
         else{
-            int column = Math.random()<0.5?0:1;
-            dna[line_index][column][0] = Tools.randomDouble(min_max[line_index][0], min_max[line_index][1]);
+            int column = random.nextDouble()<0.5?0:1;
+            points[line_index*column_count+column] = random.randomDouble(min_max[line_index][0], min_max[line_index][1]);
         }
     }/*end mutate*/
     
@@ -53,66 +67,197 @@ public class MFGene extends Gene{
      *       child until the randomly chosen point. From there on, DNA values are
      *       swapped between both individuals
      * @param companion: the companion of this gene for breeding
+     * @param random: the stream choosing the crossover point
      * @return Gene[]: both children
      */
-    Gene[] crossover(Gene companion){
+    Gene[] crossover(Gene companion, RandomStream random){
         //create new genes to prevent messing with parents
-        Gene first = new MFGene(min_max, ante_count);
-        first.setDNA(new Double[dna.length][dna[0].length][1]);
-        Gene second = new MFGene(min_max, ante_count);
-        second.setDNA(new Double[dna.length][dna[0].length][1]);
-        int line_index = Tools.randomInt(0, dna.length-1);
-        int column_index = Tools.randomInt(0, dna[0].length-1);
-        //copy first part of dna
-        for(int i = 0; i<line_index; i++){
-            for(int j = 0; j < dna[0].length; j++){
-                first.dna[i][j][0] = this.dna[i][j][0];
-                second.dna[i][j][0] = companion.dna[i][j][0];
-            }
-        }
-        //complete cut dna line
-        for(int i = 0; i < column_index; i++){
-            first.dna[line_index][i][0] = this.dna[line_index][i][0];
-            second.dna[line_index][i][0] = companion.dna[line_index][i][0];
-        }
-        for(int i = column_index; i < dna[line_index].length; i++){
-            first.dna[line_index][i][0] = companion.dna[line_index][i][0];
-            second.dna[line_index][i][0] = this.dna[line_index][i][0];
-        }
-        //swap latter part of dna
-        for(int i = line_index+1; i<dna.length; i++){
-            for(int j = 0; j < dna[0].length; j++){
-                first.dna[i][j][0] = companion.dna[i][j][0];
-                second.dna[i][j][0] = this.dna[i][j][0];
-            }
-        }
+        MFGene first = new MFGene(min_max, ante_count);
+        first.setPoints(line_count, column_count, new double[points.length]);
+        MFGene second = new MFGene(min_max, ante_count);
+        second.setPoints(line_count, column_count, new double[points.length]);
+        crossover(companion, random, first, second);
         Gene[] result = {first, second};
         return result;
     }/*end crossover*/
     
+    /**
+     * Name: crossover
+     * Goal: crosses two MF genes like crossover above, but writes the
+     *       children into given genes instead of allocating them. Their DNA
+     *       and fitness are replaced
+     * @param companion: the companion of this gene for breeding
+     * @param random: the stream choosing the crossover point
+     * @param first_child: receives the child beginning like this gene. Must
+     *                     not be a parent
+     * @param second_child: receives the child beginning like the companion.
+     *                      Must not be a parent
+     */
+    void crossover(Gene companion, RandomStream random, Gene first_child, Gene second_child){
+        double[] other = ((MFGene)companion).points;
+        MFGene first = (MFGene)first_child;
+        MFGene second = (MFGene)second_child;
+        first.reshape(line_count, column_count);
+        second.reshape(line_count, column_count);
+        int line_index = random.randomInt(0, line_count-1);
+        int column_index = random.randomInt(0, column_count-1);
+        //dna is stored line by line, so the cut is a single index
+        int cut = line_index*column_count+column_index;
+        //copy first part of dna
+        System.arraycopy(points, 0, first.points, 0, cut);
+        System.arraycopy(other, 0, second.points, 0, cut);
+        //swap latter part of dna
+        System.arraycopy(other, cut, first.points, cut, points.length-cut);
+        System.arraycopy(points, cut, second.points, cut, points.length-cut);
+        //children start from the evaluation state of the parent they begin like
+        first.delta_state = delta_state;
+        second.delta_state = ((MFGene)companion).delta_state;
+        first.setFitness(0);
+        second.setFitness(0);
+    }/*end crossover*/
+    
     /**
      * Name: makeRandom
      * Goal: gives the DNA random values. used as a base for evolution
      * @param line_number: number of lines in the DNA (the number of variables)
      * @param column_number: number of columns in the DNA (the number of terms a MF may take)
+     * @param random: the stream drawing the values
      */
-    void makeRandom(int line_number, int column_number){
-        dna = new Double[line_number][column_number][1];
+    void makeRandom(int line_number, int column_number, RandomStream random){
+        setPoints(line_number, column_number, new double[line_number*column_number]);
         //antecedent random
         for(int i = 0; i < ante_count; i++){
             for(int j = 0; j < column_number; j++){
-                dna[i][j][0] = Tools.randomDouble(min_max[i][0], min_max[i][1]);
+                points[i*column_number+j] = random.randomDouble(min_max[i][0], min_max[i][1]);
             }
         }
         //consequent random
         for(int i = ante_count; i < line_number; i++){
             for(int j = 0; j < column_number; j++){
                 if(j < 2)
-                    dna[i][j][0] = Tools.randomDouble(min_max[i][0], min_max[i][1]);
+                    points[i*column_number+j] = random.randomDouble(min_max[i][0], min_max[i][1]);
                 else
-                    dna[i][j][0] = null;
+                    points[i*column_number+j] = Double.NaN;
             }
         }
     }/*end makeRandom*/
     
+    /**
+     * Name: copy
+     * Goal: copies the gene. The copy has its own DNA
+     * @return Gene: the copy
+     */
+    Gene copy(){
+        MFGene copy = new MFGene(min_max, ante_count);
+        copy.setPoints(line_count, column_count, points.clone());
+        copy.setFitness(fitness);
+        copy.delta_state = delta_state;
+        return copy;
+    }/*end copy*/
+    
+    /**
+     * Name: copyInto
+     * Goal: copies the gene into another one, reusing its DNA storage
+     * @param target: the gene receiving the DNA and the fitness
+     */
+    void copyInto(Gene target){
+        MFGene copy = (MFGene)target;
+        copy.reshape(line_count, column_count);
+        System.arraycopy(points, 0, copy.points, 0, points.length);
+        copy.setFitness(fitness);
+        copy.delta_state = delta_state;
+    }/*end copyInto*/
+    
+    /**
+     * Name: writeState
+     * Goal: writes the fitness, the size and the cells of the DNA
+     * @param out: the output to write into
+     * @throws IOException: if the output cannot be written
+     */
+    void writeState(DataOutput out) throws IOException{
+        out.writeDouble(fitness);
+        out.writeInt(line_count);
+        out.writeInt(column_count);
+        for(double point : points)
+            out.writeDouble(point);
+    }/*end writeState*/
+    
+    /**
+     * Name: readState
+     * Goal: replaces the fitness and the DNA by the ones saved by writeState
+     * @param in: the input to read from
+     * @throws IOException: if the input cannot be read
+     */
+    void readState(DataInput in) throws IOException{
+        double saved_fitness = in.readDouble();
+        int lines = in.readInt();
+        int columns = in.readInt();
+        if(lines != line_count || columns != column_count)
+            throw new IOException("MF gene of "+lines+"x"+columns+" cells, "+line_count+"x"+column_count+" expected");
+        double[] saved = new double[lines*columns];
+        for(int i = 0; i < saved.length; i++)
+            saved[i] = in.readDouble();
+        setPoints(lines, columns, saved);
+        setFitness(saved_fitness);
+        delta_state = null;
+    }/*end readState*/
+    
+    /**
+     * Name: setPoints
+     * Goal: replaces the DNA of the gene
+     * @param line_count: number of variables
+     * @param column_count: number of zero points per variable
+     * @param points: the zero points, line by line. NaN marks an unused cell
+     */
+    void setPoints(int line_count, int column_count, double[] points){
+        this.line_count = line_count;
+        this.column_count = column_count;
+        this.points = points;
+    }/*end setPoints*/
+    
+    /**
+     * Name: reshape
+     * Goal: gives the DNA the given size. Its storage is only allocated again
+     *       if the number of cells changes
+     * @param line_count: number of variables
+     * @param column_count: number of zero points per variable
+     */
+    private void reshape(int line_count, int column_count){
+        if(points == null || points.length != line_count*column_count)
+            points = new double[line_count*column_count];
+        this.line_count = line_count;
+        this.column_count = column_count;
+    }/*end reshape*/
+    
+    /**
+     * Name: getPoint
+     * @param line: the variable
+     * @param column: the zero point
+     * @return double: the zero point, NaN if the cell is not used
+     */
+    public double getPoint(int line, int column){
+        return points[line*column_count+column];
+    }/*end getPoint*/
+    
+    /**
+     * Name: getPoints
+     * @return double[]: the zero points, line by line. Must not be modified
+     */
+    public double[] getPoints(){
+        return points;
+    }/*end getPoints*/
+    
+    DeltaEvaluator.MFState getDeltaState(){
+        return delta_state;
+    }/*end getDeltaState*/
+    
+    void setDeltaState(DeltaEvaluator.MFState delta_state){
+        this.delta_state = delta_state;
+    }/*end setDeltaState*/
+    
+    String cellToString(int line, int column){
+        double point = getPoint(line, column);
+        return (Double.isNaN(point)?"null":Double.toString(point))+", ";
+    }/*end cellToString*/
+
 }/*end MFGene*/
@@ -3,18 +3,25 @@
  * Goal: extends a Gene to represent the rules associated with of a fuzzy system
  *       Each line is a rule, and each column is a term of the rule. The last
  *       column is always the consequent of the rule. The last line is always the
- *       default rule
+ *       default rule. Each cell holds a variable index and a term index, stored
+ *       line by line in a short and a byte array. -1 marks a "don't care" cell
  * Methods:
  *      - mutate: changes a random cell of the DNA
  *      - crossover: copies and swaps DNA of two individuals from a random point
  *                   in the DNA.
  *      - makeRandom: attributes random (valid) values to the gene's DNA
+ *      - copy: copies the gene and its DNA. The copy shares the delta
+ *              evaluation state, which is never modified
+ *      - copyInto: copies the DNA into another gene, reusing its storage
  * @see: Gene
  * @author: Numa Trezzini
  */
 package org.cheminfo.scripting.JFuge.CoEvolution;
 
-import org.cheminfo.scripting.Utils.Tools;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import org.cheminfo.scripting.Utils.RandomStream;
 
 public class RuleGene extends Gene{
     
@@ -24,6 +31,15 @@ public class RuleGene extends Gene{
     
     private int max_class_index;
     
+    //variable index of each cell, line by line
+    private short[] vars;
+    
+    //term index of each cell, line by line
+    private byte[] terms;
+    
+    //activations of the last delta evaluation, null if none
+    private volatile DeltaEvaluator.RuleState delta_state;
+    
     public RuleGene(int max_var_index, int max_term_index, int max_class_index){
         this.max_term_index = max_term_index;
         this.max_var_index = max_var_index;
@@ -33,18 +49,19 @@ public class RuleGene extends Gene{
     /**
      * Name: mutate
      * Goal: randomly replaces a rule term (variable+term) in the DNA
+     * @param random: the stream choosing the mutated cell
      */
-    void mutate(){
+    void mutate(RandomStream random){
         //TODO remettre -2 si jamais
-        int line_index = Tools.randomInt(0, dna.length-1);
-        int column_index = Tools.randomInt(0, dna[0].length-1);
+        int line_index = random.randomInt(0, line_count-1);
+        int column_index = random.randomInt(0, column_count-1);
         //don't mutate default rule except for consequent
-        if(line_index == dna.length-1)
-            dna[line_index][dna[0].length-1][1] = (double)Tools.randomInt(0, 1);
+        if(line_index == line_count-1)
+            terms[line_index*column_count+column_count-1] = (byte)random.randomInt(0, 1);
         else if(column_index >= max_var_index-1)
-            dna[line_index][column_index][1] = (double)Tools.randomInt(0, 1); 
+            terms[line_index*column_count+column_index] = (byte)random.randomInt(0, 1);
         else
-            dna[line_index][column_index][1] = (double)Tools.randomInt(-1, max_term_index-1);
+            terms[line_index*column_count+column_index] = (byte)random.randomInt(-1, max_term_index-1);
     }/*end mutate*/
     
     /**
@@ -55,83 +72,241 @@ public class RuleGene extends Gene{
      *       child until the randomly chosen point. From there on, DNA values are
      *       swapped between both individuals
      * @param companion: the individual to cross this gene with
+     * @param random: the stream choosing the crossover point
      * @return Gene[]: both children resulting from crossover
      */
-    Gene[] crossover(Gene companion){
-        Gene first = new RuleGene(max_var_index, max_term_index, max_class_index);
-        first.setDNA(new Double[dna.length][dna[0].length][2]);
-        Gene second = new RuleGene(max_var_index, max_term_index, max_class_index);
-        second.setDNA(new Double[dna.length][dna[0].length][2]);
-        int line_index = Tools.randomInt(0, dna.length-1);
-        int column_index = Tools.randomInt(0, max_var_index-1);
-        //copy dna to prevent messing with parents
-        for(int i = 0; i<line_index; i++){
-            for(int j = 0; j < dna[0].length; j++){
-                first.dna[i][j][0] = this.dna[i][j][0];
-                first.dna[i][j][1] = this.dna[i][j][1];
-                second.dna[i][j][0] = companion.dna[i][j][0];
-                second.dna[i][j][1] = companion.dna[i][j][1];
-            }
-        }
-        //complete cut line
-        for(int i = 0; i < column_index; i++){
-            first.dna[line_index][i][0] = this.dna[line_index][i][0];
-            first.dna[line_index][i][1] = this.dna[line_index][i][1];
-            second.dna[line_index][i][0] = companion.dna[line_index][i][0];
-            second.dna[line_index][i][1] = companion.dna[line_index][i][1];
-        }
-        for(int i = column_index; i < dna[line_index].length; i++){
-            first.dna[line_index][i][0] = companion.dna[line_index][i][0];
-            first.dna[line_index][i][1] = companion.dna[line_index][i][1];
-            second.dna[line_index][i][0] = this.dna[line_index][i][0];
-            second.dna[line_index][i][1] = this.dna[line_index][i][1];
-        }
-        //swap remaining dna
-        for(int i = line_index+1; i<dna.length; i++){
-            for(int j = 0; j < dna[0].length; j++){
-                first.dna[i][j][0] = companion.dna[i][j][0];
-                first.dna[i][j][1] = companion.dna[i][j][1];
-                second.dna[i][j][0] = this.dna[i][j][0];
-                second.dna[i][j][1] = this.dna[i][j][1];
-            }
-        }
+    Gene[] crossover(Gene companion, RandomStream random){
+        int length = vars.length;
+        RuleGene first = new RuleGene(max_var_index, max_term_index, max_class_index);
+        first.setRules(line_count, column_count, new short[length], new byte[length]);
+        RuleGene second = new RuleGene(max_var_index, max_term_index, max_class_index);
+        second.setRules(line_count, column_count, new short[length], new byte[length]);
+        crossover(companion, random, first, second);
         Gene[] result = {first, second};
         return result;
     }/*end crossover*/
     
+    /**
+     * Name: crossover
+     * Goal: crosses two rule genes like crossover above, but writes the
+     *       children into given genes instead of allocating them. Their DNA
+     *       and fitness are replaced
+     * @param companion: the individual to cross this gene with
+     * @param random: the stream choosing the crossover point
+     * @param first_child: receives the child beginning like this gene. Must
+     *                     not be a parent
+     * @param second_child: receives the child beginning like the companion.
+     *                      Must not be a parent
+     */
+    void crossover(Gene companion, RandomStream random, Gene first_child, Gene second_child){
+        RuleGene other = (RuleGene)companion;
+        int length = vars.length;
+        RuleGene first = (RuleGene)first_child;
+        RuleGene second = (RuleGene)second_child;
+        first.reshape(line_count, column_count);
+        second.reshape(line_count, column_count);
+        int line_index = random.randomInt(0, line_count-1);
+        int column_index = random.randomInt(0, max_var_index-1);
+        //dna is stored line by line, so the cut is a single index
+        int cut = line_index*column_count+column_index;
+        //copy dna to prevent messing with parents
+        System.arraycopy(vars, 0, first.vars, 0, cut);
+        System.arraycopy(terms, 0, first.terms, 0, cut);
+        System.arraycopy(other.vars, 0, second.vars, 0, cut);
+        System.arraycopy(other.terms, 0, second.terms, 0, cut);
+        //swap remaining dna
+        System.arraycopy(other.vars, cut, first.vars, cut, length-cut);
+        System.arraycopy(other.terms, cut, first.terms, cut, length-cut);
+        System.arraycopy(vars, cut, second.vars, cut, length-cut);
+        System.arraycopy(terms, cut, second.terms, cut, length-cut);
+        //children start from the evaluation state of the parent they begin like
+        first.delta_state = delta_state;
+        second.delta_state = other.delta_state;
+        first.setFitness(0);
+        second.setFitness(0);
+    }/*end crossover*/
+    
     /**
      * Name: makeRandom
      * Goal: gives random values to the gene, to work as a basis for evolution
      * @param line_number: number of lines in the DNA (number of rules)
      * @param column_number: number of columns in the DNA (number of variables in a rule)
+     * @param random: the stream drawing the values
      */
-    void makeRandom(int line_number, int column_number){
-        dna = new Double[line_number][column_number][2];
+    void makeRandom(int line_number, int column_number, RandomStream random){
+        setRules(line_number, column_number, new short[line_number*column_number], new byte[line_number*column_number]);
+        int cell;
         for(int i = 0; i < line_number; i++){
+            cell = i*column_number;
             if(i != line_number-1){
                 //input values
                 for(int j = 0; j < max_var_index-1; j++){
-                    dna[i][j][0] = (double)j;
-                    dna[i][j][1] = (double)Tools.randomInt(-1, max_term_index-1);
+                    vars[cell+j] = (short)j;
+                    terms[cell+j] = (byte)random.randomInt(-1, max_term_index-1);
                 }
                 //output calues
                 for(int j = max_var_index-1; j < column_number; j++){
-                    dna[i][j][0] = (double)max_var_index-1;
-                    dna[i][j][1] = (double)Tools.randomInt(0, 1);
+                    vars[cell+j] = (short)(max_var_index-1);
+                    terms[cell+j] = (byte)random.randomInt(0, 1);
                 }
             }
             //default rule has don't care values everyehre
             else{
                 for(int j = 0; j < column_number-1; j++){
-                    dna[i][j][0] = -1.0;
-                    dna[i][j][1] = -1.0;
+                    vars[cell+j] = -1;
+                    terms[cell+j] = -1;
                 }
                 for(int j = max_var_index-1; j < column_number; j++){
-                    dna[i][j][0] = (double)max_var_index-1;
-                    dna[i][j][1] = (double)Tools.randomInt(0, 1);
+                    vars[cell+j] = (short)(max_var_index-1);
+                    terms[cell+j] = (byte)random.randomInt(0, 1);
                 }
             }
         }
     }/*end makeRandom*/
     
+    /**
+     * Name: copy
+     * Goal: copies the gene. The copy has its own DNA
+     * @return Gene: the copy
+     */
+    Gene copy(){
+        RuleGene copy = new RuleGene(max_var_index, max_term_index, max_class_index);
+        copy.setRules(line_count, column_count, vars.clone(), terms.clone());
+        copy.setFitness(fitness);
+        copy.delta_state = delta_state;
+        return copy;
+    }/*end copy*/
+    
+    /**
+     * Name: copyInto
+     * Goal: copies the gene into another one, reusing its DNA storage
+     * @param target: the gene receiving the DNA and the fitness
+     */
+    void copyInto(Gene target){
+        RuleGene copy = (RuleGene)target;
+        copy.reshape(line_count, column_count);
+        System.arraycopy(vars, 0, copy.vars, 0, vars.length);
+        System.arraycopy(terms, 0, copy.terms, 0, terms.length);
+        copy.setFitness(fitness);
+        copy.delta_state = delta_state;
+    }/*end copyInto*/
+    
+    /**
+     * Name: writeState
+     * Goal: writes the fitness, the size and the cells of the DNA
+     * @param out: the output to write into
+     * @throws IOException: if the output cannot be written
+     */
+    void writeState(DataOutput out) throws IOException{
+        out.writeDouble(fitness);
+        out.writeInt(line_count);
+        out.writeInt(column_count);
+        for(int i = 0; i < vars.length; i++){
+            out.writeShort(vars[i]);
+            out.writeByte(terms[i]);
+        }
+    }/*end writeState*/
+    
+    /**
+     * Name: readState
+     * Goal: replaces the fitness and the DNA by the ones saved by writeState
+     * @param in: the input to read from
+     * @throws IOException: if the input cannot be read
+     */
+    void readState(DataInput in) throws IOException{
+        double saved_fitness = in.readDouble();
+        int lines = in.readInt();
+        int columns = in.readInt();
+        if(lines != line_count || columns != column_count)
+            throw new IOException("Rule gene of "+lines+"x"+columns+" cells, "+line_count+"x"+column_count+" expected");
+        short[] saved_vars = new short[lines*columns];
+        byte[] saved_terms = new byte[lines*columns];
+        for(int i = 0; i < saved_vars.length; i++){
+            saved_vars[i] = in.readShort();
+            saved_terms[i] = in.readByte();
+        }
+        setRules(lines, columns, saved_vars, saved_terms);
+        setFitness(saved_fitness);
+        delta_state = null;
+    }/*end readState*/
+    
+    /**
+     * Name: setRules
+     * Goal: replaces the DNA of the gene
+     * @param line_count: number of rules
+     * @param column_count: number of terms per rule
+     * @param vars: variable index of each cell, line by line
+     * @param terms: term index of each cell, line by line
+     */
+    void setRules(int line_count, int column_count, short[] vars, byte[] terms){
+        this.line_count = line_count;
+        this.column_count = column_count;
+        this.vars = vars;
+        this.terms = terms;
+    }/*end setRules*/
+    
+    /**
+     * Name: reshape
+     * Goal: gives the DNA the given size. Its storage is only allocated again
+     *       if the number of cells changes
+     * @param line_count: number of rules
+     * @param column_count: number of terms per rule
+     */
+    private void reshape(int line_count, int column_count){
+        if(vars == null || vars.length != line_count*column_count){
+            vars = new short[line_count*column_count];
+            terms = new byte[line_count*column_count];
+        }
+        this.line_count = line_count;
+        this.column_count = column_count;
+    }/*end reshape*/
+    
+    /**
+     * Name: getVar
+     * @param line: the rule
+     * @param column: the rule term
+     * @return int: the variable index of the term, -1 if not used
+     */
+    public int getVar(int line, int column){
+        return vars[line*column_count+column];
+    }/*end getVar*/
+    
+    /**
+     * Name: getTerm
+     * @param line: the rule
+     * @param column: the rule term
+     * @return int: the term index of the term, -1 for "don't care"
+     */
+    public int getTerm(int line, int column){
+        return terms[line*column_count+column];
+    }/*end getTerm*/
+    
+    /**
+     * Name: getVars
+     * @return short[]: the variable indexes, line by line. Must not be modified
+     */
+    public short[] getVars(){
+        return vars;
+    }/*end getVars*/
+    
+    /**
+     * Name: getTerms
+     * @return byte[]: the term indexes, line by line. Must not be modified
+     */
+    public byte[] getTerms(){
+        return terms;
+    }/*end getTerms*/
+    
+    DeltaEvaluator.RuleState getDeltaState(){
+        return delta_state;
+    }/*end getDeltaState*/
+    
+    void setDeltaState(DeltaEvaluator.RuleState delta_state){
+        this.delta_state = delta_state;
+    }/*end setDeltaState*/
+    
+    String cellToString(int line, int column){
+        return (double)getVar(line, column)+", "+(double)getTerm(line, column)+", ";
+    }/*end cellToString*/
+
 }/*end RuleGene*/
@@ -0,0 +1,273 @@
+/**
+ * Name: SuccessiveHalving
+ * Goal: compares several coevolutions (candidates, usually the same data with
+ *       different parameters) without giving each the full number of
+ *       generations. Candidates are evolved concurrently by rungs:
+ *      - at the first rung, each candidate runs min_generations generations
+ *      - the fittest candidates are kept, one out of reduction, and the others
+ *        are stopped
+ *      - the kept candidates run until they reach reduction times more
+ *        generations, and so on
+ *       Once a single candidate is left, it runs until its evolution is over.
+ *       Candidates are ranked by the score of the best system they found so
+ *       far: its classification rate plus 2^-RMSE on the training rows. The
+ *       fitness of each candidate depends on its own weights and error
+ *       metric, which are often what the sweep compares, so it only drives
+ *       the evolution of the candidate, never the ranking.
+ * Methods:
+ *      - run: evolves the candidates and returns the index of the best one
+ *      - cancel: stops all candidates after their current generation
+ *      - getScore, getFitness, getGenerationsRun, getRungs, getBestSystem:
+ *        results of each candidate
+ *      - getBestCandidate: the index of the best candidate, once run
+ * Usage: candidates should share a TrainingSnapshot. Each candidate breeds
+ *        and evaluates on the thread running it, so its number of evaluation
+ *        threads is not used. A candidate over before the end of a rung (last
+ *        generation, stop condition) keeps competing with its best system.
+ * @see Coevolution
+ * @see TrainingSnapshot
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.ColumnarData;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystem;
+import org.cheminfo.scripting.JFuge.JFuge;
+
+public class SuccessiveHalving {
+    
+    //the candidates
+    private Coevolution[] candidates;
+    
+    //number of generations of the first rung
+    private int min_generations;
+    
+    //one candidate out of reduction is kept at each rung
+    private int reduction;
+    
+    //number of rungs each candidate took part in
+    private int[] rungs;
+    
+    //indicates which candidates are over
+    private boolean[] over;
+    
+    //index of the best candidate, -1 until run
+    private int best = -1;
+    
+    //rows every candidate is scored on
+    private ColumnarData rows;
+    
+    //objective shared by all candidates: classification rate plus 2^-RMSE
+    private FitnessKernel reference = new FitnessKernel(JFuge.ERROR_RMSE, 1, 1);
+    
+    //last system scored for each candidate, and its score
+    private FuzzySystem[] scored;
+    
+    private double[] scores;
+    
+    /**
+     * Name: SuccessiveHalving
+     * Goal: creates a sweep of the given candidates
+     * @param candidates: the coevolutions to compare, at least one
+     * @param snapshot: the training data shared by the candidates, on which
+     *                  their best systems are scored
+     * @param min_generations: the number of generations of the first rung. At
+     *                         least 1
+     * @param reduction: one candidate out of reduction is kept at each rung,
+     *                   and the next rung runs reduction times more
+     *                   generations. At least 2
+     */
+    public SuccessiveHalving(Coevolution[] candidates, TrainingSnapshot snapshot, int min_generations, int reduction){
+        if(candidates.length == 0)
+            throw new IllegalArgumentException("At least one candidate is needed");
+        this.candidates = candidates;
+        this.min_generations = Math.max(1, min_generations);
+        this.reduction = Math.max(2, reduction);
+        this.rungs = new int[candidates.length];
+        this.over = new boolean[candidates.length];
+        this.rows = snapshot.getColumns();
+        this.scored = new FuzzySystem[candidates.length];
+        this.scores = new double[candidates.length];
+    }/*end SuccessiveHalving*/
+    
+    /**
+     * Name: run
+     * Goal: evolves the candidates rung by rung, until the remaining
+     *       candidates are over
+     * @param threads: the number of candidates evolved at once
+     * @return int: the index of the best candidate
+     */
+    public int run(int threads){
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, candidates.length)));
+        ArrayList<Integer> survivors = new ArrayList<Integer>(candidates.length);
+        for(int i = 0; i < candidates.length; i++)
+            survivors.add(i);
+        try{
+            for(Coevolution candidate : candidates)
+                candidate.startEvolution();
+            int budget = min_generations;
+            while(true){
+                //evolve the survivors until the end of the rung
+                LinkedList<Future<Boolean>> steps = new LinkedList<Future<Boolean>>();
+                for(int i : survivors){
+                    rungs[i]++;
+                    steps.add(over[i]?null:pool.submit(rung(candidates[i], budget)));
+                }
+                int k = 0;
+                boolean running = false;
+                for(Future<Boolean> step : steps){
+                    int i = survivors.get(k++);
+                    if(step != null)
+                        over[i] = Coevolution.join(step);
+                    running |= !over[i];
+                }
+                if(!running)
+                    break;
+                //keep the fittest survivors
+                if(survivors.size() > 1){
+                    Collections.sort(survivors, new Comparator<Integer>(){
+                        public int compare(Integer o1, Integer o2){
+                            return Double.compare(getScore(o2), getScore(o1));
+                        }
+                    });
+                    int kept = Math.max(1, survivors.size()/reduction);
+                    survivors = new ArrayList<Integer>(survivors.subList(0, kept));
+                }
+                //the last candidate runs until its evolution is over
+                budget = survivors.size()==1?Integer.MAX_VALUE:(int)Math.min(Integer.MAX_VALUE, (long)budget*reduction);
+            }
+        }
+        finally{
+            pool.shutdown();
+        }
+        best = bestOf(survivors);
+        return best;
+    }/*end run*/
+    
+    /**
+     * Name: rung
+     * Goal: creates the task evolving a candidate until the end of a rung
+     * @param candidate: the candidate to evolve
+     * @param budget: the number of generations the candidate reaches at the
+     *                end of the rung
+     * @return Callable<Boolean>: the task. Its result is true once the
+     *                            candidate is over
+     */
+    private Callable<Boolean> rung(final Coevolution candidate, final int budget){
+        return new Callable<Boolean>(){
+            public Boolean call(){
+                while(!candidate.isOver() && candidate.getGenerationsRun() < budget)
+                    if(candidate.evolveGeneration(null))
+                        return true;
+                return candidate.isOver();
+            }
+        };
+    }/*end rung*/
+    
+    /**
+     * Name: bestOf
+     * Goal: chooses the candidate whose best system has the best score, the
+     *       first one on ties
+     * @param survivors: the candidates to choose from
+     * @return int: the index of the best candidate
+     */
+    private int bestOf(ArrayList<Integer> survivors){
+        int best = survivors.get(0);
+        for(int i : survivors)
+            if(getScore(i) > getScore(best) || (getScore(i) == getScore(best) && i < best))
+                best = i;
+        return best;
+    }/*end bestOf*/
+    
+    /**
+     * Name: cancel
+     * Goal: stops all candidates after their current generation. run then
+     *       returns the best candidate so far. May be called from any thread
+     */
+    public void cancel(){
+        for(Coevolution candidate : candidates)
+            candidate.cancel();
+    }/*end cancel*/
+    
+    /**
+     * Name: getScore
+     * Goal: scores the best system of a candidate so far on the training
+     *       rows, with the objective shared by all candidates. A system is
+     *       only scored once
+     * @param candidate: the index of the candidate
+     * @return double: the classification rate plus 2^-RMSE of the best system
+     *                 of the candidate, negative infinity if it has not run yet
+     */
+    public synchronized double getScore(int candidate){
+        FuzzySystem system = candidates[candidate].getBestSoFar();
+        if(system == null)
+            return Double.NEGATIVE_INFINITY;
+        if(system != scored[candidate]){
+            scores[candidate] = reference.score(system.distributionForRows(rows), rows);
+            scored[candidate] = system;
+        }
+        return scores[candidate];
+    }/*end getScore*/
+    
+    /**
+     * Name: getFitness
+     * @param candidate: the index of the candidate
+     * @return double: the fitness of the best system of the candidate so far,
+     *                 with its own weights, negative infinity if it has not
+     *                 run yet. Fitnesses of candidates with different weights
+     *                 are not comparable, see getScore
+     */
+    public double getFitness(int candidate){
+        FuzzySystem best = candidates[candidate].getBestSoFar();
+        return best==null?Double.NEGATIVE_INFINITY:best.getFitness();
+    }/*end getFitness*/
+    
+    /**
+     * Name: getBestSystem
+     * @param candidate: the index of the candidate
+     * @return FuzzySystem: the best system of the candidate so far, null if
+     *                      it has not run yet
+     */
+    public FuzzySystem getBestSystem(int candidate){
+        return candidates[candidate].getBestSoFar();
+    }/*end getBestSystem*/
+    
+    /**
+     * Name: getGenerationsRun
+     * @param candidate: the index of the candidate
+     * @return int: the number of generations the candidate ran
+     */
+    public int getGenerationsRun(int candidate){
+        return candidates[candidate].getGenerationsRun();
+    }/*end getGenerationsRun*/
+    
+    /**
+     * Name: getRungs
+     * @param candidate: the index of the candidate
+     * @return int: the number of rungs the candidate took part in
+     */
+    public int getRungs(int candidate){
+        return rungs[candidate];
+    }/*end getRungs*/
+    
+    /**
+     * Name: getBestCandidate
+     * @return int: the index of the best candidate, -1 if run was not called
+     */
+    public int getBestCandidate(){
+        return best;
+    }/*end getBestCandidate*/
+    
+    public int getCandidateCount(){
+        return candidates.length;
+    }/*end getCandidateCount*/
+
+}/*end SuccessiveHalving*/
@@ -0,0 +1,70 @@
+/**
+ * Name: SystemEvaluator
+ * Goal: evaluates a slice of the individuals of a generation. Each (MF gene,
+ *       rule gene) pair of the slice is scored straight from its genes, and
+ *       its fitness is written back into both genes.
+ *       Implementing Callable allows the coevolution to run several slices
+ *       concurrently in its evaluation pool
+ * Methods:
+ *      - call: evaluates the individuals of the slice
+ * @see Coevolution
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.util.concurrent.Callable;
+
+
+public class SystemEvaluator implements Callable<Integer>{
+
+    //the coevolution computing the fitness
+    private Coevolution ce;
+
+    //membership function genes of the generation
+    private Gene[] mf_genes;
+
+    //rule genes of the generation
+    private Gene[] rule_genes;
+
+    //fitness of each individual, indexed as the genes
+    private double[] fitnesses;
+
+    //first individual of the slice
+    private int from;
+
+    //last individual of the slice (excluded)
+    private int to;
+
+    /**
+     * Name: SystemEvaluator
+     * Goal: creates the evaluation of the individuals from..to-1. Fitnesses are
+     *       written into the given array at the index of the individual
+     * @param ce: the coevolution computing the fitness
+     * @param mf_genes: the MF genes of the generation
+     * @param rule_genes: the rule genes of the generation
+     * @param fitnesses: receives the fitness of each individual
+     * @param from: first individual to evaluate
+     * @param to: last individual to evaluate (excluded)
+     */
+    public SystemEvaluator(Coevolution ce, Gene[] mf_genes, Gene[] rule_genes, double[] fitnesses, int from, int to){
+        this.ce = ce;
+        this.mf_genes = mf_genes;
+        this.rule_genes = rule_genes;
+        this.fitnesses = fitnesses;
+        this.from = from;
+        this.to = to;
+    }/*end SystemEvaluator*/
+
+    /**
+     * Name: call
+     * Goal: evaluates each individual of the slice. Every individual only
+     *       writes into its own cells, so slices never interfere
+     * @return Integer: the number of evaluated individuals
+     */
+    public Integer call(){
+        for(int j = from; j < to; j++)
+            fitnesses[j] = ce.evaluate((MFGene)mf_genes[j], (RuleGene)rule_genes[j]);
+        return to-from;
+    }/*end call*/
+
+}/*end SystemEvaluator*/
@@ -0,0 +1,85 @@
+/**
+ * Name: TrainingSnapshot
+ * Goal: training data prepared once for any number of coevolutions:
+ *      - the Weka dataset, used to name the variables of the evolved systems
+ *      - its columnar snapshot, read by fitness computation
+ *      - the minimum and maximum value each membership function may take
+ * Usage: everything is computed when the snapshot is created, and never
+ *        modified, so coevolutions running at once (islands, candidates of a
+ *        sweep) may share it instead of preparing the data each.
+ * @see Coevolution
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import org.cheminfo.scripting.JFuge.FuzzyLogic.ColumnarData;
+import weka.core.Instances;
+
+public class TrainingSnapshot {
+    
+    //the training dataset
+    private final Instances data;
+    
+    //columnar snapshot of the dataset
+    private final ColumnarData columns;
+    
+    //min and max value of each input variable, then [0, 1] for each output
+    //variable but the first
+    private final double[][] min_max;
+    
+    /**
+     * Name: TrainingSnapshot
+     * Goal: prepares the training data
+     * @param data: the training dataset. Its class index must be set
+     */
+    public TrainingSnapshot(Instances data){
+        this.data = data;
+        this.columns = new ColumnarData(data);
+        this.min_max = findMinMax(columns);
+    }/*end TrainingSnapshot*/
+    
+    /**
+     * Name: findMinMax
+     * Goal: looks into data to find minimum and maximum values MFs may take.
+     * @param data1: the data in which to look
+     * @return double[]: first result is min, second is max
+     */
+    private static double[][] findMinMax(ColumnarData data1){
+        double[][] result = new double[data1.numAttributes()+data1.numClasses()-1][2];
+        result[0][0] = data1.value(0, 0);
+        result[0][1] = data1.value(0, 0);
+        double[] column;
+        int num_attributes = data1.numAttributes();
+        for(int j = 0; j < num_attributes-1; j++){
+            column = data1.getColumn(j);
+            for(int i = 0; i < data1.numRows(); i++){
+                if(column[i] < result[j][0])
+                    result[j][0] = column[i];
+                if(column[i] > result[j][1])
+                    result[j][1] = column[i];
+            }
+        }
+        for(int i = data1.numAttributes()-1; i < result.length;i++){
+            result[i][0] = 0;
+            result[i][1] = 1;
+        }
+        return result;
+    }/*end findMinMax*/
+    
+    public Instances getData(){
+        return data;
+    }/*end getData*/
+    
+    public ColumnarData getColumns(){
+        return columns;
+    }/*end getColumns*/
+    
+    /**
+     * Name: getMinMax
+     * @return double[][]: the range of each variable. Must not be modified
+     */
+    double[][] getMinMax(){
+        return min_max;
+    }/*end getMinMax*/
+
+}/*end TrainingSnapshot*/
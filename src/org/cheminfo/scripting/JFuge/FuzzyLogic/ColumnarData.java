@@ -0,0 +1,197 @@
+/**
+ * Name: ColumnarData
+ * Goal: read-only snapshot of a Weka dataset, stored by column. Fitness and
+ *       inference scan it sequentially instead of going through the Instance
+ *       objects of the dataset. It contains:
+ *      - the value of each attribute for each row, column by column
+ *      - the class label of each row (-1 if missing)
+ *      - the expected output of each row for each class (1 for the class of
+ *        the row, 0 for the others)
+ * Usage: the snapshot is taken once, when created. Later changes to the
+ *        dataset are not seen. A snapshot may be shared by several threads.
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.FuzzyLogic;
+
+import java.util.Arrays;
+import weka.core.Instance;
+import weka.core.Instances;
+
+public class ColumnarData {
+    
+    //value of each attribute for each row: columns[attribute][row]
+    private double[][] columns;
+    
+    //class label of each row, -1 if missing
+    private int[] class_labels;
+    
+    //expected output of each row for each class: targets[row][class]
+    private double[][] targets;
+    
+    //number of rows
+    private int num_rows;
+    
+    //number of attributes, class included
+    private int num_attributes;
+    
+    //number of classes
+    private int num_classes;
+    
+    //values of each attribute, sorted. Built on first use, null until then
+    private volatile double[][] sorted_columns;
+    
+    /**
+     * Name: ColumnarData
+     * Goal: takes a snapshot of the given dataset
+     * @param data: the dataset. Its class index must be set
+     */
+    public ColumnarData(Instances data){
+        num_rows = data.numInstances();
+        num_attributes = data.numAttributes();
+        num_classes = data.classAttribute().numValues();
+        columns = new double[num_attributes][num_rows];
+        class_labels = new int[num_rows];
+        targets = new double[num_rows][num_classes];
+        Instance current;
+        double class_value;
+        for(int i = 0; i < num_rows; i++){
+            current = data.instance(i);
+            for(int j = 0; j < num_attributes; j++)
+                columns[j][i] = current.value(j);
+            class_value = current.classValue();
+            //missing class: no class is expected
+            class_labels[i] = Double.isNaN(class_value)?-1:(int)class_value;
+            if(class_labels[i] >= 0 && class_labels[i] < num_classes)
+                targets[i][class_labels[i]] = 1;
+        }
+    }/*end ColumnarData*/
+    
+    /**
+     * Name: ColumnarData
+     * Goal: takes a snapshot of some rows of another snapshot, used to
+     *       evaluate on a sample of a large dataset
+     * @param data: the snapshot containing the rows
+     * @param rows: the indexes of the rows to keep, in the order they are kept
+     */
+    public ColumnarData(ColumnarData data, int[] rows){
+        num_rows = rows.length;
+        num_attributes = data.num_attributes;
+        num_classes = data.num_classes;
+        columns = new double[num_attributes][num_rows];
+        class_labels = new int[num_rows];
+        targets = new double[num_rows][];
+        for(int i = 0; i < num_rows; i++){
+            for(int j = 0; j < num_attributes; j++)
+                columns[j][i] = data.columns[j][rows[i]];
+            class_labels[i] = data.class_labels[rows[i]];
+            targets[i] = data.targets[rows[i]];
+        }
+    }/*end ColumnarData*/
+    
+    /**
+     * Name: ColumnarData
+     * Goal: rebuilds a snapshot from its columns and class labels, as sent to
+     *       another JVM. The expected outputs are derived from the labels
+     * @param columns: the value of each attribute for each row: columns[attribute][row].
+     *                 Kept, not copied
+     * @param class_labels: the class label of each row, -1 if missing. Kept, not copied
+     * @param num_classes: the number of classes
+     */
+    public ColumnarData(double[][] columns, int[] class_labels, int num_classes){
+        this.columns = columns;
+        this.class_labels = class_labels;
+        this.num_classes = num_classes;
+        num_rows = class_labels.length;
+        num_attributes = columns.length;
+        targets = new double[num_rows][num_classes];
+        for(int i = 0; i < num_rows; i++)
+            if(class_labels[i] >= 0 && class_labels[i] < num_classes)
+                targets[i][class_labels[i]] = 1;
+    }/*end ColumnarData*/
+    
+    /**
+     * Name: value
+     * @param attribute: the attribute index
+     * @param row: the row index
+     * @return double: the value of the attribute for the row
+     */
+    public double value(int attribute, int row){
+        return columns[attribute][row];
+    }/*end value*/
+    
+    /**
+     * Name: getColumn
+     * @param attribute: the attribute index
+     * @return double[]: the values of the attribute for each row. Must not be modified
+     */
+    public double[] getColumn(int attribute){
+        return columns[attribute];
+    }/*end getColumn*/
+    
+    /**
+     * Name: getSortedColumn
+     * Goal: returns the values of an attribute sorted in ascending order,
+     *       missing values last. All columns are sorted on first call, then kept
+     * @param attribute: the attribute index
+     * @return double[]: the sorted values. Must not be modified
+     */
+    public double[] getSortedColumn(int attribute){
+        double[][] sorted = sorted_columns;
+        if(sorted == null){
+            synchronized(this){
+                sorted = sorted_columns;
+                if(sorted == null){
+                    sorted = new double[num_attributes][];
+                    for(int j = 0; j < num_attributes; j++){
+                        sorted[j] = columns[j].clone();
+                        Arrays.sort(sorted[j]);
+                    }
+                    sorted_columns = sorted;
+                }
+            }
+        }
+        return sorted[attribute];
+    }/*end getSortedColumn*/
+    
+    /**
+     * Name: getClassLabels
+     * @return int[]: the class label of each row, -1 if missing. Must not be modified
+     */
+    public int[] getClassLabels(){
+        return class_labels;
+    }/*end getClassLabels*/
+    
+    /**
+     * Name: getTargets
+     * @return double[][]: the expected output of each row for each class.
+     *                     Must not be modified
+     */
+    public double[][] getTargets(){
+        return targets;
+    }/*end getTargets*/
+    
+    /**
+     * Name: numRows
+     * @return int: the number of rows
+     */
+    public int numRows(){
+        return num_rows;
+    }/*end numRows*/
+    
+    /**
+     * Name: numAttributes
+     * @return int: the number of attributes, class included
+     */
+    public int numAttributes(){
+        return num_attributes;
+    }/*end numAttributes*/
+    
+    /**
+     * Name: numClasses
+     * @return int: the number of classes
+     */
+    public int numClasses(){
+        return num_classes;
+    }/*end numClasses*/
+
+}/*end ColumnarData*/
@@ -0,0 +1,579 @@
+/**
+ * Name: CompiledFuzzySystem
+ * Goal: flat, read-only form of an evolved fuzzy system, used for fast
+ *       inference. Variables, rules and consequents are stored in primitive
+ *       arrays instead of lists of objects:
+ *      - zero points of all input variables, one after the other
+ *      - the (variable, term) pair of each antecedent, one rule after the other
+ *      - the singleton (zero point of the consequent term) of each rule and class
+ *       Inference computes the same distributions as FuzzySystem, with the
+ *       singleton defuzzyfication, but does not allocate anything: the
+ *       intermediate values are kept in a scratch buffer reused by each thread.
+ *       The membership vector of each input variable used by the rules is
+ *       computed once per instance and shared by all rules using it.
+ *       In sparse mode, AND rules are indexed by the term of their most
+ *       selective antecedent (the one most often zero). A value has a nonzero
+ *       membership to at most two adjacent terms of a variable, so each
+ *       instance only visits the rules indexed by those terms; the other
+ *       antecedents of a visited rule are read most selective first, and
+ *       reading stops at the first zero, since the minimum is then 0. The
+ *       other rules are known to have a zero activation without being read.
+ *       Distributions are identical to the dense mode.
+ * Methods:
+ *      - distributionForInstance: computes the probability of membership for
+ *        each class, in a given array or in a new one
+ *      - distributionForRow: same, for a row of a columnar snapshot
+ * Usage: obtained from FuzzySystem.compile(), in the mode chosen with
+ *        FuzzySystem.setSparseInference, or built straight from the genes of
+ *        an individual by GeneTranslator.geneToCompiled. The compiled form is
+ *        a snapshot: later changes to the variables or rules of the system
+ *        are not seen.
+ *        A compiled system may be shared by several threads.
+ * @see FuzzySystem
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.FuzzyLogic;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import weka.core.Instance;
+
+public class CompiledFuzzySystem {
+
+    //scratch buffer of the current thread, shared by all compiled systems
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>(){
+        @Override
+        protected Scratch initialValue(){
+            return new Scratch();
+        }
+    };
+
+    //number of input variables
+    private int var_count;
+
+    //attribute index of each input variable in the Weka instances
+    private int[] attribute_index;
+
+    //zero points of all input variables. variable v uses zp_offset[v]..zp_offset[v+1]-1
+    //the membership of variable v to term t is at index zp_offset[v]+t
+    private double[] zero_points;
+
+    private int[] zp_offset;
+
+    //input variables used by at least one rule
+    private int[] used_vars;
+
+    //number of rules. The last rule is the default rule
+    private int rule_count;
+
+    //antecedents of all rules. rule r uses ante_offset[r]..ante_offset[r+1]-1
+    private int[] ante_offset;
+
+    //input variable of each antecedent
+    private int[] ante_var;
+
+    //expected term of each antecedent
+    private int[] ante_term;
+
+    //indicates, for each rule, if antecedents are linked by AND (min) or OR (max)
+    private boolean[] is_and;
+
+    //indicates, for each rule, if it has antecedents
+    private boolean[] has_antecedents;
+
+    //number of output classes
+    private int class_count;
+
+    //singleton of each rule for each class, at index rule*class_count+class
+    private double[] singletons;
+
+    //sparse mode, null in dense mode: AND rules indexed by the membership of
+    //their first antecedent. The rules of membership m are
+    //slot_rules[slot_offset[m]..slot_offset[m+1]-1]
+    private int[] slot_offset;
+
+    private int[] slot_rules;
+
+    //in sparse mode, rules read for every instance: OR rules with antecedents
+    private int[] dense_rules;
+
+    /**
+     * Name: CompiledFuzzySystem
+     * Goal: compiles the given system, in dense mode
+     * @param system: the system to compile. Must use singleton defuzzyfication
+     */
+    public CompiledFuzzySystem(FuzzySystem system){
+        this(system, false, null);
+    }/*end CompiledFuzzySystem*/
+
+    /**
+     * Name: CompiledFuzzySystem
+     * Goal: compiles the given system, in dense or sparse mode
+     * @param system: the system to compile. Must use singleton defuzzyfication
+     * @param sparse: true to index the AND rules by term, false to read every rule
+     * @param observed: in sparse mode, rows on which the selectivity of each
+     *                  term is measured. null keeps the antecedents in the
+     *                  order of the rules
+     */
+    public CompiledFuzzySystem(FuzzySystem system, boolean sparse, ColumnarData observed){
+        LinkedList<Variable> in_vars = system.getInVars();
+        LinkedList<Rule> rules = system.getRules();
+
+        //input variables
+        var_count = in_vars.size();
+        attribute_index = new int[var_count];
+        zp_offset = new int[var_count+1];
+        Variable[] vars = in_vars.toArray(new Variable[var_count]);
+        for(int v = 0; v < var_count; v++){
+            attribute_index[v] = vars[v].getAttributeIndex();
+            zp_offset[v+1] = zp_offset[v]+vars[v].getMf().getZeroPoints().length;
+        }
+        zero_points = new double[zp_offset[var_count]];
+        for(int v = 0; v < var_count; v++){
+            double[] zp = vars[v].getMf().getZeroPoints();
+            System.arraycopy(zp, 0, zero_points, zp_offset[v], zp.length);
+        }
+
+        //rules
+        rule_count = rules.size();
+        class_count = system.getOutVar().size();
+        ante_offset = new int[rule_count+1];
+        is_and = new boolean[rule_count];
+        has_antecedents = new boolean[rule_count];
+        singletons = new double[rule_count*class_count];
+        int r = 0;
+        for(Rule rule : rules){
+            int size = rule.getAntecedents()==null?0:rule.getAntecedents().size();
+            ante_offset[r+1] = ante_offset[r]+size;
+            is_and[r] = Rule.AND.equals(rule.getConnector());
+            has_antecedents[r] = rule.getAntecedents() != null;
+            int c = 0;
+            for(RuleTerm cons : rule.getConsequent())
+                singletons[r*class_count+c++] = cons.getVar().getMf().getZeroPoints()[cons.getTermIndex()];
+            r++;
+        }
+        ante_var = new int[ante_offset[rule_count]];
+        ante_term = new int[ante_offset[rule_count]];
+        int a = 0;
+        for(Rule rule : rules){
+            if(rule.getAntecedents() == null)
+                continue;
+            for(RuleTerm term : rule.getAntecedents()){
+                ante_var[a] = indexOf(vars, term.getVar());
+                ante_term[a] = term.getTermIndex();
+                a++;
+            }
+        }
+        findUsedVars();
+        if(sparse)
+            buildIndex(observed);
+    }/*end CompiledFuzzySystem*/
+
+    /**
+     * Name: CompiledFuzzySystem
+     * Goal: creates a compiled system straight from its flat arrays, without
+     *       building the variables and rules of a fuzzy system first. All
+     *       rules link their antecedents by AND, and the last rule is the
+     *       default rule. The arrays are kept, not copied
+     * @param zero_points: the zero points of all input variables, one after
+     *                     the other. The points of each variable are sorted
+     * @param zp_offset: variable v uses zp_offset[v]..zp_offset[v+1]-1. One
+     *                   more cell than input variables
+     * @param attribute_index: the attribute index of each input variable
+     * @param ante_offset: rule r uses the antecedents
+     *                     ante_offset[r]..ante_offset[r+1]-1. One more cell
+     *                     than rules
+     * @param ante_var: the input variable of each antecedent
+     * @param ante_term: the expected term of each antecedent
+     * @param singletons: the singleton of each rule for each class, at index
+     *                    rule*class_count+class
+     * @param class_count: the number of output classes
+     * @param sparse: true to index the rules by term, false to read every rule
+     * @param observed: in sparse mode, rows on which the selectivity of each
+     *                  term is measured. null keeps the antecedents in order
+     */
+    public CompiledFuzzySystem(double[] zero_points, int[] zp_offset, int[] attribute_index,
+                               int[] ante_offset, int[] ante_var, int[] ante_term,
+                               double[] singletons, int class_count, boolean sparse, ColumnarData observed){
+        this.zero_points = zero_points;
+        this.zp_offset = zp_offset;
+        this.attribute_index = attribute_index;
+        this.var_count = attribute_index.length;
+        this.ante_offset = ante_offset;
+        this.ante_var = ante_var;
+        this.ante_term = ante_term;
+        this.singletons = singletons;
+        this.class_count = class_count;
+        rule_count = ante_offset.length-1;
+        is_and = new boolean[rule_count];
+        has_antecedents = new boolean[rule_count];
+        for(int r = 0; r < rule_count; r++){
+            is_and[r] = true;
+            has_antecedents[r] = ante_offset[r+1] > ante_offset[r];
+        }
+        findUsedVars();
+        if(sparse)
+            buildIndex(observed);
+    }/*end CompiledFuzzySystem*/
+
+    /**
+     * Name: findUsedVars
+     * Goal: lists the input variables read by at least one antecedent, in
+     *       the order of the variables
+     */
+    private void findUsedVars(){
+        boolean[] is_used = new boolean[var_count];
+        int used_count = 0;
+        for(int var : ante_var){
+            if(!is_used[var]){
+                is_used[var] = true;
+                used_count++;
+            }
+        }
+        used_vars = new int[used_count];
+        used_count = 0;
+        for(int v = 0; v < var_count; v++)
+            if(is_used[v])
+                used_vars[used_count++] = v;
+    }/*end findUsedVars*/
+
+    /**
+     * Name: buildIndex
+     * Goal: sorts the antecedents of each AND rule by selectivity, most
+     *       selective first, and indexes each AND rule by the membership of
+     *       its first antecedent. The minimum does not depend on the order of
+     *       the antecedents, so activations are unchanged
+     * @param observed: rows on which selectivity is measured, null if none
+     */
+    private void buildIndex(ColumnarData observed){
+        double[] selectivity = new double[zero_points.length];
+        if(observed != null)
+            for(int v : used_vars)
+                measureSelectivity(v, observed.getSortedColumn(attribute_index[v]), selectivity);
+        slot_offset = new int[zero_points.length+1];
+        int dense_count = 0;
+        for(int r = 0; r < rule_count; r++){
+            int first = ante_offset[r];
+            int last = ante_offset[r+1];
+            if(first == last || !has_antecedents[r])
+                continue;
+            if(!is_and[r]){
+                dense_count++;
+                continue;
+            }
+            //insertion sort, fraction of nonzero memberships ascending
+            for(int a = first+1; a < last; a++){
+                int var = ante_var[a];
+                int term = ante_term[a];
+                double key = selectivity[zp_offset[var]+term];
+                int b = a-1;
+                for(; b >= first && selectivity[zp_offset[ante_var[b]]+ante_term[b]] > key; b--){
+                    ante_var[b+1] = ante_var[b];
+                    ante_term[b+1] = ante_term[b];
+                }
+                ante_var[b+1] = var;
+                ante_term[b+1] = term;
+            }
+            slot_offset[zp_offset[ante_var[first]]+ante_term[first]+1]++;
+        }
+        for(int m = 0; m < zero_points.length; m++)
+            slot_offset[m+1] += slot_offset[m];
+        slot_rules = new int[slot_offset[zero_points.length]];
+        dense_rules = new int[dense_count];
+        int[] filled = slot_offset.clone();
+        dense_count = 0;
+        for(int r = 0; r < rule_count; r++){
+            if(ante_offset[r] == ante_offset[r+1] || !has_antecedents[r])
+                continue;
+            if(is_and[r])
+                slot_rules[filled[zp_offset[ante_var[ante_offset[r]]]+ante_term[ante_offset[r]]]++] = r;
+            else
+                dense_rules[dense_count++] = r;
+        }
+    }/*end buildIndex*/
+
+    /**
+     * Name: measureSelectivity
+     * Goal: computes the fraction of rows having a nonzero membership to
+     *       each term of a variable. Term t is nonzero strictly between the
+     *       zero points of its neighbours, the first and last terms are
+     *       nonzero up to (from) the zero point of their neighbour
+     * @param var: the input variable
+     * @param sorted: the values of the variable, sorted (missing values last)
+     * @param selectivity: receives the fraction of each term
+     */
+    private void measureSelectivity(int var, double[] sorted, double[] selectivity){
+        int first = zp_offset[var];
+        int count = zp_offset[var+1]-first;
+        if(sorted.length == 0 || count < 2)
+            return;
+        for(int t = 0; t < count; t++){
+            int from = t==0?0:countAtMost(sorted, zero_points[first+t-1]);
+            int to = t==count-1?countBelow(sorted, Double.NaN):countBelow(sorted, zero_points[first+t+1]);
+            selectivity[first+t] = (double)Math.max(0, to-from)/sorted.length;
+        }
+    }/*end measureSelectivity*/
+
+    /**
+     * Name: countBelow
+     * @return int: the number of sorted values strictly lower than z. All
+     *              values but the missing ones if z is NaN
+     */
+    private static int countBelow(double[] sorted, double z){
+        int low = 0, high = sorted.length;
+        while(low < high){
+            int mid = (low+high)>>>1;
+            if(Double.isNaN(z)?!Double.isNaN(sorted[mid]):sorted[mid] < z)
+                low = mid+1;
+            else
+                high = mid;
+        }
+        return low;
+    }/*end countBelow*/
+
+    /**
+     * Name: countAtMost
+     * @return int: the number of sorted values lower than or equal to z
+     */
+    private static int countAtMost(double[] sorted, double z){
+        int low = 0, high = sorted.length;
+        while(low < high){
+            int mid = (low+high)>>>1;
+            if(sorted[mid] <= z)
+                low = mid+1;
+            else
+                high = mid;
+        }
+        return low;
+    }/*end countAtMost*/
+
+    /**
+     * Name: indexOf
+     * Goal: finds the position of a variable in the input variables
+     * @param vars: the input variables
+     * @param var: the variable to look for
+     * @return int: the position of the variable
+     */
+    private static int indexOf(Variable[] vars, Variable var){
+        for(int v = 0; v < vars.length; v++)
+            if(vars[v] == var)
+                return v;
+        throw new IllegalArgumentException("Rule term uses an unknown variable: "+var.getName());
+    }/*end indexOf*/
+
+    /**
+     * Name: distributionForInstance
+     * Goal: computes the probability of membership for each class
+     * @param inst: the instance to classify
+     * @return double[]: the probability of membership for each class
+     */
+    public double[] distributionForInstance(Instance inst){
+        double[] distribution = new double[class_count];
+        distributionForInstance(inst, distribution);
+        return distribution;
+    }/*end distributionForInstance*/
+
+    /**
+     * Name: distributionForInstance
+     * Goal: computes the probability of membership for each class, without
+     *       allocating anything
+     * @param inst: the instance to classify
+     * @param distribution: receives the probability of membership for each
+     *                      class. Length must be at least the number of classes
+     */
+    public void distributionForInstance(Instance inst, double[] distribution){
+        Scratch scratch = SCRATCH.get();
+        double[] memberships = scratch.memberships(zero_points.length);
+        for(int v : used_vars)
+            evalMemberships(v, inst.value(attribute_index[v]), memberships);
+        infer(memberships, scratch.activations(rule_count), distribution);
+    }/*end distributionForInstance*/
+
+    /**
+     * Name: distributionForRow
+     * Goal: computes the probability of membership for each class of a row of
+     *       a columnar snapshot, without allocating anything
+     * @param data: the snapshot
+     * @param row: the row to classify
+     * @param distribution: receives the probability of membership for each
+     *                      class. Length must be at least the number of classes
+     */
+    public void distributionForRow(ColumnarData data, int row, double[] distribution){
+        Scratch scratch = SCRATCH.get();
+        double[] memberships = scratch.memberships(zero_points.length);
+        for(int v : used_vars)
+            evalMemberships(v, data.value(attribute_index[v], row), memberships);
+        infer(memberships, scratch.activations(rule_count), distribution);
+    }/*end distributionForRow*/
+
+    /**
+     * Name: infer
+     * Goal: computes rule activations, the default rule activation and the
+     *       singleton defuzzyfication. Operations are made in the same order
+     *       as in FuzzySystem, so the results are identical
+     * @param memberships: the membership of each input variable to each term
+     * @param activations: receives the activation of each rule
+     * @param distribution: receives the probability of membership for each class
+     */
+    private void infer(double[] memberships, double[] activations, double[] distribution){
+        for(int c = 0; c < class_count; c++)
+            distribution[c] = 0;
+        if(rule_count == 0)
+            return;
+        //rule activations
+        if(slot_offset != null)
+            activateSparse(memberships, activations);
+        else
+            activateDense(memberships, activations);
+        //default rule
+        double max = activations[0];
+        for(int r = 0; r < rule_count-1; r++)
+            if(activations[r] > max)
+                max = activations[r];
+        activations[rule_count-1] = 1-max;
+        //singleton defuzzyfication
+        double mu_sum = 0;
+        for(int r = 0; r < rule_count; r++){
+            mu_sum += activations[r];
+            for(int c = 0; c < class_count; c++)
+                distribution[c] += activations[r]*singletons[r*class_count+c];
+        }
+        for(int c = 0; c < class_count; c++)
+            distribution[c] = mu_sum==0?0:distribution[c]/mu_sum;
+    }/*end infer*/
+
+    /**
+     * Name: activateDense
+     * Goal: computes the activation of each rule by reading all its antecedents
+     * @param memberships: the membership of each input variable to each term
+     * @param activations: receives the activation of each rule
+     */
+    private void activateDense(double[] memberships, double[] activations){
+        for(int r = 0; r < rule_count; r++){
+            if(!has_antecedents[r] || ante_offset[r] == ante_offset[r+1]){
+                activations[r] = 0;
+                continue;
+            }
+            int a = ante_offset[r];
+            double activation = memberships[zp_offset[ante_var[a]]+ante_term[a]];
+            for(a++; a < ante_offset[r+1]; a++){
+                double mu = memberships[zp_offset[ante_var[a]]+ante_term[a]];
+                if(is_and[r] ? mu < activation : mu > activation)
+                    activation = mu;
+            }
+            activations[r] = activation;
+        }
+    }/*end activateDense*/
+
+    /**
+     * Name: activateSparse
+     * Goal: computes the activation of each rule through the index. Only the
+     *       AND rules whose first antecedent is nonzero are read, until their
+     *       first zero antecedent. Memberships are never negative, so a zero
+     *       antecedent gives the same minimum as reading all of them
+     * @param memberships: the membership of each input variable to each term
+     * @param activations: receives the activation of each rule
+     */
+    private void activateSparse(double[] memberships, double[] activations){
+        Arrays.fill(activations, 0, rule_count, 0);
+        for(int v : used_vars){
+            for(int m = zp_offset[v]; m < zp_offset[v+1]; m++){
+                double pivot = memberships[m];
+                if(pivot == 0)
+                    continue;
+                for(int i = slot_offset[m]; i < slot_offset[m+1]; i++){
+                    int r = slot_rules[i];
+                    double activation = pivot;
+                    for(int a = ante_offset[r]+1; a < ante_offset[r+1] && activation != 0; a++){
+                        double mu = memberships[zp_offset[ante_var[a]]+ante_term[a]];
+                        if(mu < activation)
+                            activation = mu;
+                    }
+                    activations[r] = activation;
+                }
+            }
+        }
+        for(int r : dense_rules){
+            int a = ante_offset[r];
+            double activation = memberships[zp_offset[ante_var[a]]+ante_term[a]];
+            for(a++; a < ante_offset[r+1]; a++){
+                double mu = memberships[zp_offset[ante_var[a]]+ante_term[a]];
+                if(mu > activation)
+                    activation = mu;
+            }
+            activations[r] = activation;
+        }
+    }/*end activateSparse*/
+
+    /**
+     * Name: evalMemberships
+     * Goal: computes the membership of a value to each term of an input
+     *       variable, written into a given array. Missing values have no
+     *       membership to any term
+     * @see MembershipFunction.evalInto
+     * @param var: the input variable
+     * @param z: the value of the variable
+     * @param memberships: receives the memberships
+     */
+    private void evalMemberships(int var, double z, double[] memberships){
+        MembershipFunction.evalInto(zero_points, zp_offset[var], zp_offset[var+1]-zp_offset[var], z, memberships, zp_offset[var]);
+    }/*end evalMemberships*/
+
+    /**
+     * Name: isSparse
+     * @return boolean: true if the rules are read through the sparse index
+     */
+    public boolean isSparse(){
+        return slot_offset != null;
+    }/*end isSparse*/
+
+    /**
+     * Name: getRuleCount
+     * @return int: the number of rules, default rule included
+     */
+    public int getRuleCount(){
+        return rule_count;
+    }/*end getRuleCount*/
+
+    /**
+     * Name: getAntecedentCount
+     * @param rule: the rule
+     * @return int: the number of antecedents of the rule
+     */
+    public int getAntecedentCount(int rule){
+        return ante_offset[rule+1]-ante_offset[rule];
+    }/*end getAntecedentCount*/
+
+    /**
+     * Name: getClassCount
+     * @return int: the number of output classes
+     */
+    public int getClassCount() {
+        return class_count;
+    }/*end getClassCount*/
+
+    /**
+     * Name: Scratch
+     * Goal: intermediate values of an inference. One per thread, grown when a
+     *       larger system is evaluated
+     */
+    private static class Scratch {
+
+        private double[] memberships = new double[0];
+
+        private double[] activations = new double[0];
+
+        double[] memberships(int size){
+            if(memberships.length < size)
+                memberships = new double[size];
+            return memberships;
+        }
+
+        double[] activations(int size){
+            if(activations.length < size)
+                activations = new double[size];
+            return activations;
+        }
+    }/*end Scratch*/
+
+}/*end CompiledFuzzySystem*/
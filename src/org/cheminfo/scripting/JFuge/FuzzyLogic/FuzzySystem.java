@@ -5,18 +5,36 @@
  * Methods:
  *      - classifyInstances: returns the systems classification for each instance
  *        of given dataset.
+ *      - scoreInstances, scoreRows: classify a whole batch of rows into arrays
+ *        given by the caller, split over several threads.
+ *      - compile: builds the flat form of the system used for fast inference.
+ *        Once compiled, singleton systems classify through their compiled form.
+ *      - setSparseInference: compiles the system with an index from terms to
+ *        rules, so only the rules an instance may activate are read
  *      - getters: input, output and rules each have a get function
+ *      - saved and loaded with FuzzySystemFile, without the training dataset
  *      - toString: a system may be printed in a comprehensible way automatically
  * Usage: Create a fuzzy system based on input variables, output variable, rules
  *        and defuzzyfication method specified by the user. A default system based
  *        on the dataset may also be created.
  *        The user may classify data according to the systems specifications.
+ *        A system is only compiled when compile or setSparseInference is
+ *        called. The compiled form is a snapshot: changes made afterwards to
+ *        the variables, membership functions or rules are not seen until the
+ *        system is compiled again.
  * @see: Variable, Rule
  * @author Numa Trezzini
  */
 package org.cheminfo.scripting.JFuge.FuzzyLogic;
 
 import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.cheminfo.scripting.Utils.DataLoader;
 import org.cheminfo.scripting.Utils.Tools;
 import weka.core.Attribute;
@@ -57,6 +75,16 @@ public class FuzzySystem {
     //the systems fitness value
     private double fitness;
     
+    //minimum number of rows scored by a thread of a batch
+    private static final int MIN_SLICE_ROWS = 1024;
+    
+    //flat form of the system, built by compile or setSparseInference. null
+    //if the system was not compiled
+    private volatile CompiledFuzzySystem compiled;
+    
+    //indicates if the system is compiled in sparse mode
+    private boolean sparse_inference = false;
+        
     /**
      * Name: FuzzySystem
      * Goal: creates a new fuzzy system, with all required parameters
@@ -71,7 +99,8 @@ public class FuzzySystem {
      *                        - Signleton: FuzzySystem.DEFUZZY_SINGLETON
      *                        - Mean Of Maxima: FuzzySystem.DEFUZZY_MOM (not implemented)
      *                        - Center Of Gravity: FuzzySystem.DEFUZZY_COG (not implemented)
-     * @param train_dataset: the dataset the system uses to train. Instances are in Weka format 
+     * @param train_dataset: the dataset the system uses to train. Instances are in Weka format.
+     *                       May be null: classification does not need it
      */
     public FuzzySystem(LinkedList<Variable> in_vars,
                        LinkedList<Variable> out_var,
@@ -210,23 +239,135 @@ public class FuzzySystem {
      * @return double[]: the most likely class for each instance of the dataset
      */
     public double[] classifyInstances(Instances test_dataset){
-        double[][] distrib = new double[test_dataset.numInstances()][test_dataset.classAttribute().numValues()];
         double[] result = new double[test_dataset.numInstances()];
-        for(int i = 0; i < test_dataset.numInstances(); i++){
-            distrib[i] = distributionForInstance(test_dataset.instance(i));
-        }
+        scoreInstances(test_dataset, null, result, 1);
+        return result;
+    }/*end classifyInstances*/
+    
+    /**
+     * Name: mostLikelyClass
+     * Goal: finds the class with the highest probability of membership. If no
+     *       class has a positive probability, the first class is returned
+     * @param distribution: the probability of membership for each class
+     * @return int: the most likely class
+     */
+    public static int mostLikelyClass(double[] distribution){
+        int result = 0;
         double max = 0;
-        for(int i = 0; i < distrib.length; i++){
-            for(int j = 0; j < distrib[i].length;j++){
-                if(distrib[i][j] > max){
-                    max = distrib[i][j];
-                    result[i] = j;
-                }
+        for(int j = 0; j < distribution.length; j++){
+            if(distribution[j] > max){
+                max = distribution[j];
+                result = j;
             }
-            max = 0;
         }
         return result;
-    }/*end classifyInstances*/
+    }/*end mostLikelyClass*/
+    
+    /**
+     * Name: scoreInstances
+     * Goal: computes the distribution and the most likely class of each
+     *       instance of a dataset, in arrays given by the caller. The dataset
+     *       is split into one range of rows per thread
+     * @param data: the dataset to classify
+     * @param distribution: receives, for each instance, the probability of
+     *                      membership to each class. null if not needed
+     * @param classes: receives the most likely class of each instance. null
+     *                 if not needed
+     * @param threads: the number of threads scoring the dataset. 1 scores on
+     *                 the caller's thread
+     */
+    public void scoreInstances(Instances data, double[][] distribution, double[] classes, int threads){
+        int rows = data.numInstances();
+        RowScorer[] ranges = new RowScorer[sliceCount(rows, threads)];
+        int slice_size = (rows+ranges.length-1)/ranges.length;
+        for(int i = 0; i < ranges.length; i++)
+            ranges[i] = new RowScorer(this, data, i*slice_size, Math.min((i+1)*slice_size, rows), 0, distribution, classes);
+        score(ranges);
+    }/*end scoreInstances*/
+    
+    /**
+     * Name: scoreRows
+     * Goal: computes the distribution and the most likely class of a block of
+     *       rows of a columnar snapshot, in arrays given by the caller. Row
+     *       from is written at index 0. The system must have been compiled
+     * @param data: the snapshot
+     * @param from: first row to classify
+     * @param to: last row to classify (excluded)
+     * @param distribution: receives, for each row, the probability of
+     *                      membership to each class. null if not needed
+     * @param classes: receives the most likely class of each row. null if not needed
+     * @param threads: the number of threads scoring the block. 1 scores on the
+     *                 caller's thread
+     */
+    public void scoreRows(ColumnarData data, int from, int to, double[][] distribution, double[] classes, int threads){
+        if(getCompiled() == null)
+            throw new IllegalStateException("Columnar data is only classified by a compiled system, with the singleton defuzzyfication");
+        RowScorer[] ranges = new RowScorer[sliceCount(to-from, threads)];
+        int slice_size = (to-from+ranges.length-1)/ranges.length;
+        for(int i = 0; i < ranges.length; i++)
+            ranges[i] = new RowScorer(this, data, from+i*slice_size, Math.min(from+(i+1)*slice_size, to), from, distribution, classes);
+        score(ranges);
+    }/*end scoreRows*/
+    
+    /**
+     * Name: sliceCount
+     * Goal: computes the number of ranges a batch is split into. Small batches
+     *       are not split, threads would cost more than they save
+     * @param rows: the number of rows of the batch
+     * @param threads: the number of threads available
+     * @return int: the number of ranges, at least 1
+     */
+    private static int sliceCount(int rows, int threads){
+        return Math.max(1, Math.min(threads, rows/MIN_SLICE_ROWS));
+    }/*end sliceCount*/
+    
+    /**
+     * Name: score
+     * Goal: runs the ranges of a batch. The first range runs on the caller's
+     *       thread, the others on the shared scoring threads
+     * @param ranges: the ranges to run
+     */
+    private static void score(RowScorer[] ranges){
+        LinkedList<Future<Integer>> results = new LinkedList<Future<Integer>>();
+        for(int i = 1; i < ranges.length; i++)
+            results.add(ScoringThreads.POOL.submit(ranges[i]));
+        ranges[0].call();
+        try{
+            for(Future<Integer> result : results)
+                result.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Scoring interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Scoring failed: "+ex.getCause(), ex.getCause());
+        }
+    }/*end score*/
+    
+    /**
+     * Name: ScoringThreads
+     * Goal: threads scoring the ranges of batches, shared by all systems.
+     *       Created on first use, one per processor. Idle threads end after a
+     *       minute and never keep the JVM alive
+     */
+    private static class ScoringThreads {
+        
+        static final ExecutorService POOL = createPool();
+        
+        private static ExecutorService createPool(){
+            int threads = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                                             new LinkedBlockingQueue<Runnable>(), new ThreadFactory(){
+                public Thread newThread(Runnable task){
+                    Thread thread = new Thread(task, "JFuge scoring");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }/*end createPool*/
+    
+    }/*end ScoringThreads*/
     
     public double[][] preclassifyInstances(Instances test_dataset){
         double[][] distrib = distributionForInstances(test_dataset);
@@ -244,26 +385,104 @@ public class FuzzySystem {
      */
     public double[][] distributionForInstances(Instances test_dataset){
         double[][] distrib = new double[test_dataset.numInstances()][test_dataset.classAttribute().numValues()];
-        for(int i = 0; i < test_dataset.numInstances(); i++){
-            distrib[i] = distributionForInstance(test_dataset.instance(i));
-        }
-        
+        scoreInstances(test_dataset, distrib, null, 1);
         return distrib;
     }
     
+    /**
+     * Name: distributionForRows
+     * Goal: computes the probability of membership for each available output
+     *       class, for each row of a columnar snapshot
+     * @param data: the rows to classify
+     * @return double[][]: for each row, the probability of membership to each output class
+     */
+    public double[][] distributionForRows(ColumnarData data){
+        double[][] distrib = new double[data.numRows()][data.numClasses()];
+        scoreRows(data, 0, data.numRows(), distrib, null, 1);
+        return distrib;
+    }/*end distributionForRows*/
+    
+    /**
+     * Name: preclassifyRows
+     * Goal: same as preclassifyInstances, for the rows of a columnar snapshot
+     * @param data: the rows to classify
+     * @return double[][]: for each row, the rounded membership to each output class
+     */
+    public double[][] preclassifyRows(ColumnarData data){
+        double[][] distrib = distributionForRows(data);
+        for(int i = 0; i < distrib.length; i++)
+            for(int j = 0; j < distrib[i].length; j++)
+                distrib[i][j] = Math.round(distrib[i][j]);
+        return distrib;
+    }/*end preclassifyRows*/
+    
     /**
      * Name: distributionForInstance
-     * Goal: computes the most likely class for a Weka data instance
+     * Goal: computes the most likely class for a Weka data instance. A
+     *       compiled system classifies through its compiled form, as it was
+     *       when compile or setSparseInference was last called; otherwise the
+     *       variables and rules are read as they are now
      * @param inst: the instance to be classified
      * @return double: the most likely class computed by the fuzzy system
      */
     public double[] distributionForInstance(Instance inst){
+        CompiledFuzzySystem fast = getCompiled();
+        if(fast != null)
+            return fast.distributionForInstance(inst);
         double[][][] activation = computeRulesActivation(inst);
         double[] defuzzy = defuzzy(activation);
         return defuzzy;
     }/*end distributionForInstance*/
     
+    /**
+     * Name: compile
+     * Goal: builds the flat form of the system, used for allocation-free
+     *       inference, and classifies through it from now on. The compiled
+     *       form is a snapshot of the current variables and rules: compile
+     *       again after changing them. In sparse mode, selectivity is only
+     *       measured by setSparseInference: the rows are not kept afterwards
+     * @return CompiledFuzzySystem: the compiled system, or null if the
+     *                              defuzzyfication method is not singleton
+     */
+    public CompiledFuzzySystem compile(){
+        if(DEFUZZY_SINGLETON.equals(defuzzy_method))
+            compiled = new CompiledFuzzySystem(this, sparse_inference, null);
+        else
+            compiled = null;
+        return compiled;
+    }/*end compile*/
     
+    /**
+     * Name: setSparseInference
+     * Goal: chooses how the compiled form reads the rules. In sparse mode,
+     *       AND rules are indexed by term and read most selective antecedent
+     *       first, so rules with a zero antecedent are mostly skipped.
+     *       Distributions are the same in both modes
+     *       The system is compiled at once, so the rows are only read while
+     *       the index is built and are not kept by the system
+     * @param sparse_inference: true for the sparse mode, false to read every rule
+     * @param observed: rows on which the selectivity of each term is
+     *                  measured, usually the training rows. May be null
+     */
+    public void setSparseInference(boolean sparse_inference, ColumnarData observed){
+        this.sparse_inference = sparse_inference;
+        if(DEFUZZY_SINGLETON.equals(defuzzy_method))
+            compiled = new CompiledFuzzySystem(this, sparse_inference, observed);
+        else
+            compiled = null;
+    }/*end setSparseInference*/
+    
+    /**
+     * Name: getCompiled
+     * Goal: returns the compiled form of the system, as built by the last
+     *       call to compile or setSparseInference. Only singleton
+     *       defuzzyfication is compiled
+     * @return CompiledFuzzySystem: the compiled system, or null if the
+     *                              system was not compiled
+     */
+    public CompiledFuzzySystem getCompiled(){
+        return compiled;
+    }/*end getCompiled*/
     
     private double[][][] computeRulesActivation(Instance inst){
         double[][][] activation = new double[rules.size()][inst.classAttribute().numValues()][2];
@@ -299,6 +518,10 @@ public class FuzzySystem {
     public LinkedList<Rule> getRules() {
         return rules;
     }
+    
+    public String getDefuzzyMethod() {
+        return defuzzy_method;
+    }
 
     public double getFitness() {
         return fitness;
@@ -0,0 +1,322 @@
+/**
+ * Name: FuzzySystemFile
+ * Goal: saves and loads fuzzy systems in a compact binary format, so an
+ *       evolved system may be reused without evolving it again. Loading does
+ *       not need the training dataset: everything the system needs to
+ *       classify is in the file. The format is (big endian):
+ *      - magic number "JFUZ" (int) and format version (short)
+ *      - fitness (double) and defuzzyfication method (string)
+ *      - input variables, then output variables (one per class label): count
+ *        (int), then for each variable its name (string), attribute index
+ *        (int), terms (int count, strings), minimum and maximum values
+ *        (doubles) and zero points (int count, doubles)
+ *      - rules: count (int), then for each rule its connector (byte, 0 for
+ *        AND, 1 for OR), its antecedents (int count, -1 if none) and its
+ *        consequents (int count), each as a variable index (int, in the input
+ *        or output variables) and a term index (int)
+ *       Strings are stored as their length in bytes (int) followed by their
+ *       UTF-8 bytes.
+ * Methods:
+ *      - save: writes a system into a file or a stream
+ *      - load: reads a system from a file, memory-mapped, or from a buffer
+ * Usage: loaded systems classify as the saved ones did. Files written by a
+ *        newer version of the format are refused, and so are counts which
+ *        do not fit in the rest of the file and unknown connectors.
+ *        The inference mode is not saved: loaded systems are compiled
+ *        dense, since the sparse index depends on the training rows.
+ *        Distributions are the same; call FuzzySystem.setSparseInference on
+ *        a loaded system to index it again.
+ * @see FuzzySystem
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.FuzzyLogic;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+
+public class FuzzySystemFile {
+    
+    //first bytes of every file: "JFUZ"
+    public static final int MAGIC = 0x4A46555A;
+    
+    //version of the format written by save
+    public static final short VERSION = 1;
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    //connector codes
+    private static final byte CONNECTOR_AND = 0;
+    
+    private static final byte CONNECTOR_OR = 1;
+    
+    /**
+     * Name: save
+     * Goal: writes a system into a file. An existing file is replaced
+     * @param system: the system to save
+     * @param file: the file to write
+     * @throws IOException: if the file cannot be written
+     */
+    public static void save(FuzzySystem system, File file) throws IOException{
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try{
+            save(system, out);
+        }
+        finally{
+            out.close();
+        }
+    }/*end save*/
+    
+    /**
+     * Name: save
+     * Goal: writes a system into a stream. The stream is not closed
+     * @param system: the system to save
+     * @param stream: the stream to write into
+     * @throws IOException: if the stream cannot be written
+     */
+    public static void save(FuzzySystem system, OutputStream stream) throws IOException{
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeDouble(system.getFitness());
+        writeString(out, system.getDefuzzyMethod());
+        Variable[] in_vars = system.getInVars().toArray(new Variable[system.getInVars().size()]);
+        Variable[] out_vars = system.getOutVar().toArray(new Variable[system.getOutVar().size()]);
+        writeVariables(out, in_vars);
+        writeVariables(out, out_vars);
+        out.writeInt(system.getRules().size());
+        for(Rule rule : system.getRules()){
+            out.writeByte(Rule.OR.equals(rule.getConnector())?CONNECTOR_OR:CONNECTOR_AND);
+            if(rule.getAntecedents() == null)
+                out.writeInt(-1);
+            else
+                writeTerms(out, rule.getAntecedents(), in_vars);
+            writeTerms(out, rule.getConsequent(), out_vars);
+        }
+        out.flush();
+    }/*end save*/
+    
+    /**
+     * Name: load
+     * Goal: reads a system from a file. The file is memory-mapped instead of
+     *       being copied through a stream
+     * @param file: the file to read
+     * @return FuzzySystem: the saved system
+     * @throws IOException: if the file cannot be read or is not a saved system
+     */
+    public static FuzzySystem load(File file) throws IOException{
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try{
+            FileChannel channel = raf.getChannel();
+            return load(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        finally{
+            raf.close();
+        }
+    }/*end load*/
+    
+    /**
+     * Name: load
+     * Goal: reads a system from a buffer, from its current position
+     * @param buffer: the buffer holding the saved system
+     * @return FuzzySystem: the saved system
+     * @throws IOException: if the buffer does not hold a saved system
+     */
+    public static FuzzySystem load(ByteBuffer buffer) throws IOException{
+        try{
+            if(buffer.getInt() != MAGIC)
+                throw new IOException("Not a fuzzy system file");
+            short version = buffer.getShort();
+            if(version > VERSION || version < 1)
+                throw new IOException("Fuzzy system file version not supported: "+version);
+            double fitness = buffer.getDouble();
+            String defuzzy_method = readString(buffer);
+            Variable[] in_vars = readVariables(buffer);
+            Variable[] out_vars = readVariables(buffer);
+            //a rule holds at least a connector and two counts
+            int rule_count = readCount(buffer, 9);
+            LinkedList<Rule> rules = new LinkedList<Rule>();
+            for(int r = 0; r < rule_count; r++){
+                String connector = readConnector(buffer);
+                LinkedList<RuleTerm> antecedents = readTerms(buffer, in_vars);
+                LinkedList<RuleTerm> consequent = readTerms(buffer, out_vars);
+                rules.add(new Rule(antecedents, consequent, connector));
+            }
+            FuzzySystem system = new FuzzySystem(toList(in_vars), toList(out_vars), rules, defuzzy_method, null);
+            system.setFitness(fitness);
+            system.compile();
+            return system;
+        }
+        catch(BufferUnderflowException e){
+            throw new IOException("Truncated fuzzy system file");
+        }
+        catch(IndexOutOfBoundsException e){
+            throw new IOException("Corrupted fuzzy system file: "+e.getMessage());
+        }
+        catch(NegativeArraySizeException e){
+            throw new IOException("Corrupted fuzzy system file: "+e.getMessage());
+        }
+    }/*end load*/
+    
+    /**
+     * Name: writeVariables
+     * Goal: writes the count of variables, then each variable and its MF
+     */
+    private static void writeVariables(DataOutputStream out, Variable[] vars) throws IOException{
+        out.writeInt(vars.length);
+        for(Variable var : vars){
+            writeString(out, var.getName());
+            out.writeInt(var.getAttributeIndex());
+            String[] terms = var.getTerms();
+            out.writeInt(terms.length);
+            for(String term : terms)
+                writeString(out, term);
+            MembershipFunction mf = var.getMf();
+            out.writeDouble(mf.getMinVal());
+            out.writeDouble(mf.getMaxVal());
+            double[] zero_points = mf.getZeroPoints();
+            out.writeInt(zero_points.length);
+            for(double zero_point : zero_points)
+                out.writeDouble(zero_point);
+        }
+    }/*end writeVariables*/
+    
+    /**
+     * Name: readVariables
+     * Goal: reads variables written by writeVariables
+     */
+    private static Variable[] readVariables(ByteBuffer buffer) throws IOException{
+        //a variable holds at least its name, index, counts and range
+        Variable[] vars = new Variable[readCount(buffer, 32)];
+        for(int v = 0; v < vars.length; v++){
+            String name = readString(buffer);
+            int attribute_index = buffer.getInt();
+            String[] terms = new String[readCount(buffer, 4)];
+            for(int t = 0; t < terms.length; t++)
+                terms[t] = readString(buffer);
+            double min = buffer.getDouble();
+            double max = buffer.getDouble();
+            double[] zero_points = new double[readCount(buffer, 8)];
+            for(int z = 0; z < zero_points.length; z++)
+                zero_points[z] = buffer.getDouble();
+            vars[v] = new Variable(name, terms, new MembershipFunction(null, min, max, zero_points), attribute_index);
+        }
+        return vars;
+    }/*end readVariables*/
+    
+    /**
+     * Name: writeTerms
+     * Goal: writes the count of rule terms, then the variable and term
+     *       indexes of each rule term
+     */
+    private static void writeTerms(DataOutputStream out, LinkedList<RuleTerm> terms, Variable[] vars) throws IOException{
+        out.writeInt(terms.size());
+        for(RuleTerm term : terms){
+            out.writeInt(indexOf(vars, term.getVar()));
+            out.writeInt(term.getTermIndex());
+        }
+    }/*end writeTerms*/
+    
+    /**
+     * Name: readTerms
+     * Goal: reads rule terms written by writeTerms
+     * @return LinkedList<RuleTerm>: the rule terms, null if none were written
+     */
+    private static LinkedList<RuleTerm> readTerms(ByteBuffer buffer, Variable[] vars) throws IOException{
+        int count = buffer.getInt();
+        if(count == -1)
+            return null;
+        checkCount(count, buffer, 8);
+        LinkedList<RuleTerm> terms = new LinkedList<RuleTerm>();
+        for(int i = 0; i < count; i++){
+            Variable var = vars[buffer.getInt()];
+            int term_index = buffer.getInt();
+            terms.add(new RuleTerm(var, var.getTerms()[term_index], term_index));
+        }
+        return terms;
+    }/*end readTerms*/
+    
+    private static void writeString(DataOutputStream out, String str) throws IOException{
+        byte[] bytes = str.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }/*end writeString*/
+    
+    private static String readString(ByteBuffer buffer) throws IOException{
+        byte[] bytes = new byte[readCount(buffer, 1)];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }/*end readString*/
+    
+    /**
+     * Name: readCount
+     * Goal: reads a count and checks it (see checkCount)
+     * @param buffer: the buffer, at the count
+     * @param item_bytes: the minimum size of an item, in bytes
+     * @return int: the count
+     * @throws IOException: if the count is negative or too large
+     */
+    private static int readCount(ByteBuffer buffer, int item_bytes) throws IOException{
+        return checkCount(buffer.getInt(), buffer, item_bytes);
+    }/*end readCount*/
+    
+    /**
+     * Name: checkCount
+     * Goal: checks that the items of a count fit in the rest of the buffer,
+     *       before anything is allocated for them
+     * @param count: the count read
+     * @param buffer: the buffer, after the count
+     * @param item_bytes: the minimum size of an item, in bytes
+     * @return int: the count
+     * @throws IOException: if the count is negative or too large
+     */
+    private static int checkCount(int count, ByteBuffer buffer, int item_bytes) throws IOException{
+        if(count < 0 || count > buffer.remaining()/item_bytes)
+            throw new IOException("Corrupted fuzzy system file: invalid count "+count);
+        return count;
+    }/*end checkCount*/
+    
+    /**
+     * Name: readConnector
+     * @param buffer: the buffer, at the connector code
+     * @return String: the connector of the rule
+     * @throws IOException: if the code is unknown
+     */
+    private static String readConnector(ByteBuffer buffer) throws IOException{
+        byte code = buffer.get();
+        if(code == CONNECTOR_AND)
+            return Rule.AND;
+        if(code == CONNECTOR_OR)
+            return Rule.OR;
+        throw new IOException("Corrupted fuzzy system file: unknown connector "+code);
+    }/*end readConnector*/
+    
+    private static LinkedList<Variable> toList(Variable[] vars){
+        LinkedList<Variable> list = new LinkedList<Variable>();
+        for(Variable var : vars)
+            list.add(var);
+        return list;
+    }/*end toList*/
+    
+    /**
+     * Name: indexOf
+     * Goal: finds the position of the variable of a rule term
+     * @return int: the position of the variable
+     */
+    private static int indexOf(Variable[] vars, Variable var){
+        for(int v = 0; v < vars.length; v++)
+            if(vars[v] == var)
+                return v;
+        throw new IllegalArgumentException("Rule term uses an unknown variable: "+var.getName());
+    }/*end indexOf*/
+
+}/*end FuzzySystemFile*/
@@ -129,6 +129,44 @@ public class MembershipFunction {
         return null;
     }/*end eval*/
     
+    /**
+     * Name: evalInto
+     * Goal: same as eval, for sorted zero points stored in a larger array, and
+     *       without allocating: the activation of function t is written at
+     *       index base+t of the given array. A missing value (NaN) activates
+     *       no function
+     * @param zero_points: array containing the sorted zero points
+     * @param first: index of the first zero point
+     * @param count: number of zero points (and functions)
+     * @param z: the value of the data instance
+     * @param eval: receives the activation of each function
+     * @param base: index of the activation of the first function
+     */
+    public static void evalInto(double[] zero_points, int first, int count, double z, double[] eval, int base){
+        int last = first+count-1;
+        for(int i = 0; i < count; i++)
+            eval[base+i] = 0;
+        //before first triangular MF, inverse sigma equals 1
+        if(z < zero_points[first]){
+            eval[base] = 1;
+            return;
+        }
+        //after last triangular MF, sigma equals 1
+        if(z >= zero_points[last]){
+            eval[base+count-1] = 1;
+            return;
+        }
+        //data is in one of the triangular functions
+        for(int i = first; i < last; i++){
+            if(z >= zero_points[i] && z < zero_points[i+1]){
+                double value = (z-zero_points[i])/(zero_points[i+1]-zero_points[i]);
+                eval[base+i-first] = 1-value;
+                eval[base+i-first+1] = value;
+                return;
+            }
+        }
+    }/*end evalInto*/
+    
     /**
      * Name: triangleEval
      * Goal: computes the value of a rising slope for a triangular (or sigma) functions
@@ -0,0 +1,111 @@
+/**
+ * Name: RowScorer
+ * Goal: scores a range of rows of a dataset, or of a columnar snapshot, with a
+ *       fuzzy system. For each row, the probability of membership to each
+ *       class and the most likely class are written into arrays given by the
+ *       caller, at the index of the row minus the first row of the batch.
+ *       Implementing Callable allows a batch to be split into several ranges
+ *       scored concurrently
+ * Methods:
+ *      - call: scores the rows of the range
+ * @see FuzzySystem
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.FuzzyLogic;
+
+import java.util.concurrent.Callable;
+import weka.core.Instances;
+
+public class RowScorer implements Callable<Integer>{
+    
+    //the system scoring the rows
+    private FuzzySystem system;
+    
+    //the rows, either as a dataset or as a snapshot. The other one is null
+    private Instances instances;
+    
+    private ColumnarData columns;
+    
+    //first row of the range
+    private int from;
+    
+    //last row of the range (excluded)
+    private int to;
+    
+    //first row of the batch, written at index 0 of the outputs
+    private int base;
+    
+    //receives the distribution of each row. null if not needed
+    private double[][] distribution;
+    
+    //receives the most likely class of each row. null if not needed
+    private double[] classes;
+    
+    /**
+     * Name: RowScorer
+     * Goal: creates the scoring of the rows from..to-1 of a dataset
+     * @param system: the system scoring the rows
+     * @param instances: the dataset
+     * @param from: first row to score
+     * @param to: last row to score (excluded)
+     * @param base: first row of the batch
+     * @param distribution: receives the distribution of each row. null if not needed
+     * @param classes: receives the most likely class of each row. null if not needed
+     */
+    public RowScorer(FuzzySystem system, Instances instances, int from, int to, int base, double[][] distribution, double[] classes){
+        this(system, instances, null, from, to, base, distribution, classes);
+    }/*end RowScorer*/
+    
+    /**
+     * Name: RowScorer
+     * Goal: creates the scoring of the rows from..to-1 of a snapshot. The
+     *       system must have been compiled (singleton defuzzyfication)
+     * @see RowScorer(FuzzySystem, Instances, int, int, int, double[][], double[])
+     */
+    public RowScorer(FuzzySystem system, ColumnarData columns, int from, int to, int base, double[][] distribution, double[] classes){
+        this(system, null, columns, from, to, base, distribution, classes);
+    }/*end RowScorer*/
+    
+    private RowScorer(FuzzySystem system, Instances instances, ColumnarData columns, int from, int to, int base, double[][] distribution, double[] classes){
+        this.system = system;
+        this.instances = instances;
+        this.columns = columns;
+        this.from = from;
+        this.to = to;
+        this.base = base;
+        this.distribution = distribution;
+        this.classes = classes;
+    }/*end RowScorer*/
+    
+    /**
+     * Name: call
+     * Goal: scores each row of the range. Every row only writes into its own
+     *       cells, so ranges never interfere
+     * @return Integer: the number of scored rows
+     */
+    public Integer call(){
+        CompiledFuzzySystem fast = system.getCompiled();
+        if(columns != null && fast == null)
+            throw new IllegalStateException("Columnar data is only classified by a compiled system");
+        //scratch row, used when the caller does not want the distribution
+        double[] row_distrib = distribution==null&&fast!=null?new double[fast.getClassCount()]:null;
+        double[] current;
+        for(int i = from; i < to; i++){
+            if(fast == null)
+                current = system.distributionForInstance(instances.instance(i));
+            else{
+                current = distribution==null?row_distrib:distribution[i-base];
+                if(columns != null)
+                    fast.distributionForRow(columns, i, current);
+                else
+                    fast.distributionForInstance(instances.instance(i), current);
+            }
+            if(fast == null && distribution != null)
+                System.arraycopy(current, 0, distribution[i-base], 0, current.length);
+            if(classes != null)
+                classes[i-base] = FuzzySystem.mostLikelyClass(current);
+        }
+        return to-from;
+    }/*end call*/
+
+}/*end RowScorer*/
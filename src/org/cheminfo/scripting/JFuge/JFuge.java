@@ -10,11 +10,26 @@
  *      - createClassifier: creates a classifier with given options. Runs the
  *                          evolution and selects the best available fuzzy system
  *                          for further classification
+ *      - resumeClassifier: same as createClassifier, but continues the
+ *                          evolution saved in the checkpoint file (-c)
+ *                          instead of starting a new one
+ *      - createClassifierAsync, resumeClassifierAsync: same as above, but
+ *                          the evolution runs on its own thread. The returned
+ *                          TrainingHandle follows, cancels or waits for it
+ *      - sweepClassifier: evolves one system per option string at once, on
+ *                         the same prepared data, stops the weakest ones by
+ *                         successive halving, and keeps the best system
  *      - classifyInstances: classifies a Weka dataset according the system
  *                           previously evolved
  *      - distributionForInstances: computes the distribution of each instance
  *                                  in a Weka dataset
+ *      - scoreInstances: computes both in a single pass, into given arrays
  *      - getFuzzySystem: returns the fittest evolved fuzzy system
+ *      - saveSystem, loadSystem: save the evolved system into a binary file,
+ *                                and load it back instead of evolving a new
+ *                                one. Loading does not need the training data
+ *      - getGenerationStats: returns the statistics of each generation, if
+ *                            telemetry was enabled
  *      - setOptions: changes the options of the evolutionary algorithm. This
  *                    method will have no effect after system has been evolved
  *                    (this means after use of createClassifier)
@@ -54,21 +69,122 @@
  *      - var per rule number (-Z, 1): sets the weight given to number of variables
  *                                     per rule during fitness computation.
  *                                     Default value: 1. MUST be between 0-1
+ *      - evaluation threads (-J, 1): sets the number of threads computing the
+ *                                    fitness of the individuals of a generation,
+ *                                    and classifying large datasets.
+ *                                    Default value: 1. MUST be positive
+ *      - stagnation generations (-Q, 0): stops evolution when the best fitness
+ *                                        has not improved for this number of
+ *                                        generations. 0 disables it
+ *      - target fitness (-F, none): stops evolution as soon as a system reaches
+ *                                   this fitness
+ *      - time budget (-B, 0): stops evolution once this number of milliseconds
+ *                             is spent, after the running generation. 0 disables it
+ *                             When a stop condition is set, the best system of
+ *                             the whole evolution is kept
+ *      - islands (-I, 1): sets the number of populations evolving in parallel,
+ *                         each on its own thread. Each island has the given
+ *                         population size. The best system of all islands is
+ *                         kept. Islands evaluate on their own thread, so -J
+ *                         only applies to a single island. MUST be positive
+ *      - migration interval (-O, 10): sets the number of generations between
+ *                                     two migrations between islands
+ *      - migrants (-K, 2): sets the number of individuals of each population
+ *                          an island sends at each migration. They replace the
+ *                          weakest individuals of the receiving island
+ *      - topology (-H, RING): sets where islands send their migrants. Available
+ *                             values: "ring" (next island) and "full" (all islands)
+ *      - seed (-D, none): sets the seed of the random numbers. Two evolutions
+ *                         with the same options and seed give the same
+ *                         system, whatever the number of threads. Without
+ *                         seed, each evolution is different
+ *      - telemetry (-L, off): flag collecting the statistics of each generation
+ *                             (times, throughput, fitness, memory). They are
+ *                             reported as information and by getGenerationStats
+ *      - fitness cache size (-m, 0): sets the memory, in kilobytes, of the
+ *                                    cache remembering the fitness of evaluated
+ *                                    individuals, so copies are not evaluated
+ *                                    again. 0 disables the cache. MUST be
+ *                                    positive or 0
+ *      - mini-batch size (-U, 0): sets the number of training rows individuals
+ *                                 are scored on at each generation. The rows
+ *                                 are drawn again at each generation, with the
+ *                                 same proportion of each class as the training
+ *                                 data. 0 scores on all rows. MUST be positive or 0
+ *      - rescoring policy (-V, FINAL): sets when individuals scored on a
+ *                                      mini-batch are scored on all rows.
+ *                                      Available values: "final" (the fittest
+ *                                      individuals of the last generation) and
+ *                                      "elite" (the elite of each generation)
+ *      - delta evaluation (-d, off): flag evaluating individuals incrementally:
+ *                                    only the memberships and rule activations
+ *                                    changed by mutation or crossover are
+ *                                    computed again. Fitness is identical, but
+ *                                    each gene keeps the values of its last
+ *                                    evaluation for each training row
+ *      - sparse inference (-s, off): flag compiling the systems with an index
+ *                                    from terms to rules: each instance only
+ *                                    reads the AND rules whose most selective
+ *                                    antecedent is nonzero. Same results
+ *      - double buffering (-b, off): flag breeding the children into two pools
+ *                                    of genes allocated once, which alternate
+ *                                    between parents and children. Same results
+ *      - checkpoint file (-c, none): sets the file where the state of the
+ *                                    evolution is saved every few generations,
+ *                                    in the background. resumeClassifier
+ *                                    continues the evolution saved in it
+ *      - checkpoint interval (-i, 10): sets the number of generations between
+ *                                      two checkpoints. With islands, it is
+ *                                      rounded to a number of migrations.
+ *                                      MUST be positive
+ *      - workers (-w, none): sets the "host:port" addresses of worker JVMs
+ *                            (EvaluationWorker), comma separated, scoring the
+ *                            individuals of each generation. Workers receive
+ *                            the training data once, then only genes. Lost
+ *                            workers are replaced by the others, or by this
+ *                            JVM, and connected again at the next
+ *                            generation. Same results
+ *      - local workers (-n, 0): sets the number of worker processes started
+ *                               on this machine for the evolution, with the
+ *                               classpath of this JVM, and stopped after it.
+ *                               Added to the workers of -w. MUST be positive or 0
+ *      - worker token (-k, JFUGE_WORKER_TOKEN variable): sets the shared token
+ *                     of the workers of -w, without which they refuse the
+ *                     connection. Local workers use it as well, or a random
+ *                     token if it is not set
  * 
  * Usage: First, parametrize, create and train the fuzzy system with
  *        createClassifier. Then, classify new data with classifyInstances or
  *        distributionForInstances. Options setting after use of createClassifier
- *        will have NO effect.
+ *        will have NO effect. An evolved system may be saved with saveSystem,
+ *        and loaded by a new JFuge object with loadSystem, which then
+ *        classifies without createClassifier.
  *        
  * @author Numa Trezzini
  */
 package org.cheminfo.scripting.JFuge;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import org.cheminfo.function.Function;
 import org.cheminfo.scripting.JFuge.CoEvolution.Coevolution;
+import org.cheminfo.scripting.JFuge.CoEvolution.DistributedEvaluator;
+import org.cheminfo.scripting.JFuge.CoEvolution.EvaluationWorker;
+import org.cheminfo.scripting.JFuge.CoEvolution.EvolutionListener;
+import org.cheminfo.scripting.JFuge.CoEvolution.FitnessCache;
+import org.cheminfo.scripting.JFuge.CoEvolution.GenerationStats;
+import org.cheminfo.scripting.JFuge.CoEvolution.IslandCoevolution;
+import org.cheminfo.scripting.JFuge.CoEvolution.SuccessiveHalving;
+import org.cheminfo.scripting.JFuge.CoEvolution.TrainingSnapshot;
 import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystem;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystemFile;
 import org.cheminfo.scripting.Utils.DataLoader;
+import org.cheminfo.scripting.Utils.RandomStream;
 import weka.core.Instances;
 import weka.core.Utils;
 
@@ -90,6 +206,16 @@ public class JFuge extends Function{
     
     public static final String ERROR_RAE = "rae";
     
+    //available island topologies, see IslandCoevolution
+    public static final String TOPOLOGY_RING = IslandCoevolution.TOPOLOGY_RING;
+    
+    public static final String TOPOLOGY_FULL = IslandCoevolution.TOPOLOGY_FULL;
+    
+    //available rescoring policies of mini-batch fitness
+    public static final String RESCORE_FINAL = "final";
+    
+    public static final String RESCORE_ELITE = "elite";
+    
     //mutation rate of genes. option to set: -M
     private double mutation_rate = 0.1;
     
@@ -131,9 +257,88 @@ public class JFuge extends Function{
     
     private int rule_count = 6;
     
+    //number of threads evaluating individuals. option to set: -J
+    private int eval_threads = 1;
+    
+    //memory of the fitness cache in kilobytes, 0 to disable. option to set: -m
+    private int fitness_cache_size = 0;
+    
+    //number of rows individuals are scored on, 0 for all. option to set: -U
+    private int batch_size = 0;
+    
+    //when mini-batch scores are checked on all rows. option to set: -V
+    private String rescore_policy = RESCORE_FINAL;
+    
+    //indicates if individuals are evaluated incrementally. option to set: -d
+    private boolean delta_evaluation = false;
+    
+    //indicates if systems use the sparse rule index. option to set: -s
+    private boolean sparse_inference = false;
+    
+    //indicates if children are bred into preallocated genes. option to set: -b
+    private boolean double_buffering = false;
+    
+    //file receiving the checkpoints, null if none. option to set: -c
+    private String checkpoint_path = null;
+    
+    //generations between two checkpoints. option to set: -i
+    private int checkpoint_interval = 10;
+    
+    //addresses of the workers scoring individuals, none if empty. option to set: -w
+    private String[] worker_addresses = new String[0];
+    
+    //number of worker processes started on this machine. option to set: -n
+    private int local_workers = 0;
+    
+    //shared token of the workers, null for the JFUGE_WORKER_TOKEN environment variable. option to set: -k
+    private String worker_token = null;
+    
+    //generations without improvement before evolution stops. option to set: -Q
+    private int stagnation_limit = 0;
+    
+    //fitness at which evolution stops, NaN if none. option to set: -F
+    private double target_fitness = Double.NaN;
+    
+    //time after which evolution stops, in ms. option to set: -B
+    private long time_budget = 0;
+    
+    //number of islands evolving in parallel. option to set: -I
+    private int island_count = 1;
+    
+    //generations between two migrations. option to set: -O
+    private int migration_interval = 10;
+    
+    //individuals sent by an island at each migration. option to set: -K
+    private int migrant_count = 2;
+    
+    //where islands send their migrants. option to set: -H
+    private String topology = TOPOLOGY_RING;
+    
+    //seed of the random numbers. option to set: -D
+    private long seed = 0;
+    
+    //indicates if a seed was given. Without seed, each evolution is different
+    private boolean has_seed = false;
+    
+    //indicates if statistics of each generation are collected. option to set: -L
+    private boolean telemetry = false;
+    
+    //statistics of each generation, if telemetry is enabled
+    private LinkedList<GenerationStats> generation_stats = new LinkedList<GenerationStats>();
+    
     //the system the evolution has come up with
     private FuzzySystem fs;
     
+    //threads running the asynchronous trainings, shared by all classifiers.
+    //Idle threads end after a minute and never keep the JVM alive
+    private static final ExecutorService TRAINING_THREADS = Executors.newCachedThreadPool(new ThreadFactory(){
+        public Thread newThread(Runnable task){
+            Thread thread = new Thread(task, "JFuge training");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    
     /**
      * Name: createJFuge
      * Goal: returns a new, empty, JFuge object for further use. Required for JS
@@ -153,6 +358,95 @@ public class JFuge extends Function{
      * @return boolean: indicates if creation was successful or not
      */
     public boolean createClassifier(Object train_data, String options){
+        return train(train_data, options, false, null);
+    }/*end createClassifier*/
+    
+    /**
+     * Name: resumeClassifier
+     * Goal: continues the evolution saved in the checkpoint file, and keeps
+     *       the best system as createClassifier does. The options and
+     *       training data must be the ones of the saved evolution. If the
+     *       checkpoint file does not exist yet, a new evolution is started
+     * @param train_data: the data used to compute performance of a system and
+     *                    provide data information
+     * @param options: the options used to control the genetic algorithm,
+     *                 checkpoint file (-c) included
+     * @return boolean: indicates if the evolution was resumed and run successfully
+     */
+    public boolean resumeClassifier(Object train_data, String options){
+        return train(train_data, options, true, null);
+    }/*end resumeClassifier*/
+    
+    /**
+     * Name: createClassifierAsync
+     * Goal: evolves a fuzzy system as createClassifier does, on a thread of
+     *       its own. The caller is not blocked; the returned handle gives the
+     *       progress of the evolution and the best system so far, cancels it
+     *       and waits for it. The classifier must not be used until the
+     *       evolution is over
+     * @param train_data: the data used to compute performance of a system and
+     *                    provide data information
+     * @param options: the options used to control the genetic algorithm
+     * @return TrainingHandle: the handle of the evolution
+     */
+    public TrainingHandle createClassifierAsync(Object train_data, String options){
+        return trainAsync(train_data, options, false);
+    }/*end createClassifierAsync*/
+    
+    /**
+     * Name: resumeClassifierAsync
+     * Goal: continues the evolution saved in the checkpoint file as
+     *       resumeClassifier does, on a thread of its own
+     * @param train_data: the data used to compute performance of a system and
+     *                    provide data information
+     * @param options: the options used to control the genetic algorithm,
+     *                 checkpoint file (-c) included
+     * @return TrainingHandle: the handle of the evolution
+     */
+    public TrainingHandle resumeClassifierAsync(Object train_data, String options){
+        return trainAsync(train_data, options, true);
+    }/*end resumeClassifierAsync*/
+    
+    /**
+     * Name: trainAsync
+     * Goal: runs train on a thread shared by the asynchronous trainings.
+     *       Unexpected failures are reported as errors of the classifier
+     * @param train_data: the training data
+     * @param options: the options used to control the genetic algorithm
+     * @param resume: true to continue the evolution saved in the checkpoint file
+     * @return TrainingHandle: the handle of the evolution
+     */
+    private TrainingHandle trainAsync(final Object train_data, final String options, final boolean resume){
+        final TrainingHandle handle = new TrainingHandle(this);
+        TRAINING_THREADS.execute(new Runnable(){
+            public void run(){
+                boolean successful = false;
+                try{
+                    successful = train(train_data, options, resume, handle);
+                }
+                catch(RuntimeException e){
+                    appendError(JFuge.class.getName(), "Training failed: "+e.getMessage());
+                }
+                finally{
+                    handle.finish(successful);
+                }
+            }
+        });
+        return handle;
+    }/*end trainAsync*/
+    
+    /**
+     * Name: train
+     * Goal: evolves a fuzzy system according to given options and dataset,
+     *       from scratch or from the checkpoint file
+     * @param train_data: the training data
+     * @param options: the options used to control the genetic algorithm
+     * @param resume: true to continue the evolution saved in the checkpoint file
+     * @param handle: receives the coevolutions, to follow them. null if the
+     *                evolution is not followed
+     * @return boolean: indicates if creation was successful or not
+     */
+    private boolean train(Object train_data, String options, boolean resume, TrainingHandle handle){
         try {
             this.setOptions(weka.core.Utils.splitOptions(options));
         } catch (Exception e) {
@@ -164,29 +458,224 @@ public class JFuge extends Function{
         
         //construction du classificateur
         //les options sont separee pour plus de lisibilite en cas d'erreur
-        Instances data = null;
-        if(train_data instanceof String)
-            data = DataLoader.loadData(null, null, (String)train_data, true);
-        else if(train_data instanceof Instances)
-            data = (Instances)train_data;
-        else{
-            System.out.println("train data not supported!");
-            this.appendError(this.getClass().getName(), "Training data format not supported");
+        Instances data = loadTrainingData(train_data);
+        if(data == null)
             return false;
-        }
         
-        Coevolution ce = new Coevolution(data, mutation_rate, crossover_rate,
+        generation_stats.clear();
+        FitnessCache cache = fitness_cache_size>0?new FitnessCache(fitness_cache_size*1024L):null;
+        EvolutionListener listener = null;
+        if(telemetry){
+            listener = new EvolutionListener(){
+                public void generationEvolved(GenerationStats stats){
+                    //islands report from their own threads
+                    synchronized(generation_stats){
+                        generation_stats.add(stats);
+                    }
+                    if(getLogLevel()>2)
+                        appendInfo(JFuge.class.getName(), stats.toString());
+                }
+            };
+        }
+        if(resume && checkpoint_path == null){
+            this.appendError(this.getClass().getName(), "No checkpoint file to resume from (-c)");
+            return false;
+        }
+        File checkpoint = checkpoint_path==null?null:new File(checkpoint_path);
+        if(resume && !checkpoint.exists()){
+            if(getLogLevel()>2)
+                this.appendInfo(this.getClass().getName(), "No checkpoint yet, a new evolution is started");
+            resume = false;
+        }
+        String token = worker_token!=null?worker_token:System.getenv(EvaluationWorker.TOKEN_VARIABLE);
+        if(worker_addresses.length > 0 && token == null){
+            this.appendError(this.getClass().getName(), "No token for the workers (-k or "+EvaluationWorker.TOKEN_VARIABLE+")");
+            return false;
+        }
+        EvaluationWorker.LocalWorkers local = null;
+        if(local_workers > 0){
+            if(token == null)
+                token = EvaluationWorker.createToken();
+            try{
+                local = EvaluationWorker.launchLocal(local_workers, token);
+            } catch(IOException e){
+                this.appendError(this.getClass().getName(), "Local workers could not be started: "+e.getMessage());
+                return false;
+            }
+        }
+        String[] workers = worker_addresses;
+        if(local != null){
+            String[] local_addresses = local.getAddresses();
+            workers = Arrays.copyOf(worker_addresses, worker_addresses.length+local_addresses.length);
+            System.arraycopy(local_addresses, 0, workers, worker_addresses.length, local_addresses.length);
+        }
+        //each coevolution has its own connections to the workers
+        LinkedList<DistributedEvaluator> evaluators = new LinkedList<DistributedEvaluator>();
+        RandomStream random = has_seed?new RandomStream(seed):new RandomStream();
+        //islands share the prepared data
+        TrainingSnapshot snapshot = new TrainingSnapshot(data);
+        Coevolution ce = createCoevolution(snapshot, cache, listener, random.split());
+        try{
+            if(island_count == 1){
+                distribute(ce, workers, token, evaluators);
+                ce.setCheckpoint(checkpoint, checkpoint_interval);
+                if(resume)
+                    ce.resume(checkpoint);
+                if(handle != null)
+                    handle.setCoevolutions(new Coevolution[]{ce});
+                fs = ce.evolveSystem();
+            }
+            else{
+                //islands share the fitness cache, they evaluate the same data
+                Coevolution[] islands = new Coevolution[island_count];
+                islands[0] = ce;
+                for(int i = 1; i < island_count; i++)
+                    islands[i] = createCoevolution(snapshot, cache, listener, random.split());
+                for(Coevolution island : islands)
+                    distribute(island, workers, token, evaluators);
+                IslandCoevolution ic = new IslandCoevolution(islands, migration_interval, migrant_count, topology);
+                ic.setCheckpoint(checkpoint, checkpoint_interval);
+                if(resume)
+                    ic.resume(checkpoint);
+                if(handle != null)
+                    handle.setCoevolutions(islands);
+                fs = ic.evolveSystem();
+            }
+        } catch(IOException e){
+            this.appendError(this.getClass().getName(), "Evolution could not be resumed: "+e.getMessage());
+            return false;
+        } finally{
+            for(DistributedEvaluator evaluator : evaluators)
+                evaluator.close();
+            if(local != null)
+                local.destroy();
+        }
+        if(getLogLevel()>2){
+            this.appendInfo(this.getClass().getName(), "Classifier was successfully created and trained");
+            if(cache != null)
+                this.appendInfo(this.getClass().getName(), cache.toString());
+        }
+        return true;
+    }/*end train*/
+    
+    /**
+     * Name: sweepClassifier
+     * Goal: evolves a system for each of the given option strings, at once,
+     *       and keeps the best one for further classification. The data is
+     *       prepared once for all candidates. Candidates are compared by
+     *       successive halving: all of them run a few generations, then only
+     *       the best ones go on, with more generations at each rung, until
+     *       a single one runs all its generations. Candidates are ranked on
+     *       the same objective (classification rate plus 2^-RMSE on the
+     *       training data), whatever their fitness weights. Islands and
+     *       checkpoints of the candidates are not used
+     * @param train_data: the data used to compute performance of a system and
+     *                    provide data information
+     * @param candidates: the options of each candidate, at least one
+     * @param min_generations: the number of generations every candidate runs
+     * @param reduction: one candidate out of reduction is kept at each rung
+     * @param threads: the number of candidates evolved at once. 0 or less
+     *                 uses one thread per processor
+     * @return SuccessiveHalving: the results of each candidate. null if the
+     *                            sweep could not be run
+     */
+    public SuccessiveHalving sweepClassifier(Object train_data, String[] candidates, int min_generations, int reduction, int threads){
+        if(candidates == null || candidates.length == 0){
+            this.appendError(this.getClass().getName(), "No candidate to sweep");
+            return null;
+        }
+        Instances data = loadTrainingData(train_data);
+        if(data == null)
+            return null;
+        TrainingSnapshot snapshot = new TrainingSnapshot(data);
+        Coevolution[] coevolutions = new Coevolution[candidates.length];
+        for(int i = 0; i < candidates.length; i++){
+            //each candidate starts from the default options
+            JFuge candidate = new JFuge();
+            try {
+                candidate.setOptions(weka.core.Utils.splitOptions(candidates[i]));
+            } catch (Exception e) {
+                this.appendError(this.getClass().getName(), "Option of candidate "+i+" not recognised: "+e.getMessage());
+                return null;
+            }
+            FitnessCache cache = candidate.fitness_cache_size>0?new FitnessCache(candidate.fitness_cache_size*1024L):null;
+            RandomStream random = candidate.has_seed?new RandomStream(candidate.seed):new RandomStream();
+            coevolutions[i] = candidate.createCoevolution(snapshot, cache, null, random.split());
+        }
+        SuccessiveHalving sweep = new SuccessiveHalving(coevolutions, snapshot, min_generations, reduction);
+        int best = sweep.run(threads>0?threads:Runtime.getRuntime().availableProcessors());
+        fs = sweep.getBestSystem(best);
+        if(getLogLevel()>2)
+            this.appendInfo(this.getClass().getName(), "Best candidate of the sweep: "+candidates[best]);
+        return sweep;
+    }/*end sweepClassifier*/
+    
+    /**
+     * Name: loadTrainingData
+     * Goal: gives the training data as a Weka dataset
+     * @param train_data: a dataset, or the path of a dataset file
+     * @return Instances: the dataset, null if its format is not supported
+     */
+    private Instances loadTrainingData(Object train_data){
+        if(train_data instanceof String)
+            return DataLoader.loadData(null, null, (String)train_data, true);
+        if(train_data instanceof Instances)
+            return (Instances)train_data;
+        System.out.println("train data not supported!");
+        this.appendError(this.getClass().getName(), "Training data format not supported");
+        return null;
+    }/*end loadTrainingData*/
+    
+    /**
+     * Name: createCoevolution
+     * Goal: creates a coevolution with the options of the classifier
+     * @param snapshot: the prepared training data
+     * @param cache: the fitness cache of the coevolution, null if disabled
+     * @param listener: listener of the coevolution, null if none
+     * @param random: the random numbers of the coevolution
+     * @return Coevolution: the coevolution, ready to evolve
+     */
+    private Coevolution createCoevolution(TrainingSnapshot snapshot, FitnessCache cache, EvolutionListener listener, RandomStream random){
+        Coevolution ce = new Coevolution(snapshot, mutation_rate, crossover_rate,
                                          selection_rate, pop_size,
                                          num_generations, false,
                                          selection_algorithm, error_algorithm,
                                          elitism_rate, tournament_size, 
                                          classification_weight, error_weight,
-                                         rule_number_weight, var_per_rule_weight, rule_count);
-        fs = ce.evolveSystem();
-        if(getLogLevel()>2)
-            this.appendInfo(this.getClass().getName(), "Classifier was successfully created and trained");
-        return true;
-    }/*end createClassifier*/
+                                         rule_number_weight, var_per_rule_weight, rule_count,
+                                         random);
+        ce.setEvaluationThreads(eval_threads);
+        ce.setStagnationLimit(stagnation_limit);
+        ce.setTargetFitness(target_fitness);
+        ce.setTimeBudget(time_budget);
+        ce.setFitnessCache(cache);
+        ce.setMiniBatch(batch_size, rescore_policy);
+        ce.setDeltaEvaluation(delta_evaluation);
+        ce.setSparseInference(sparse_inference);
+        ce.setDoubleBuffering(double_buffering);
+        if(listener != null)
+            ce.addEvolutionListener(listener);
+        return ce;
+    }/*end createCoevolution*/
+    
+    /**
+     * Name: distribute
+     * Goal: has workers score the individuals of a coevolution, through
+     *       connections of its own
+     * @param ce: the coevolution
+     * @param workers: the addresses of the workers. None scores the
+     *                 individuals in this JVM
+     * @param token: the shared token of the workers
+     * @param evaluators: receives the connections, to close them once
+     *                    evolution is over
+     */
+    private void distribute(Coevolution ce, String[] workers, String token, LinkedList<DistributedEvaluator> evaluators){
+        if(workers.length == 0)
+            return;
+        DistributedEvaluator evaluator = new DistributedEvaluator(workers, token);
+        evaluators.add(evaluator);
+        ce.setDistributedEvaluation(evaluator);
+    }/*end distribute*/
     
     /**
      * Name: classifyInstances
@@ -196,8 +685,8 @@ public class JFuge extends Function{
      * @return double[]: the classification for each instance
      */
     public double[] classifyInstances(Instances test_data){
-        double[] result = fs.classifyInstances(test_data);
-        System.out.println(fs);
+        double[] result = new double[test_data.numInstances()];
+        fs.scoreInstances(test_data, null, result, eval_threads);
         return result;
     }/*end distributionForInstance*/
     
@@ -207,13 +696,95 @@ public class JFuge extends Function{
      * @return double[][]: the distribution for each instance
      */
     public double[][] distributionForInstances(Instances test_data){
-        return fs.distributionForInstances(test_data);
+        double[][] result = new double[test_data.numInstances()][test_data.classAttribute().numValues()];
+        fs.scoreInstances(test_data, result, null, eval_threads);
+        return result;
     }
+    
+    /**
+     * Name: scoreInstances
+     * Goal: computes the distribution and the classification of each instance
+     *       of the dataset in a single pass, into arrays given by the caller.
+     *       Large datasets are split over the evaluation threads (-J)
+     * @param test_data: the data to classify
+     * @param distribution: receives the distribution for each instance. null
+     *                      if not needed
+     * @param classes: receives the classification for each instance. null if
+     *                 not needed
+     */
+    public void scoreInstances(Instances test_data, double[][] distribution, double[] classes){
+        fs.scoreInstances(test_data, distribution, classes, eval_threads);
+    }/*end scoreInstances*/
+    
+    /**
+     * Name: classifyDistribution
+     * Goal: computes the classification of each instance from its
+     *       distribution, without classifying the instances again
+     * @param distribution: the distribution for each instance, as given by
+     *                      distributionForInstances
+     * @return double[]: the classification for each instance
+     */
+    public double[] classifyDistribution(double[][] distribution){
+        double[] result = new double[distribution.length];
+        for(int i = 0; i < distribution.length; i++)
+            result[i] = FuzzySystem.mostLikelyClass(distribution[i]);
+        return result;
+    }/*end classifyDistribution*/
 
+    /**
+     * Name: saveSystem
+     * Goal: saves the evolved system into a file
+     * @param path: the file to write
+     * @return boolean: indicates if the system was saved
+     * @see FuzzySystemFile
+     */
+    public boolean saveSystem(String path){
+        if(fs == null){
+            this.appendError(this.getClass().getName(), "No system to save, createClassifier must be called first");
+            return false;
+        }
+        try{
+            FuzzySystemFile.save(fs, new File(path));
+            return true;
+        } catch(IOException e){
+            this.appendError(this.getClass().getName(), "System could not be saved: "+e.getMessage());
+            return false;
+        }
+    }/*end saveSystem*/
+    
+    /**
+     * Name: loadSystem
+     * Goal: loads a system saved by saveSystem. It replaces the evolved system
+     *       and classifies instances like it did when saved
+     * @param path: the file to read
+     * @return boolean: indicates if the system was loaded
+     * @see FuzzySystemFile
+     */
+    public boolean loadSystem(String path){
+        try{
+            fs = FuzzySystemFile.load(new File(path));
+            return true;
+        } catch(IOException e){
+            this.appendError(this.getClass().getName(), "System could not be loaded: "+e.getMessage());
+            return false;
+        }
+    }/*end loadSystem*/
+    
     public FuzzySystem getFuzzySystem() {
         return fs;
     }/*end distributionForInstance*/
     
+    /**
+     * Name: getGenerationStats
+     * @return GenerationStats[]: the statistics of each generation of the last
+     *                            evolution. Empty if telemetry is not enabled
+     */
+    public GenerationStats[] getGenerationStats(){
+        synchronized(generation_stats){
+            return generation_stats.toArray(new GenerationStats[generation_stats.size()]);
+        }
+    }/*end getGenerationStats*/
+    
     /**
      * Name: setOptions
      * Goal: modifies the options according to the users wishes
@@ -322,6 +893,124 @@ public class JFuge extends Function{
             this.rule_count = Integer.parseInt(rule_count_str);
         if(this.rule_count < 0)
             throw new Exception("Number of rules must be positive: "+rule_count_str);
+        
+        //set number of evaluation threads
+        String eval_threads_str = Utils.getOption('J', opts);
+        if(eval_threads_str.length() != 0)
+            this.eval_threads = Integer.parseInt(eval_threads_str);
+        if(this.eval_threads <= 0)
+            throw new Exception("Number of evaluation threads must be positive: "+eval_threads_str);
+        
+        //set stop conditions
+        String stagnation_str = Utils.getOption('Q', opts);
+        if(stagnation_str.length() != 0)
+            this.stagnation_limit = Integer.parseInt(stagnation_str);
+        if(this.stagnation_limit < 0)
+            throw new Exception("Number of stagnation generations must be positive: "+stagnation_str);
+        
+        String target_fitness_str = Utils.getOption('F', opts);
+        if(target_fitness_str.length() != 0)
+            this.target_fitness = Double.parseDouble(target_fitness_str);
+        
+        String time_budget_str = Utils.getOption('B', opts);
+        if(time_budget_str.length() != 0)
+            this.time_budget = Long.parseLong(time_budget_str);
+        if(this.time_budget < 0)
+            throw new Exception("Time budget must be positive: "+time_budget_str);
+        
+        //set island model
+        String island_count_str = Utils.getOption('I', opts);
+        if(island_count_str.length() != 0)
+            this.island_count = Integer.parseInt(island_count_str);
+        if(this.island_count <= 0)
+            throw new Exception("Number of islands must be positive: "+island_count_str);
+        
+        String migration_interval_str = Utils.getOption('O', opts);
+        if(migration_interval_str.length() != 0)
+            this.migration_interval = Integer.parseInt(migration_interval_str);
+        if(this.migration_interval <= 0)
+            throw new Exception("Migration interval must be positive: "+migration_interval_str);
+        
+        String migrant_count_str = Utils.getOption('K', opts);
+        if(migrant_count_str.length() != 0)
+            this.migrant_count = Integer.parseInt(migrant_count_str);
+        if(this.migrant_count < 0 || this.migrant_count > pop_size)
+            throw new Exception("Number of migrants must be between 0 and the population size: "+migrant_count_str);
+        
+        String topology_str = Utils.getOption('H', opts);
+        if(topology_str.length() != 0){
+            if(topology_str.equals(TOPOLOGY_RING) || topology_str.equals(TOPOLOGY_FULL))
+                this.topology = topology_str;
+            else
+                throw new Exception("Island topology not supported: "+topology_str);
+        }
+        
+        //set seed
+        String seed_str = Utils.getOption('D', opts);
+        if(seed_str.length() != 0){
+            this.seed = Long.parseLong(seed_str);
+            this.has_seed = true;
+        }
+        
+        //enable telemetry
+        this.telemetry = Utils.getFlag('L', opts);
+        
+        //set size of fitness cache
+        String cache_size_str = Utils.getOption('m', opts);
+        if(cache_size_str.length() != 0)
+            this.fitness_cache_size = Integer.parseInt(cache_size_str);
+        if(this.fitness_cache_size < 0)
+            throw new Exception("Fitness cache size must be positive or 0: "+cache_size_str);
+        
+        //set mini-batch size and rescoring policy
+        String batch_size_str = Utils.getOption('U', opts);
+        if(batch_size_str.length() != 0)
+            this.batch_size = Integer.parseInt(batch_size_str);
+        if(this.batch_size < 0)
+            throw new Exception("Mini-batch size must be positive or 0: "+batch_size_str);
+        
+        String rescore_str = Utils.getOption('V', opts);
+        if(rescore_str.length() != 0){
+            if(rescore_str.equals(RESCORE_FINAL) || rescore_str.equals(RESCORE_ELITE))
+                this.rescore_policy = rescore_str;
+            else
+                throw new Exception("Rescoring policy not supported: "+rescore_str);
+        }
+        
+        //enable delta evaluation
+        this.delta_evaluation = Utils.getFlag('d', opts);
+        
+        //enable sparse inference
+        this.sparse_inference = Utils.getFlag('s', opts);
+        
+        //enable double buffering
+        this.double_buffering = Utils.getFlag('b', opts);
+        
+        //set checkpoints
+        String checkpoint_str = Utils.getOption('c', opts);
+        if(checkpoint_str.length() != 0)
+            this.checkpoint_path = checkpoint_str;
+        
+        String checkpoint_interval_str = Utils.getOption('i', opts);
+        if(checkpoint_interval_str.length() != 0)
+            this.checkpoint_interval = Integer.parseInt(checkpoint_interval_str);
+        if(this.checkpoint_interval <= 0)
+            throw new Exception("Checkpoint interval must be positive: "+checkpoint_interval_str);
+        
+        //set distributed evaluation
+        String workers_str = Utils.getOption('w', opts);
+        if(workers_str.length() != 0)
+            this.worker_addresses = workers_str.split(",");
+        
+        String local_workers_str = Utils.getOption('n', opts);
+        if(local_workers_str.length() != 0)
+            this.local_workers = Integer.parseInt(local_workers_str);
+        if(this.local_workers < 0)
+            throw new Exception("Number of local workers must be positive or 0: "+local_workers_str);
+        
+        String worker_token_str = Utils.getOption('k', opts);
+        if(worker_token_str.length() != 0)
+            this.worker_token = worker_token_str;
     }/*end setOptions*/
     
     /**
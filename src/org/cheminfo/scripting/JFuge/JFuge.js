@@ -22,6 +22,7 @@ var JFuge = {
 	 *        - classifyInstances: for each instance, the most likely class
 	 *        - distributionForInstances: for each instance, the probability of membership for each class
 	 *        - system: may be true, false or absent. Returns the chosen system.    
+	 *        - generations: statistics of each generation, if telemetry was enabled
 	 * @param train_data: The train dataset
 	 * @param test_data: The test dataset
 	 * @option mutationRate: changes the rate at which genes mutate.
@@ -59,6 +60,59 @@ var JFuge = {
 	 *                                per rule during fitness computation.
 	 *                                Default value: 1. MUST be between 0-1
 	 * @option  ruleNumber: set the maximum number of rules a system may take.
+	 * @option  evaluationThreads: sets the number of threads computing the fitness
+	 *                           of the individuals of a generation, and classifying
+	 *                           large test datasets. Default value: 1
+	 * @option  fitnessCacheSize: sets the memory, in kilobytes, of the cache remembering the
+	 *                          fitness of evaluated individuals, so copies are not
+	 *                          evaluated again. Default value: 0 (no cache)
+	 * @option  miniBatchSize: sets the number of training rows individuals are scored on at
+	 *                       each generation, drawn again at each generation with the same
+	 *                       proportion of each class. Default value: 0 (all rows)
+	 * @option  rescorePolicy: sets when individuals scored on a mini-batch are scored on
+	 *                       all rows. Available values: "final" (fittest individuals of
+	 *                       the last generation, default) and "elite" (elite of each generation)
+	 * @option  deltaEvaluation: if true, individuals are evaluated incrementally: only the
+	 *                         parts of the genes changed by mutation or crossover are
+	 *                         evaluated again. Same fitness, more memory used
+	 * @option  sparseInference: if true, systems index their rules by term, so each instance
+	 *                         only reads the rules it may activate. Same results
+	 * @option  doubleBuffering: if true, children are bred into genes allocated once,
+	 *                         instead of new ones at each generation. Same results
+	 * @option  checkpoint: path of a file where the state of the evolution is saved every
+	 *                    few generations, in the background
+	 * @option  checkpointInterval: sets the number of generations between two checkpoints.
+	 *                            Default value: 10
+	 * @option  workers: "host:port" addresses of worker JVMs scoring the individuals, as an
+	 *                 array or a comma separated string. Same results
+	 * @option  localWorkers: number of worker processes started on this machine for the
+	 *                      evolution. Default value: 0
+	 * @option  workerToken: shared token of the workers. Default value: the
+	 *                     JFUGE_WORKER_TOKEN environment variable
+	 * @option  resume: if true, continues the evolution saved in the checkpoint file
+	 *                instead of starting a new one. Other options must be the ones of
+	 *                the saved evolution
+	 * @option  stagnationGenerations: stops evolution when the best fitness has not
+	 *                               improved for this number of generations. 0 disables it
+	 * @option  targetFitness: stops evolution as soon as a system reaches this fitness
+	 * @option  timeBudget: stops evolution once this number of milliseconds is spent.
+	 *                    0 disables it. When a stop condition is set, the best
+	 *                    system of the whole evolution is kept
+	 * @option  islands: sets the number of populations evolving in parallel, each on
+	 *                 its own thread. The best system of all islands is kept. Default value: 1
+	 * @option  migrationInterval: sets the number of generations between two migrations
+	 *                           between islands. Default value: 10
+	 * @option  migrants: sets the number of individuals an island sends at each migration.
+	 *                  Default value: 2
+	 * @option  topology: sets where islands send their migrants. Available values:
+	 *                  "ring" (next island, default) and "full" (all islands)
+	 * @option  seed: sets the seed of the random numbers. The same options and seed
+	 *              always give the same system. Without seed, each evolution is different
+	 * @option  telemetry: if true, the statistics of each generation (times, evaluations
+	 *                   per second, best/mean/worst fitness, memory) are returned in
+	 *                   the generations field of the result
+	 * @option  saveModel: path of a file into which the evolved system is saved, to be
+	 *                   used later by classifyJFugeModel without evolving it again
 	 * @option  dataAttributes: if data is an array or a JSON, use this options
 	 *                        to give names, types, and, if needed, values to
 	 *                        attributes.
@@ -108,18 +162,77 @@ var JFuge = {
         
         //creation and training of classifier
         var classifier = JFuge_Java.createJFuge();
-        classifier.createClassifier(train_instances, opts[0]);
+        if(options.resume)
+            classifier.resumeClassifier(train_instances, opts[0]);
+        else
+            classifier.createClassifier(train_instances, opts[0]);
+        if(options.saveModel!=undefined)
+            classifier.saveSystem(options.saveModel);
+        
+        //distribution for each instance, computed in a single pass
+        var distribution = classifier.distributionForInstances(test_instances);
         
         //classification of instances
-        //most likely class
+        //most likely class, derived from the distribution
         var classify_instance = [];
         if(options.classifyInstance)
-            classify_instance = classifier.classifyInstances(test_instances);
+            classify_instance = classifier.classifyDistribution(distribution);
+        
+        //returning of result
+        var result = new Object();
+        result.distributionForInstance = distribution;
+        if(classify_instance.length != 0)
+            result.classifyInstance = classify_instance;
+        if(options.system)
+            result.system = classifier.getFuzzySystem();
+        if(options.telemetry)
+            result.generations = classifier.getGenerationStats();
+        
+        result.percent = JFuge.computeResults(test_instances, classify_instance);
+        
+        var classes = [];
+        for(var j = 0; j < test_instances.numAttributes(); j++)
+            classes[j] = train_instances.attribute(j).name();
+        result.classes = classes;
+        
+        return result;
+        
+    },
+    
+    /**
+     * @function classifyJFugeModel(model, test_data, options);
+     * Classifies data with a fuzzy system saved by classifyJFuge (option saveModel),
+     * without evolving a new system and without the training data.
+     * The function returns the same object as classifyJFuge, without generations
+     * @param model: path of the saved system
+     * @param test_data: The test dataset
+     * @option  dataAttributes, datasetName, classIndex, classifyInstance, system: same as classifyJFuge
+     */
+    classifyJFugeModel: function(model, test_data, options){
+        var opts = JFuge.parseJFugeOptions(options);
+        
+        //loading of test_data
+        var test_instances;
+        if(test_data instanceof Array)
+            test_instances = DataLoader.loadDataFromArray(test_data, opts[1], opts[2], true);
+        else if(test_data instanceof Object)
+            test_instances = DataLoader.loadDataFromJSONObject(test_data, opts[1], opts[2], true);
+        else
+            test_instances = DataLoader.loadData(test_data, true);
+        
+        if(options.classIndex!=undefined && options.classIndex != -1){
+            test_instances.setClassIndex(options.classIndex);
+        }
+        
+        //loading of classifier
+        var classifier = JFuge_Java.createJFuge();
+        if(!classifier.loadSystem(model))
+            return null;
         
-        //distribution for each instance
-        //var distribution = [];
-        //for(var i = 0; i < test_instances.numInstances(); i++)
         var distribution = classifier.distributionForInstances(test_instances);
+        var classify_instance = [];
+        if(options.classifyInstance)
+            classify_instance = classifier.classifyDistribution(distribution);
         
         //returning of result
         var result = new Object();
@@ -133,11 +246,193 @@ var JFuge = {
         
         var classes = [];
         for(var j = 0; j < test_instances.numAttributes(); j++)
-            classes[j] = train_instances.attribute(j).name();
+            classes[j] = test_instances.attribute(j).name();
         result.classes = classes;
         
         return result;
+    },
+    
+    /**
+     * @function trainJFuge(train_data, options);
+     * Starts the evolution of a fuzzy system in the background and returns at once.
+     * The function returns a handle on the running evolution:
+	 *        - getGeneration(): number of generations run so far
+	 *        - getBestFitness(), getBestSystem(): best system found so far
+	 *        - cancel(): stops the evolution after the current generation, keeping
+	 *                  the best system found so far
+	 *        - await(timeout): waits at most timeout milliseconds for the end of the
+	 *                        evolution. Returns true once it is over
+	 *        - isDone(), isSuccessful(): tell if the evolution is over, and if it succeeded
+	 *        - getClassifier(): once the evolution is over, the classifier to use on
+	 *                         test data (distributionForInstances, classifyDistribution)
+	 * @param train_data: The train dataset
+	 * @option  all options of classifyJFuge about the evolution and the data
+     */
+    trainJFuge: function(train_data, options){
+        var opts = JFuge.parseJFugeOptions(options);
+        
+        //loading of training data
+        var train_instances;
+        if(train_data instanceof Array)
+            train_instances = DataLoader.loadDataFromArray(train_data, opts[1], opts[2], true);
+        else if(train_data instanceof Object)
+            train_instances = DataLoader.loadDataFromJSONObject(train_data, opts[1], opts[2], true);
+        else
+            train_instances = DataLoader.loadData(train_data, true);
+        
+        if(options.classIndex!=undefined && options.classIndex != -1){
+            train_instances.setClassIndex(options.classIndex);
+        }
+        
+        var classifier = JFuge_Java.createJFuge();
+        if(options.resume)
+            return classifier.resumeClassifierAsync(train_instances, opts[0]);
+        return classifier.createClassifierAsync(train_instances, opts[0]);
+    },
+    
+    /**
+     * @function sweepJFuge(train_data, test_data, options);
+     * Evolves one fuzzy system per combination of option values, at once and on the same
+     * training data, and classifies the test data with the best one. Combinations are
+     * compared by successive halving: all of them run a few generations, then only the
+     * best scored ones go on with more generations, until a single one runs all its generations.
+     * The function returns the same object as classifyJFuge, with two more fields:
+	 *        - sweep: for each combination, its options, the score of its best system
+	 *          (classification rate plus 2^-RMSE on the train dataset, the same for all
+	 *          combinations), the fitness of its best system (with its own weights),
+	 *                 the generations it ran and the number of rungs it took part in
+	 *        - best: the index of the best combination in sweep
+	 * @param train_data: The train dataset
+	 * @param test_data: The test dataset
+	 * @option  grid: object giving, for each option of classifyJFuge to sweep, the array of
+	 *              its values. Every combination of values is a candidate. Other options
+	 *              are shared by all candidates
+	 * @option  samples: if set, only this number of combinations, drawn at random, are run.
+	 *                 The draw only depends on seed, if given
+	 * @option  minGenerations: number of generations every candidate runs. Default value: 5
+	 * @option  reduction: one candidate out of this number is kept at each rung. Default value: 3
+	 * @option  threads: number of candidates evolved at once. Default value: one per processor
+     */
+    sweepJFuge: function(train_data, test_data, options){
+        //every combination of the values of the grid
+        var combinations = [{}];
+        var grid = options.grid!=undefined?options.grid:{};
+        for(var name in grid){
+            var extended = [];
+            for(var c = 0; c < combinations.length; c++){
+                for(var v = 0; v < grid[name].length; v++){
+                    var combination = {};
+                    for(var key in combinations[c])
+                        combination[key] = combinations[c][key];
+                    combination[name] = grid[name][v];
+                    extended.push(combination);
+                }
+            }
+            combinations = extended;
+        }
+        var classifier = JFuge_Java.createJFuge();
+        //random sample of the combinations
+        if(options.samples!=undefined && options.samples < combinations.length){
+            var random = JFuge.createRandom(options.seed);
+            for(var i = combinations.length-1; i > 0; i--){
+                var j = Math.floor(random()*(i+1));
+                var swapped = combinations[i];
+                combinations[i] = combinations[j];
+                combinations[j] = swapped;
+            }
+            combinations = combinations.slice(0, options.samples);
+        }
+        if(combinations.length == 0){
+            classifier.appendError("JFuge", "No combination to sweep");
+            return null;
+        }
+        //options of each candidate
+        var candidates = [];
+        var opts;
+        for(var c = 0; c < combinations.length; c++){
+            var candidate_options = {};
+            for(var key in options)
+                candidate_options[key] = options[key];
+            for(var key in combinations[c])
+                candidate_options[key] = combinations[c][key];
+            opts = JFuge.parseJFugeOptions(candidate_options);
+            candidates[c] = opts[0];
+        }
+        
+        //loading of data
+        var train_instances;
+        if(train_data instanceof Array)
+            train_instances = DataLoader.loadDataFromArray(train_data, opts[1], opts[2], true);
+        else if(train_data instanceof Object)
+            train_instances = DataLoader.loadDataFromJSONObject(train_data, opts[1], opts[2], true);
+        else
+            train_instances = DataLoader.loadData(train_data, true);
+        var test_instances;
+        if(test_data instanceof Array)
+            test_instances = DataLoader.loadDataFromArray(test_data, opts[1], opts[2], true);
+        else if(test_data instanceof Object)
+            test_instances = DataLoader.loadDataFromJSONObject(test_data, opts[1], opts[2], true);
+        else
+            test_instances = DataLoader.loadData(test_data, true);
+        if(options.classIndex!=undefined && options.classIndex != -1){
+            train_instances.setClassIndex(options.classIndex);
+            test_instances.setClassIndex(options.classIndex);
+        }
+        
+        //sweep
+        var sweep = classifier.sweepClassifier(train_instances, candidates,
+                        options.minGenerations!=undefined?options.minGenerations:5,
+                        options.reduction!=undefined?options.reduction:3,
+                        options.threads!=undefined?options.threads:0);
+        if(sweep == null)
+            return null;
+        
+        var distribution = classifier.distributionForInstances(test_instances);
+        var classify_instance = [];
+        if(options.classifyInstance)
+            classify_instance = classifier.classifyDistribution(distribution);
+        
+        //returning of result
+        var result = new Object();
+        result.distributionForInstance = distribution;
+        if(classify_instance.length != 0)
+            result.classifyInstance = classify_instance;
+        if(options.system)
+            result.system = classifier.getFuzzySystem();
+        result.sweep = [];
+        for(var c = 0; c < candidates.length; c++){
+            result.sweep[c] = {options: combinations[c],
+                               score: sweep.getScore(c),
+                               fitness: sweep.getFitness(c),
+                               generations: sweep.getGenerationsRun(c),
+                               rungs: sweep.getRungs(c)};
+        }
+        result.best = sweep.getBestCandidate();
         
+        result.percent = JFuge.computeResults(test_instances, classify_instance);
+        
+        var classes = [];
+        for(var j = 0; j < test_instances.numAttributes(); j++)
+            classes[j] = train_instances.attribute(j).name();
+        result.classes = classes;
+        
+        return result;
+    },
+    
+    /**
+     * @function createRandom(seed);
+     * Creates a generator of random numbers in [0, 1). With a seed, the generator
+     * always gives the same numbers (Park-Miller minimal standard generator)
+     * @param seed: the seed, or undefined for Math.random
+     */
+    createRandom: function(seed){
+        if(seed == undefined)
+            return Math.random;
+        var state = Math.abs(Math.floor(seed))%2147483646+1;
+        return function(){
+            state = (state*16807)%2147483647;
+            return (state-1)/2147483646;
+        };
     },
     
     computeResults: function(test_instances, classification){
@@ -149,6 +444,16 @@ var JFuge = {
         return 100*count/test_instances.numInstances();
     },
     
+    /**
+     * @function quoteOption(value);
+     * Quotes a free text option as weka.core.Utils.joinOptions does, so a value
+     * holding spaces, quotes or backslashes is read back as it was given
+     * @param value: the value of the option
+     */
+    quoteOption: function(value){
+        return "\""+String(value).replace(/\\/g, "\\\\").replace(/"/g, "\\\"")+"\"";
+    },
+    
     parseJFugeOptions: function(options){
          var opts = [];
          //method options
@@ -181,6 +486,48 @@ var JFuge = {
              opts[0] += [" -Z "]+[options.varPerRuleNumberWeight];
          if(options.ruleNumber!=undefined)
              opts[0] += [" -N "]+[options.ruleNumber];
+         if(options.evaluationThreads!=undefined)
+             opts[0] += [" -J "]+[options.evaluationThreads];
+         if(options.fitnessCacheSize!=undefined)
+             opts[0] += [" -m "]+[options.fitnessCacheSize];
+         if(options.stagnationGenerations!=undefined)
+             opts[0] += [" -Q "]+[options.stagnationGenerations];
+         if(options.targetFitness!=undefined)
+             opts[0] += [" -F "]+[options.targetFitness];
+         if(options.timeBudget!=undefined)
+             opts[0] += [" -B "]+[options.timeBudget];
+         if(options.islands!=undefined)
+             opts[0] += [" -I "]+[options.islands];
+         if(options.migrationInterval!=undefined)
+             opts[0] += [" -O "]+[options.migrationInterval];
+         if(options.migrants!=undefined)
+             opts[0] += [" -K "]+[options.migrants];
+         if(options.topology!=undefined)
+             opts[0] += [" -H "]+[options.topology];
+         if(options.seed!=undefined)
+             opts[0] += [" -D "]+[options.seed];
+         if(options.telemetry)
+             opts[0] += [" -L"];
+         if(options.miniBatchSize!=undefined)
+             opts[0] += [" -U "]+[options.miniBatchSize];
+         if(options.rescorePolicy!=undefined)
+             opts[0] += [" -V "]+[options.rescorePolicy];
+         if(options.deltaEvaluation)
+             opts[0] += [" -d"];
+         if(options.sparseInference)
+             opts[0] += [" -s"];
+         if(options.doubleBuffering)
+             opts[0] += [" -b"];
+         if(options.checkpoint!=undefined)
+             opts[0] += [" -c "]+[JFuge.quoteOption(options.checkpoint)];
+         if(options.checkpointInterval!=undefined)
+             opts[0] += [" -i "]+[options.checkpointInterval];
+         if(options.workers!=undefined)
+             opts[0] += [" -w "]+[JFuge.quoteOption(options.workers)];
+         if(options.localWorkers!=undefined)
+             opts[0] += [" -n "]+[options.localWorkers];
+         if(options.workerToken!=undefined)
+             opts[0] += [" -k "]+[JFuge.quoteOption(options.workerToken)];
          //data attribute options
          if(options.dataAttributes!=undefined)
              opts[1] = options.dataAttributes;
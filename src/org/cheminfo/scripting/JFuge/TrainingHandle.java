@@ -0,0 +1,175 @@
+/**
+ * Name: TrainingHandle
+ * Goal: follows a training started by JFuge.createClassifierAsync or
+ *       JFuge.resumeClassifierAsync, which runs on its own thread. The
+ *       caller is never blocked, unless it waits for the training to end
+ * Methods:
+ *      - getGeneration: number of generations run so far
+ *      - getBestFitness, getBestSystem: best system found so far and its
+ *                                       fitness, while the training runs
+ *      - cancel: stops the training after the current generation. The best
+ *                system found so far becomes the system of the classifier
+ *      - await: waits for the end of the training, at most a given time
+ *      - isDone, isSuccessful: tell if the training is over, and if it
+ *                              succeeded
+ *      - getClassifier: the classifier being trained. Once the training is
+ *                       over, it classifies with the evolved system
+ * Usage: all methods may be called from any thread. With islands, progress
+ *        is the one of the most advanced island. The classifier must not be
+ *        used until the training is over
+ * @see JFuge
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.cheminfo.scripting.JFuge.CoEvolution.Coevolution;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystem;
+
+public class TrainingHandle {
+    
+    //the classifier being trained
+    private final JFuge classifier;
+    
+    //coevolutions of the training, null until they are created
+    private volatile Coevolution[] coevolutions;
+    
+    //indicates if cancel was called
+    private volatile boolean cancelled = false;
+    
+    //indicates if the training succeeded, once it is over
+    private volatile boolean successful = false;
+    
+    //released once the training is over
+    private final CountDownLatch done = new CountDownLatch(1);
+    
+    /**
+     * Name: TrainingHandle
+     * Goal: creates the handle of a training that has not started yet
+     * @param classifier: the classifier being trained
+     */
+    TrainingHandle(JFuge classifier){
+        this.classifier = classifier;
+    }/*end TrainingHandle*/
+    
+    /**
+     * Name: setCoevolutions
+     * Goal: gives the coevolutions of the training, once created. If the
+     *       training was cancelled before, they are cancelled at once
+     * @param coevolutions: the coevolution, or the islands
+     */
+    void setCoevolutions(Coevolution[] coevolutions){
+        this.coevolutions = coevolutions;
+        if(cancelled)
+            for(Coevolution ce : coevolutions)
+                ce.cancel();
+    }/*end setCoevolutions*/
+    
+    /**
+     * Name: finish
+     * Goal: marks the training as over and wakes up the waiting threads
+     * @param successful: true if a system was evolved
+     */
+    void finish(boolean successful){
+        this.successful = successful;
+        done.countDown();
+    }/*end finish*/
+    
+    /**
+     * Name: getGeneration
+     * @return int: the number of generations run so far, 0 if the training
+     *              has not started
+     */
+    public int getGeneration(){
+        Coevolution[] current = coevolutions;
+        int generation = 0;
+        if(current != null)
+            for(Coevolution ce : current)
+                generation = Math.max(generation, ce.getGenerationsRun());
+        return generation;
+    }/*end getGeneration*/
+    
+    /**
+     * Name: getBestSystem
+     * Goal: gives the fittest system found so far, without waiting for the
+     *       training
+     * @return FuzzySystem: the best system so far, null if no generation was
+     *                      evaluated yet
+     */
+    public FuzzySystem getBestSystem(){
+        Coevolution[] current = coevolutions;
+        FuzzySystem result = null;
+        FuzzySystem candidate;
+        if(current != null){
+            for(Coevolution ce : current){
+                candidate = ce.getBestSoFar();
+                if(result == null || (candidate != null && candidate.getFitness() > result.getFitness()))
+                    result = candidate;
+            }
+        }
+        return result;
+    }/*end getBestSystem*/
+    
+    /**
+     * Name: getBestFitness
+     * @return double: the fitness of the best system so far, NaN if no
+     *                 generation was evaluated yet
+     */
+    public double getBestFitness(){
+        FuzzySystem best = getBestSystem();
+        return best==null?Double.NaN:best.getFitness();
+    }/*end getBestFitness*/
+    
+    /**
+     * Name: cancel
+     * Goal: stops the training after the current generation. Has no effect
+     *       once the training is over
+     */
+    public void cancel(){
+        cancelled = true;
+        Coevolution[] current = coevolutions;
+        if(current != null)
+            for(Coevolution ce : current)
+                ce.cancel();
+    }/*end cancel*/
+    
+    public boolean isCancelled(){
+        return cancelled;
+    }/*end isCancelled*/
+    
+    /**
+     * Name: await
+     * Goal: waits for the end of the training
+     * @param timeout: the longest time to wait, in milliseconds. 0 or less
+     *                 only checks if the training is over
+     * @return boolean: true if the training is over
+     */
+    public boolean await(long timeout){
+        try{
+            return done.await(Math.max(0, timeout), TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            return isDone();
+        }
+    }/*end await*/
+    
+    public boolean isDone(){
+        return done.getCount() == 0;
+    }/*end isDone*/
+    
+    /**
+     * Name: isSuccessful
+     * @return boolean: true if the training is over and a system was evolved.
+     *                  Errors are reported by the classifier
+     */
+    public boolean isSuccessful(){
+        return isDone() && successful;
+    }/*end isSuccessful*/
+    
+    public JFuge getClassifier(){
+        return classifier;
+    }/*end getClassifier*/
+
+}/*end TrainingHandle*/
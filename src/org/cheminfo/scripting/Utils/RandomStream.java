@@ -0,0 +1,179 @@
+/**
+ * Name: RandomStream
+ * Goal: fast, seedable generator of pseudo random numbers (SplitMix64
+ *       algorithm, the one behind SplittableRandom). A stream is not
+ *       synchronized: each thread must use its own stream. Independent
+ *       streams for other threads are obtained with split, so a whole run
+ *       is reproducible from a single seed.
+ * Methods: - nextLong, nextDouble: uniform random numbers
+ *          - randomDouble, randomInt: random numbers in a range, same ranges
+ *            as Tools.randomDouble and Tools.randomInt
+ *          - split: creates a new, independent stream
+ *          - writeState, readState: save a stream and restore it later, to
+ *            continue drawing the same numbers
+ * @see Tools
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.Utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RandomStream {
+    
+    //odd constant used as default increment
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    
+    //seeds unseeded streams, so that two of them never start at the same state
+    private static final AtomicLong DEFAULT_SEED = new AtomicLong(mix64(System.currentTimeMillis())^mix64(System.nanoTime()));
+    
+    //state of the stream
+    private long seed;
+    
+    //increment of the state. Always odd
+    private final long gamma;
+    
+    /**
+     * Name: RandomStream
+     * Goal: creates a stream with an unpredictable seed
+     */
+    public RandomStream(){
+        this(DEFAULT_SEED.getAndAdd(2*GOLDEN_GAMMA));
+    }/*end RandomStream*/
+    
+    /**
+     * Name: RandomStream
+     * Goal: creates a stream from a seed. Two streams with the same seed
+     *       produce the same numbers
+     * @param seed: the seed
+     */
+    public RandomStream(long seed){
+        this(seed, GOLDEN_GAMMA);
+    }/*end RandomStream*/
+    
+    private RandomStream(long seed, long gamma){
+        this.seed = seed;
+        this.gamma = gamma;
+    }/*end RandomStream*/
+    
+    /**
+     * Name: split
+     * Goal: creates a new stream, independent from this one. Its numbers
+     *       only depend on the numbers drawn from this stream before the split
+     * @return RandomStream: the new stream
+     */
+    public RandomStream split(){
+        return new RandomStream(nextLong(), mixGamma(nextSeed()));
+    }/*end split*/
+    
+    /**
+     * Name: writeState
+     * Goal: writes the state of the stream
+     * @param out: the output to write into
+     * @throws IOException: if the output cannot be written
+     */
+    public void writeState(DataOutput out) throws IOException{
+        out.writeLong(seed);
+        out.writeLong(gamma);
+    }/*end writeState*/
+    
+    /**
+     * Name: readState
+     * Goal: restores a stream saved by writeState. The restored stream draws
+     *       the numbers the saved one would have drawn
+     * @param in: the input to read from
+     * @return RandomStream: the restored stream
+     * @throws IOException: if the input cannot be read or is not a stream state
+     */
+    public static RandomStream readState(DataInput in) throws IOException{
+        long seed = in.readLong();
+        long gamma = in.readLong();
+        if((gamma&1L) == 0)
+            throw new IOException("Invalid random stream state");
+        return new RandomStream(seed, gamma);
+    }/*end readState*/
+    
+    /**
+     * Name: nextLong
+     * @return long: a uniform random long
+     */
+    public long nextLong(){
+        return mix64(nextSeed());
+    }/*end nextLong*/
+    
+    /**
+     * Name: nextDouble
+     * @return double: a uniform random double in [0, 1[
+     */
+    public double nextDouble(){
+        return (nextLong()>>>11)*0x1.0p-53;
+    }/*end nextDouble*/
+    
+    /**
+     * Name: randomDouble
+     * @param min: minimum value
+     * @param max: maximum value
+     * @return double: a random number between min (included) and max (excluded)
+     */
+    public double randomDouble(double min, double max){
+        return (nextDouble()*(max-min))+min;
+    }/*end randomDouble*/
+    
+    /**
+     * Name: randomInt
+     * @param min: minimum value
+     * @param max: maximum value
+     * @return int: a random number between min and max, both included
+     */
+    public int randomInt(int min, int max){
+        return Math.min(min, max+1)+nextInt(Math.abs((max+1)-min));
+    }/*end randomInt*/
+    
+    /**
+     * Name: nextInt
+     * Goal: draws an unbiased random number below the bound
+     * @param bound: the bound. MUST be positive
+     * @return int: a random number between 0 (included) and bound (excluded)
+     */
+    private int nextInt(int bound){
+        if(bound <= 0)
+            throw new IllegalArgumentException("bound must be positive: "+bound);
+        int r = mix32(nextSeed());
+        int m = bound-1;
+        //power of two: keep the low bits
+        if((bound&m) == 0)
+            return r&m;
+        //otherwise, reject values of the last incomplete range
+        for(int u = r>>>1; u+m-(r = u%bound) < 0; u = mix32(nextSeed())>>>1)
+            ;
+        return r;
+    }/*end nextInt*/
+    
+    private long nextSeed(){
+        return seed += gamma;
+    }/*end nextSeed*/
+    
+    private static long mix64(long z){
+        z = (z^(z>>>30))*0xbf58476d1ce4e5b9L;
+        z = (z^(z>>>27))*0x94d049bb133111ebL;
+        return z^(z>>>31);
+    }/*end mix64*/
+    
+    private static int mix32(long z){
+        z = (z^(z>>>33))*0x62a9d9ed799705f5L;
+        return (int)(((z^(z>>>28))*0xcb24d0a5c88c35b3L)>>>32);
+    }/*end mix32*/
+    
+    private static long mixGamma(long z){
+        z = (z^(z>>>33))*0xff51afd7ed558ccdL;
+        z = (z^(z>>>33))*0xc4ceb9fe1a85ec53L;
+        //gamma must be odd
+        z = (z^(z>>>33))|1L;
+        //avoid gammas with too few bit transitions
+        int n = Long.bitCount(z^(z>>>1));
+        return (n < 24)?z^0xaaaaaaaaaaaaaaaaL:z;
+    }/*end mixGamma*/
+
+}/*end RandomStream*/
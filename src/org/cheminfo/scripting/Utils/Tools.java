@@ -5,6 +5,9 @@ import java.util.Random;
 
 public class Tools {
     
+    //generateur partage, pour ne pas en creer un a chaque appel
+    private static final Random RANDOM = new Random();
+    
    public static double min(double[] array){
         double min = array[0];
         for(int i = 1; i < array.length; i++){
@@ -41,8 +44,7 @@ public class Tools {
      */
     public static int randomInt(int min, int max){
         //return (int)((Math.random()*((max+1)-min))+min);
-        Random rand = new Random();
-        return Math.min(min, max+1) + rand.nextInt(Math.abs((max+1) - min));
+        return Math.min(min, max+1) + RANDOM.nextInt(Math.abs((max+1) - min));
     }/*end randomInt*/
     
     
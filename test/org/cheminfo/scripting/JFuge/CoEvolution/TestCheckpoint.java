@@ -0,0 +1,67 @@
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.io.File;
+import java.util.ArrayList;
+import org.cheminfo.scripting.JFuge.JFuge;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystem;
+import org.cheminfo.scripting.Utils.RandomStream;
+
+public class TestCheckpoint {
+    
+    private static final int GENERATIONS = 12;
+    
+    //generation of the checkpoint the evolution is resumed from
+    private static final int CHECKPOINT = 5;
+    
+    /**
+     * Checks that an evolution stopped after a checkpoint and resumed from it
+     * evolves, for a fixed seed, the same generations and system as an
+     * evolution which was never stopped. Throws an AssertionError otherwise
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        TrainingSnapshot snapshot = TestData.loadIris();
+        ArrayList<Double> full_best = new ArrayList<Double>();
+        FuzzySystem full = TestData.evolve(create(snapshot), full_best);
+        
+        File file = File.createTempFile("jfuge", ".ckpt");
+        ArrayList<Double> resumed_best = new ArrayList<Double>();
+        FuzzySystem resumed;
+        try{
+            //stopped two generations after the checkpoint, which is then the
+            //last one written
+            final Coevolution stopped = create(snapshot);
+            stopped.setCheckpoint(file, CHECKPOINT);
+            stopped.addEvolutionListener(new EvolutionListener(){
+                public void generationEvolved(GenerationStats stats){
+                    if(stopped.getGenerationsRun() == CHECKPOINT+1)
+                        stopped.cancel();
+                }
+            });
+            stopped.evolveSystem();
+            TestData.check(stopped.getGenerationsRun() == CHECKPOINT+2, "Evolution stopped after "+stopped.getGenerationsRun()+" generations, "+(CHECKPOINT+2)+" expected");
+            
+            Coevolution ce = create(snapshot);
+            ce.resume(file);
+            TestData.check(ce.getGenerationsRun() == CHECKPOINT, "Evolution resumed after "+ce.getGenerationsRun()+" generations, "+CHECKPOINT+" expected");
+            resumed = TestData.evolve(ce, resumed_best);
+        }
+        finally{
+            file.delete();
+        }
+        TestData.check(full_best.size() == GENERATIONS, "Generations evolved: "+full_best.size());
+        TestData.checkSameEvolution(new ArrayList<Double>(full_best.subList(CHECKPOINT, GENERATIONS)), full, resumed_best, resumed, "Resumed");
+        System.out.println("Resumed evolution is the same as the uninterrupted one");
+    }
+    
+    /**
+     * Creates an iris coevolution from a fixed seed
+     */
+    private static Coevolution create(TrainingSnapshot snapshot){
+        return new Coevolution(snapshot, 0.1, 0.9, 0.5, 20, GENERATIONS, false,
+                               JFuge.TOURNAMENT_SELECTION, JFuge.ERROR_RMSE,
+                               0.1, 3, 1, 1, 0.5, 0.5, 5, new RandomStream(TestData.SEED));
+    }
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Name: TestData
+ * Goal: dataset, random genes, evolutions and checks shared by the tests:
+ *      - iris: data/iris_train.arff, 4 attributes and 3 classes
+ *      - evolve: runs a coevolution, recording the best fitness of each
+ *        generation, so two ways of evolving may be compared
+ * Usage: files are read from the data directory of the project, or from the
+ *        directory given by the jfuge.data system property. Genes are drawn
+ *        from a fixed seed, so every run checks the same systems
+ * @author Numa Trezzini
+ */
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.io.File;
+import java.util.ArrayList;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystem;
+import org.cheminfo.scripting.Utils.RandomStream;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils.DataSource;
+
+class TestData {
+    
+    //seed of the random genes
+    static final long SEED = 42;
+    
+    /**
+     * Name: loadIris
+     * Goal: reads the iris training set
+     * @return TrainingSnapshot: the dataset, with its class index set
+     * @throws Exception: if the file cannot be read
+     */
+    static TrainingSnapshot loadIris() throws Exception{
+        File dir = new File(System.getProperty("jfuge.data", "data"));
+        Instances data = new DataSource(new File(dir, "iris_train.arff").getPath()).getDataSet();
+        data.setClassIndex(data.numAttributes()-1);
+        return new TrainingSnapshot(data);
+    }/*end loadIris*/
+    
+    /**
+     * Name: randomMFGene
+     * Goal: draws a membership function gene the way a coevolution on the
+     *       snapshot would
+     * @param snapshot: the training data
+     * @param is_binary: indicates if variables have two or three terms
+     * @param random: the random numbers
+     * @return MFGene: the random gene
+     */
+    static MFGene randomMFGene(TrainingSnapshot snapshot, boolean is_binary, RandomStream random){
+        int num_attributes = snapshot.getColumns().numAttributes();
+        MFGene gene = new MFGene(snapshot.getMinMax(), num_attributes-1);
+        gene.makeRandom(num_attributes+snapshot.getColumns().numClasses()-1, is_binary?2:3, random);
+        return gene;
+    }/*end randomMFGene*/
+    
+    /**
+     * Name: randomRuleGene
+     * Goal: draws a rule gene the way a coevolution on the snapshot would
+     * @param snapshot: the training data
+     * @param is_binary: indicates if variables have two or three terms
+     * @param rule_count: the number of rules of the gene
+     * @param random: the random numbers
+     * @return RuleGene: the random gene
+     */
+    static RuleGene randomRuleGene(TrainingSnapshot snapshot, boolean is_binary, int rule_count, RandomStream random){
+        int num_attributes = snapshot.getColumns().numAttributes();
+        int num_classes = snapshot.getColumns().numClasses();
+        RuleGene gene = new RuleGene(num_attributes, is_binary?2:3, num_classes);
+        gene.makeRandom(rule_count, num_attributes+num_classes-1, random);
+        return gene;
+    }/*end randomRuleGene*/
+    
+    /**
+     * Name: evolve
+     * Goal: runs a coevolution to its end, recording the best fitness of each
+     *       generation
+     * @param ce: the coevolution, fully set up
+     * @param best: receives the best fitness of each generation
+     * @return FuzzySystem: the best system evolved
+     */
+    static FuzzySystem evolve(Coevolution ce, final ArrayList<Double> best){
+        ce.addEvolutionListener(new EvolutionListener(){
+            public void generationEvolved(GenerationStats stats){
+                best.add(stats.getBestFitness());
+            }
+        });
+        return ce.evolveSystem();
+    }/*end evolve*/
+    
+    /**
+     * Name: check
+     * Goal: fails the test if a condition does not hold
+     * @param condition: the condition
+     * @param message: describes the failure
+     */
+    static void check(boolean condition, String message){
+        if(!condition)
+            throw new AssertionError(message);
+    }/*end check*/
+    
+    /**
+     * Name: checkSame
+     * Goal: fails the test if two fitnesses differ. NaN is only the same as NaN
+     * @param expected: the expected fitness
+     * @param actual: the computed fitness
+     * @param what: the computed value, for the message
+     */
+    static void checkSame(double expected, double actual, String what){
+        check(Double.compare(expected, actual) == 0, what+" is "+actual+", "+expected+" expected");
+    }/*end checkSame*/
+    
+    /**
+     * Name: checkSameEvolution
+     * Goal: fails the test if two evolutions differ by the best fitness of a
+     *       generation, or by their best system
+     * @param expected_best: the best fitness of each expected generation
+     * @param expected: the expected system
+     * @param best: the best fitness of each evolved generation
+     * @param system: the evolved system
+     * @param what: the evolution checked, for the messages
+     */
+    static void checkSameEvolution(ArrayList<Double> expected_best, FuzzySystem expected, ArrayList<Double> best, FuzzySystem system, String what){
+        check(best.size() == expected_best.size(), what+" evolution ran "+best.size()+" generations, "+expected_best.size()+" expected");
+        for(int g = 0; g < best.size(); g++)
+            checkSame(expected_best.get(g), best.get(g), what+" best fitness of generation "+g);
+        checkSame(expected.getFitness(), system.getFitness(), what+" system fitness");
+        check(expected.toString().equals(system.toString()), what+" system differs:\n"+system+"\nexpected:\n"+expected);
+    }/*end checkSameEvolution*/
+
+}/*end TestData*/
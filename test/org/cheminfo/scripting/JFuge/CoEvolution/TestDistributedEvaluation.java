@@ -0,0 +1,56 @@
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.util.ArrayList;
+import org.cheminfo.scripting.JFuge.JFuge;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystem;
+import org.cheminfo.scripting.Utils.RandomStream;
+
+public class TestDistributedEvaluation {
+    
+    private static final int GENERATIONS = 8;
+    
+    /**
+     * Checks that a coevolution scored on two local worker JVMs evolves, for
+     * a fixed seed, the same generations and system as one scored in this
+     * JVM. Throws an AssertionError otherwise
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        TrainingSnapshot snapshot = TestData.loadIris();
+        ArrayList<Double> local_best = new ArrayList<Double>();
+        FuzzySystem local = evolve(snapshot, null, local_best);
+        
+        String token = EvaluationWorker.createToken();
+        EvaluationWorker.LocalWorkers workers = EvaluationWorker.launchLocal(2, token);
+        DistributedEvaluator evaluator = new DistributedEvaluator(workers.getAddresses(), token);
+        ArrayList<Double> distributed_best = new ArrayList<Double>();
+        FuzzySystem distributed;
+        int live_workers;
+        try{
+            distributed = evolve(snapshot, evaluator, distributed_best);
+            live_workers = evaluator.getLiveWorkerCount();
+        }
+        finally{
+            evaluator.close();
+            workers.destroy();
+        }
+        TestData.check(live_workers == 2, live_workers+" workers left at the end of the evolution, 2 expected");
+        TestData.check(local_best.size() == GENERATIONS, "Generations evolved: "+local_best.size());
+        TestData.checkSameEvolution(local_best, local, distributed_best, distributed, "Distributed");
+        System.out.println("Distributed evolution is the same as the local one");
+    }
+    
+    /**
+     * Evolves iris systems from a fixed seed, and records the best fitness of
+     * each generation
+     */
+    private static FuzzySystem evolve(TrainingSnapshot snapshot, DistributedEvaluator evaluator, ArrayList<Double> best){
+        Coevolution ce = new Coevolution(snapshot, 0.1, 0.9, 0.5, 20, GENERATIONS, false,
+                                         JFuge.TOURNAMENT_SELECTION, JFuge.ERROR_RMSE,
+                                         0.1, 3, 1, 1, 0.5, 0.5, 5, new RandomStream(TestData.SEED));
+        ce.setDistributedEvaluation(evaluator);
+        return TestData.evolve(ce, best);
+    }
+
+}
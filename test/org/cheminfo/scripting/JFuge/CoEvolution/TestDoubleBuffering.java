@@ -0,0 +1,44 @@
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.util.ArrayList;
+import org.cheminfo.scripting.JFuge.JFuge;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystem;
+import org.cheminfo.scripting.Utils.RandomStream;
+
+public class TestDoubleBuffering {
+    
+    private static final int GENERATIONS = 15;
+    
+    /**
+     * Checks that a coevolution breeding into double-buffered gene pools
+     * evolves, for a fixed seed, the same generations and system as one
+     * allocating its children, with elitism and an odd population (the
+     * fittest individual completes each generation). Throws an AssertionError
+     * otherwise
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        TrainingSnapshot snapshot = TestData.loadIris();
+        ArrayList<Double> allocated_best = new ArrayList<Double>();
+        FuzzySystem allocated = evolve(snapshot, false, allocated_best);
+        ArrayList<Double> pooled_best = new ArrayList<Double>();
+        FuzzySystem pooled = evolve(snapshot, true, pooled_best);
+        TestData.check(allocated_best.size() == GENERATIONS, "Generations evolved: "+allocated_best.size());
+        TestData.checkSameEvolution(allocated_best, allocated, pooled_best, pooled, "Double-buffered");
+        System.out.println("Double-buffered evolution is the same as the allocating one");
+    }
+    
+    /**
+     * Evolves iris systems from a fixed seed, and records the best fitness of
+     * each generation
+     */
+    private static FuzzySystem evolve(TrainingSnapshot snapshot, boolean double_buffering, ArrayList<Double> best){
+        Coevolution ce = new Coevolution(snapshot, 0.2, 0.9, 0.5, 21, GENERATIONS, false,
+                                         JFuge.ROULETTE_SELECTION, JFuge.ERROR_MSE,
+                                         0.2, 3, 1, 1, 0.5, 0.5, 5, new RandomStream(TestData.SEED));
+        ce.setDoubleBuffering(double_buffering);
+        return TestData.evolve(ce, best);
+    }
+
+}
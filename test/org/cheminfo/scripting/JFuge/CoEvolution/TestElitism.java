@@ -0,0 +1,39 @@
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import org.cheminfo.scripting.JFuge.JFuge;
+import org.cheminfo.scripting.Utils.RandomStream;
+
+public class TestElitism {
+    
+    /**
+     * Checks that the elite of a population is made of its fittest
+     * individuals, fittest first. Throws an AssertionError otherwise
+     * @param args
+     */
+    public static void main(String[] args) {
+        int pop_size = 20;
+        RandomStream random = new RandomStream(TestData.SEED);
+        GeneticEngine engine = new GeneticEngine(0.9, 1, JFuge.RANDOM_SELECTION, 0.25, 2, 0.1, pop_size, Coevolution.RULE, null, 4, 3, 2, 3, 4, random);
+        ArrayList<Gene> population = engine.getPopulation();
+        //the fittest individuals are placed at the end of the population
+        ArrayList<Double> fitnesses = new ArrayList<Double>();
+        for(int i = 0; i < pop_size; i++){
+            population.get(i).setFitness(i/(double)pop_size);
+            fitnesses.add(i/(double)pop_size);
+        }
+        Collections.sort(fitnesses, Collections.reverseOrder());
+        engine.selection();
+        LinkedList<Gene> elite = engine.getElite();
+        TestData.check(elite.size() == 5, "Elite of "+elite.size()+" individuals, 5 expected");
+        int i = 0;
+        for(Gene g : elite){
+            TestData.checkSame(fitnesses.get(i), g.getFitness(), "Fitness of elite individual "+i);
+            i++;
+        }
+        System.out.println("Elite is the top "+elite.size()+" individuals, fittest first");
+    }
+
+}
@@ -0,0 +1,78 @@
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import org.cheminfo.scripting.JFuge.JFuge;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.ColumnarData;
+import org.cheminfo.scripting.Utils.RandomStream;
+
+public class TestEvaluationProtocol {
+    
+    /**
+     * Checks that genomes and the setup of an evaluation are read back as
+     * they were written, so workers score individuals as the master does, and
+     * that invalid counts are refused. Throws an AssertionError otherwise
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        TrainingSnapshot snapshot = TestData.loadIris();
+        ColumnarData columns = snapshot.getColumns();
+        GenomeScorer scorer = new GenomeScorer(columns, JFuge.ERROR_RAE, new double[]{1, 2, 0.5, 0.25}, true);
+        
+        //setup
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EvaluationProtocol.writeSetup(new DataOutputStream(bytes), columns, scorer);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        GenomeScorer read = EvaluationProtocol.readSetup(in);
+        TestData.check(in.read() == -1, "Setup not read up to its end");
+        TestData.check(read.getErrorAlgorithm().equals(scorer.getErrorAlgorithm()), "Error algorithm read: "+read.getErrorAlgorithm());
+        TestData.check(Arrays.equals(read.getFitnessWeights(), scorer.getFitnessWeights()), "Weights read: "+Arrays.toString(read.getFitnessWeights()));
+        TestData.check(read.isSparse() == scorer.isSparse(), "Sparse flag read: "+read.isSparse());
+        ColumnarData read_columns = read.getTrainData();
+        TestData.check(read_columns.numRows() == columns.numRows() && read_columns.numClasses() == columns.numClasses()
+                       && read_columns.numAttributes() == columns.numAttributes(), "Size of the training data read");
+        for(int j = 0; j < columns.numAttributes(); j++)
+            TestData.check(Arrays.equals(read_columns.getColumn(j), columns.getColumn(j)), "Column "+j+" read");
+        TestData.check(Arrays.equals(read_columns.getClassLabels(), columns.getClassLabels()), "Class labels read");
+        
+        //genomes
+        RandomStream random = new RandomStream(TestData.SEED);
+        for(int k = 0; k < 20; k++){
+            MFGene mf_gene = TestData.randomMFGene(snapshot, k%2 == 0, random);
+            RuleGene rule_gene = TestData.randomRuleGene(snapshot, k%2 == 0, 2+k%6, random);
+            bytes = new ByteArrayOutputStream();
+            EvaluationProtocol.writeGenome(new DataOutputStream(bytes), mf_gene, rule_gene);
+            in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            Gene[] genes = EvaluationProtocol.readGenome(in);
+            TestData.check(in.read() == -1, "Genome "+k+" not read up to its end");
+            MFGene mf_read = (MFGene)genes[0];
+            RuleGene rule_read = (RuleGene)genes[1];
+            TestData.check(mf_read.getLineCount() == mf_gene.getLineCount() && mf_read.getColumnCount() == mf_gene.getColumnCount(), "Size of MF gene "+k+" read");
+            TestData.check(Arrays.equals(mf_read.getPoints(), mf_gene.getPoints()), "Zero points of MF gene "+k+" read");
+            TestData.check(rule_read.getLineCount() == rule_gene.getLineCount() && rule_read.getColumnCount() == rule_gene.getColumnCount(), "Size of rule gene "+k+" read");
+            TestData.check(Arrays.equals(rule_read.getVars(), rule_gene.getVars()), "Variables of rule gene "+k+" read");
+            TestData.check(Arrays.equals(rule_read.getTerms(), rule_gene.getTerms()), "Terms of rule gene "+k+" read");
+            TestData.checkSame(scorer.score(mf_gene, rule_gene, columns), read.score(mf_read, rule_read, read_columns), "Fitness of genome "+k+" read");
+        }
+        
+        //counts which cannot be allocated
+        bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(1<<20);
+        out.writeInt(1<<20);
+        try{
+            EvaluationProtocol.readGenome(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            throw new AssertionError("Genome of 2^40 zero points read");
+        }
+        catch(IOException e){
+            //refused before allocating
+        }
+        System.out.println("Setup and genomes are read as written");
+    }
+
+}
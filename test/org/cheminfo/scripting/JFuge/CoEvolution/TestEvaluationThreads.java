@@ -0,0 +1,46 @@
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.util.ArrayList;
+import org.cheminfo.scripting.JFuge.JFuge;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystem;
+import org.cheminfo.scripting.Utils.RandomStream;
+
+public class TestEvaluationThreads {
+    
+    private static final int GENERATIONS = 10;
+    
+    //threads of the concurrent evaluation, each scoring a slice of the population
+    private static final int THREADS = 4;
+    
+    /**
+     * Checks that a coevolution evaluating its individuals on several threads
+     * evolves, for a fixed seed, the same generations and system as one
+     * evaluating them on the caller's thread: each individual only writes its
+     * own fitness cells. Throws an AssertionError otherwise
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        TrainingSnapshot snapshot = TestData.loadIris();
+        ArrayList<Double> single_best = new ArrayList<Double>();
+        FuzzySystem single = evolve(snapshot, 1, single_best);
+        ArrayList<Double> concurrent_best = new ArrayList<Double>();
+        FuzzySystem concurrent = evolve(snapshot, THREADS, concurrent_best);
+        TestData.check(single_best.size() == GENERATIONS, "Generations evolved: "+single_best.size());
+        TestData.checkSameEvolution(single_best, single, concurrent_best, concurrent, THREADS+" threads");
+        System.out.println("Evolution on "+THREADS+" evaluation threads is the same as on one");
+    }
+    
+    /**
+     * Evolves iris systems from a fixed seed, and records the best fitness of
+     * each generation
+     */
+    private static FuzzySystem evolve(TrainingSnapshot snapshot, int threads, ArrayList<Double> best){
+        Coevolution ce = new Coevolution(snapshot, 0.1, 0.9, 0.5, 30, GENERATIONS, false,
+                                         JFuge.ROULETTE_SELECTION, JFuge.ERROR_RAE,
+                                         0.1, 3, 1, 1, 0.5, 0.5, 5, new RandomStream(TestData.SEED));
+        ce.setEvaluationThreads(threads);
+        return TestData.evolve(ce, best);
+    }
+
+}
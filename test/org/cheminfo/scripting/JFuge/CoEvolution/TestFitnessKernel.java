@@ -0,0 +1,96 @@
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import org.cheminfo.scripting.JFuge.JFuge;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.ColumnarData;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.CompiledFuzzySystem;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystem;
+import org.cheminfo.scripting.Utils.RandomStream;
+import weka.core.Instances;
+
+public class TestFitnessKernel {
+    
+    private static final String[] METRICS = {JFuge.ERROR_RMSE, JFuge.ERROR_MSE, JFuge.ERROR_RRSE, JFuge.ERROR_RAE};
+    
+    /**
+     * Checks that the fitness kernel gives, for each metric, the fitness the
+     * coevolution computed from the distributions of a FuzzySystem before the
+     * kernel existed, on random individuals of iris. Throws an AssertionError
+     * otherwise
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        TrainingSnapshot snapshot = TestData.loadIris();
+        ColumnarData columns = snapshot.getColumns();
+        RandomStream random = new RandomStream(TestData.SEED);
+        for(int k = 0; k < 50; k++){
+            MFGene mf_gene = TestData.randomMFGene(snapshot, false, random);
+            RuleGene rule_gene = TestData.randomRuleGene(snapshot, false, 2+k%8, random);
+            FuzzySystem system = GeneTranslator.geneToFuzzy(mf_gene, rule_gene, snapshot.getData(), false, snapshot.getMinMax());
+            CompiledFuzzySystem compiled = GeneTranslator.geneToCompiled(mf_gene, rule_gene, columns, false);
+            double[][] distributions = system.distributionForInstances(snapshot.getData());
+            for(String metric : METRICS){
+                FitnessKernel kernel = new FitnessKernel(metric, 1, 1);
+                double expected = fitness(system, snapshot.getData(), metric);
+                TestData.check(!Double.isNaN(expected), "Reference fitness of individual "+k+" is NaN");
+                TestData.checkSame(expected, kernel.score(compiled, columns), "Kernel fitness of individual "+k+" ("+metric+")");
+                TestData.checkSame(expected, kernel.score(distributions, columns), "Kernel fitness of distributions "+k+" ("+metric+")");
+            }
+        }
+        //perfect predictions: memberships of 0 to the other classes are
+        //errors of 0, whatever the metric
+        double[][] perfect = new double[columns.numRows()][columns.numClasses()];
+        for(int i = 0; i < perfect.length; i++)
+            perfect[i][columns.getClassLabels()[i]] = 1;
+        for(String metric : METRICS)
+            TestData.checkSame(2, new FitnessKernel(metric, 1, 1).score(perfect, columns), "Kernel fitness of perfect predictions ("+metric+")");
+        System.out.println("Fitness kernel matches the FuzzySystem fitness for all metrics");
+    }
+    
+    /**
+     * The classification rate and error computed as the coevolution did
+     * before the fitness kernel, with weights 1. A relative error is 0 when
+     * both the prediction and the target are 0, as in the kernel
+     */
+    private static double fitness(FuzzySystem system, Instances data, String metric){
+        double[][] activation = new double[data.numInstances()][];
+        for(int i = 0; i < data.numInstances(); i++)
+            activation[i] = system.distributionForInstance(data.instance(i));
+        double[][] classified = system.preclassifyInstances(data);
+        int count = 0;
+        for(int i = 0; i < data.numInstances(); i++){
+            for(int j = 0; j < classified[i].length; j++){
+                if(classified[i][j] == 1 && j == data.instance(i).classValue())
+                    count++;
+                else if(classified[i][j] == 0 && j != data.instance(i).classValue())
+                    count++;
+            }
+        }
+        double fitness = ((double)count)/(data.numInstances()*data.classAttribute().numValues());
+        double sum = 0;
+        double error;
+        double target;
+        double mean_error;
+        for(int i = 0; i < data.numInstances(); i++){
+            for(int j = 0; j < activation[i].length; j++){
+                target = j==data.instance(i).classValue()?1:0;
+                error = activation[i][j]-target;
+                mean_error = (activation[i][j]+target)/2;
+                if(metric.equals(JFuge.ERROR_RMSE) || metric.equals(JFuge.ERROR_MSE))
+                    sum += error*error;
+                else if(mean_error == 0)
+                    continue;
+                else if(metric.equals(JFuge.ERROR_RRSE))
+                    sum += (error/mean_error)*(error/mean_error);
+                else
+                    sum += Math.abs(error)/mean_error;
+            }
+        }
+        double total_error = sum/data.numInstances();
+        if(metric.equals(JFuge.ERROR_RMSE) || metric.equals(JFuge.ERROR_RRSE))
+            total_error = Math.sqrt(total_error);
+        fitness += Math.pow(2, -total_error);
+        return fitness;
+    }
+
+}
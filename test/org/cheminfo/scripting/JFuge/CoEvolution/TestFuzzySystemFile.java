@@ -0,0 +1,118 @@
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystem;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.FuzzySystemFile;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.Rule;
+import org.cheminfo.scripting.Utils.RandomStream;
+import weka.core.Instances;
+
+public class TestFuzzySystemFile {
+    
+    /**
+     * Checks that saved systems are loaded back with the same fitness,
+     * distributions and printout, from a buffer and from a file, and that
+     * files with a wrong magic number, a newer version, an invalid count or an
+     * unknown connector, and truncated files, are refused with an IOException.
+     * Throws an AssertionError otherwise
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        TrainingSnapshot snapshot = TestData.loadIris();
+        Instances data = snapshot.getData();
+        RandomStream random = new RandomStream(TestData.SEED);
+        byte[] bytes = null;
+        for(int k = 0; k < 20; k++){
+            MFGene mf_gene = TestData.randomMFGene(snapshot, k%2 == 0, random);
+            RuleGene rule_gene = TestData.randomRuleGene(snapshot, k%2 == 0, 2+k%6, random);
+            FuzzySystem system = GeneTranslator.geneToFuzzy(mf_gene, rule_gene, data, k%2 == 0, snapshot.getMinMax());
+            system.setFitness(k/20.0);
+            bytes = save(system);
+            checkSameSystem(system, FuzzySystemFile.load(ByteBuffer.wrap(bytes)), data, "System "+k+" loaded from a buffer");
+        }
+        
+        //memory-mapped file
+        MFGene mf_gene = TestData.randomMFGene(snapshot, false, random);
+        RuleGene rule_gene = TestData.randomRuleGene(snapshot, false, 5, random);
+        FuzzySystem system = GeneTranslator.geneToFuzzy(mf_gene, rule_gene, data, false, snapshot.getMinMax());
+        File file = File.createTempFile("jfuge", ".fuz");
+        try{
+            FuzzySystemFile.save(system, file);
+            checkSameSystem(system, FuzzySystemFile.load(file), data, "System loaded from a file");
+        }
+        finally{
+            file.delete();
+        }
+        
+        //the first byte differing once the connector of the first rule is
+        //changed is that connector, the rule count is just before it
+        bytes = save(system);
+        Rule first_rule = system.getRules().getFirst();
+        first_rule.setConnector(Rule.AND.equals(first_rule.getConnector())?Rule.OR:Rule.AND);
+        byte[] other_connector = save(system);
+        int connector = 0;
+        while(bytes[connector] == other_connector[connector])
+            connector++;
+        
+        byte[] corrupted = bytes.clone();
+        corrupted[0] ^= 1;
+        checkRefused(corrupted, "File with a wrong magic number");
+        corrupted = bytes.clone();
+        ByteBuffer.wrap(corrupted).putShort(4, (short)(FuzzySystemFile.VERSION+1));
+        checkRefused(corrupted, "File of a newer version");
+        corrupted = bytes.clone();
+        ByteBuffer.wrap(corrupted).putInt(connector-4, -1);
+        checkRefused(corrupted, "File with a negative rule count");
+        corrupted = bytes.clone();
+        ByteBuffer.wrap(corrupted).putInt(connector-4, Integer.MAX_VALUE);
+        checkRefused(corrupted, "File with more rules than bytes");
+        corrupted = bytes.clone();
+        corrupted[connector] = 7;
+        checkRefused(corrupted, "File with an unknown connector");
+        for(int length = 0; length < bytes.length; length++)
+            checkRefused(Arrays.copyOf(bytes, length), "File truncated to "+length+" bytes");
+        System.out.println("Systems are loaded as saved, and corrupted files are refused");
+    }
+    
+    /**
+     * Saves a system into an array
+     */
+    private static byte[] save(FuzzySystem system) throws IOException{
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FuzzySystemFile.save(system, out);
+        return out.toByteArray();
+    }
+    
+    /**
+     * Fails if a loaded system has another fitness, printout or distribution
+     * than the saved one
+     */
+    private static void checkSameSystem(FuzzySystem saved, FuzzySystem loaded, Instances data, String what){
+        TestData.checkSame(saved.getFitness(), loaded.getFitness(), what+": fitness");
+        TestData.check(saved.toString().equals(loaded.toString()), what+" differs:\n"+loaded+"\nexpected:\n"+saved);
+        double[][] expected = saved.distributionForInstances(data);
+        double[][] distributions = loaded.distributionForInstances(data);
+        for(int i = 0; i < expected.length; i++)
+            for(int j = 0; j < expected[i].length; j++)
+                TestData.checkSame(expected[i][j], distributions[i][j], what+": membership of instance "+i+" to class "+j);
+    }
+    
+    /**
+     * Fails if a file is loaded without an IOException
+     */
+    private static void checkRefused(byte[] bytes, String what){
+        try{
+            FuzzySystemFile.load(ByteBuffer.wrap(bytes));
+        }
+        catch(IOException e){
+            return;
+        }
+        throw new AssertionError(what+" loaded");
+    }
+
+}
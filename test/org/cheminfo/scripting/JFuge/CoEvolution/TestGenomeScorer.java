@@ -0,0 +1,75 @@
+package org.cheminfo.scripting.JFuge.CoEvolution;
+
+import org.cheminfo.scripting.JFuge.JFuge;
+import org.cheminfo.scripting.JFuge.FuzzyLogic.ColumnarData;
+import org.cheminfo.scripting.Utils.RandomStream;
+
+public class TestGenomeScorer {
+    
+    private static final double[] WEIGHTS = {1, 1, 0.5, 0.5};
+    
+    /**
+     * Checks that delta evaluation, the sparse index and the fitness cache
+     * give the fitness GenomeScorer.score computes from the genes, on random
+     * iris individuals bred over several generations of mutations and
+     * crossovers. Throws an AssertionError otherwise
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        TrainingSnapshot snapshot = TestData.loadIris();
+        ColumnarData columns = snapshot.getColumns();
+        GenomeScorer scorer = new GenomeScorer(columns, JFuge.ERROR_RMSE, WEIGHTS, false);
+        GenomeScorer sparse = new GenomeScorer(columns, JFuge.ERROR_RMSE, WEIGHTS, true);
+        DeltaEvaluator delta = new DeltaEvaluator(columns);
+        FitnessCache cache = new FitnessCache(1<<20);
+        RandomStream random = new RandomStream(TestData.SEED);
+        int count = 20;
+        MFGene[] mf_genes = new MFGene[count];
+        RuleGene[] rule_genes = new RuleGene[count];
+        for(int i = 0; i < count; i++){
+            mf_genes[i] = TestData.randomMFGene(snapshot, false, random);
+            rule_genes[i] = TestData.randomRuleGene(snapshot, false, 6, random);
+        }
+        for(int generation = 0; generation < 10; generation++){
+            for(int i = 0; i < count; i++){
+                double expected = scorer.score(mf_genes[i], rule_genes[i], columns);
+                int[] rules = delta.keptRules(rule_genes[i]);
+                double incremental = scorer.score(delta.distribution(mf_genes[i], rule_genes[i], rules), columns,
+                                                  rules.length, delta.varPerRuleNumber(rule_genes[i], rules));
+                String individual = "individual "+i+" of generation "+generation;
+                TestData.checkSame(expected, incremental, "Delta fitness of "+individual);
+                TestData.checkSame(expected, sparse.score(mf_genes[i], rule_genes[i], columns), "Sparse fitness of "+individual);
+                //copies are the same individual for the cache
+                MFGene mf_copy = (MFGene)mf_genes[i].copy();
+                RuleGene rule_copy = (RuleGene)rule_genes[i].copy();
+                double cached = cache.get(mf_copy, rule_copy, WEIGHTS, JFuge.ERROR_RMSE);
+                if(Double.isNaN(cached))
+                    cache.put(mf_copy, rule_copy, WEIGHTS, JFuge.ERROR_RMSE, expected);
+                else
+                    TestData.checkSame(expected, cached, "Cached fitness of "+individual);
+                TestData.checkSame(expected, cache.get(mf_genes[i], rule_genes[i], WEIGHTS, JFuge.ERROR_RMSE), "Cached fitness of "+individual);
+                TestData.check(Double.isNaN(cache.get(mf_genes[i], rule_genes[i], WEIGHTS, JFuge.ERROR_MSE)), "Fitness of "+individual+" cached for another metric");
+            }
+            //breed the next generation: crossovers keep the delta state of
+            //the parents, mutations change a single cell
+            for(int i = 0; i+1 < count; i += 2){
+                Gene[] mf_children = mf_genes[i].crossover(mf_genes[i+1], random);
+                Gene[] rule_children = rule_genes[i].crossover(rule_genes[i+1], random);
+                mf_genes[i] = (MFGene)mf_children[0];
+                mf_genes[i+1] = (MFGene)mf_children[1];
+                rule_genes[i] = (RuleGene)rule_children[0];
+                rule_genes[i+1] = (RuleGene)rule_children[1];
+            }
+            for(int i = 0; i < count; i++){
+                if(random.randomDouble(0, 1) < 0.5)
+                    mf_genes[i].mutate(random);
+                if(random.randomDouble(0, 1) < 0.5)
+                    rule_genes[i].mutate(random);
+            }
+        }
+        TestData.check(cache.getHitCount() > 0, "The fitness cache was never hit");
+        System.out.println("Delta, sparse and cached fitnesses match GenomeScorer.score ("+cache+")");
+    }
+
+}